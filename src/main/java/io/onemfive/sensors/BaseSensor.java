@@ -25,6 +25,7 @@ public abstract class BaseSensor implements Sensor {
     protected Map<String,NetworkPeer> peers = new HashMap<>();
     protected TaskRunner taskRunner;
     protected String directory;
+    private SensorOutboundQueue outboundQueue;
 
     protected void updateStatus(SensorStatus sensorStatus) {
         this.sensorStatus = sensorStatus;
@@ -91,6 +92,28 @@ public abstract class BaseSensor implements Sensor {
         return restartAttempts;
     }
 
+    /**
+     * Queue of envelopes sent through this sensor in batches so implementations
+     * only need to override sendBatch to batch their sends. Started on first use.
+     */
+    public synchronized SensorOutboundQueue getOutboundQueue() {
+        if(outboundQueue == null) {
+            outboundQueue = new SensorOutboundQueue(this, SensorsConfig.OutQC, SensorsConfig.OutMB, SensorsConfig.OutTL, SensorsConfig.OutW);
+            outboundQueue.start();
+        }
+        return outboundQueue;
+    }
+
+    /**
+     * Hand queued envelopes to the sensor then stop the outbound queue; call before shutting the sensor down.
+     */
+    public synchronized void shutdownOutboundQueue(long waitMS) {
+        if(outboundQueue != null) {
+            outboundQueue.shutdown(waitMS);
+            outboundQueue = null;
+        }
+    }
+
     @Override
     public File getDirectory() {
         return sensorManager.getSensorDirectory(this.getClass().getName());
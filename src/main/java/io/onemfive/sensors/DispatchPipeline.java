@@ -0,0 +1,254 @@
+package io.onemfive.sensors;
+
+import io.onemfive.core.util.AppThread;
+import io.onemfive.data.Envelope;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bounded staged pipeline dispatching envelopes off of the bus thread.
+ *
+ * Each stage has its own pool of workers, one per stripe, each draining its own bounded queue.
+ * Envelopes are striped by destination so envelopes to the same peer pass through every stage
+ * in order on the same stripe while envelopes to different peers proceed in parallel.
+ * A full queue blocks the worker feeding it so backpressure propagates back to submit,
+ * which gives up once the submit timeout passes. An envelope a stage fails on goes no further
+ * and is handed to the failure handler so the worker carries on with the next.
+ */
+public class DispatchPipeline {
+
+    private static final Logger LOG = Logger.getLogger(DispatchPipeline.class.getName());
+
+    /**
+     * A step of dispatching an envelope.
+     */
+    public interface Stage {
+        /**
+         * @return false if the envelope was handled or dead lettered and goes no further
+         */
+        boolean process(Dispatch dispatch);
+    }
+
+    /**
+     * Handles an envelope a stage failed on.
+     */
+    public interface FailureHandler {
+        void failed(Dispatch dispatch, Exception e);
+    }
+
+    /**
+     * An envelope and what the stages have worked out about it so far.
+     */
+    public static class Dispatch {
+        final Envelope envelope;
+        final String destination;
+        SensorRequest request;
+        Sensor sensor;
+
+        Dispatch(Envelope envelope, SensorRequest request, String destination) {
+            this.envelope = envelope;
+            this.request = request;
+            this.destination = destination;
+        }
+    }
+
+    private final String[] names;
+    private final Stage[] stages;
+    private final int stripes;
+    private final BlockingQueue<Dispatch>[][] queues;
+    private final AppThread[][] workers;
+    private final long submitTimeoutMS;
+    private final FailureHandler failureHandler;
+
+    private volatile boolean running = false;
+    private final AtomicLong[] processed;
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong backpressured = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public DispatchPipeline(String[] names, Stage[] stages, int stripes, int capacity, long submitTimeoutMS, FailureHandler failureHandler) {
+        this.names = names;
+        this.stages = stages;
+        this.stripes = stripes;
+        this.submitTimeoutMS = submitTimeoutMS;
+        this.failureHandler = failureHandler;
+        queues = new BlockingQueue[stages.length][stripes];
+        workers = new AppThread[stages.length][stripes];
+        processed = new AtomicLong[stages.length];
+        for(int s = 0; s < stages.length; s++) {
+            processed[s] = new AtomicLong();
+            for(int i = 0; i < stripes; i++) {
+                queues[s][i] = new ArrayBlockingQueue<>(capacity);
+            }
+        }
+    }
+
+    public void start() {
+        running = true;
+        for(int s = 0; s < stages.length; s++) {
+            for(int i = 0; i < stripes; i++) {
+                final int stage = s;
+                final int stripe = i;
+                workers[s][i] = new AppThread(() -> work(stage, stripe));
+                workers[s][i].start();
+            }
+        }
+        LOG.info("Dispatch pipeline started with "+stages.length+" stages of "+stripes+" stripes.");
+    }
+
+    /**
+     * Queue the envelope for dispatch, waiting up to the submit timeout while the first stage is full.
+     * @param destination address of the destination peer or null if none
+     * @return false if the pipeline is stopped or stayed full and the envelope was not queued
+     */
+    public boolean submit(Envelope envelope, SensorRequest request, String destination) {
+        if(!running) return false;
+        Dispatch d = new Dispatch(envelope, request, destination);
+        if(!offer(0, d, submitTimeoutMS)) {
+            long r = rejected.incrementAndGet();
+            LOG.warning("Dispatch pipeline full; envelope not accepted. Total rejected: "+r);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop once queued envelopes have been dispatched, waiting up to the supplied time for each worker.
+     */
+    public void shutdown(long waitMS) {
+        running = false;
+        for(AppThread[] stage : workers) {
+            for(AppThread w : stage) {
+                if(w == null) continue;
+                try {
+                    w.join(waitMS);
+                } catch (InterruptedException e) {
+                    LOG.warning("Interrupted waiting on dispatch workers to drain.");
+                    return;
+                }
+            }
+        }
+    }
+
+    private void work(int stage, int stripe) {
+        BlockingQueue<Dispatch> queue = queues[stage][stripe];
+        // Upstream stages must drain before a stage may stop
+        while(running || !queue.isEmpty() || upstreamBusy(stage)) {
+            Dispatch d;
+            try {
+                d = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOG.info(names[stage]+" worker interrupted.");
+                return;
+            }
+            if(d == null) continue;
+            boolean proceed;
+            try {
+                proceed = stages[stage].process(d);
+            } catch (Exception e) {
+                long f = failed.incrementAndGet();
+                LOG.warning(names[stage]+" stage failed: "+e.getLocalizedMessage()+". Total failed: "+f);
+                try {
+                    failureHandler.failed(d, e);
+                } catch (Exception fe) {
+                    LOG.warning("Handling failed envelope failed: "+fe.getLocalizedMessage());
+                }
+                proceed = false;
+            }
+            processed[stage].incrementAndGet();
+            if(proceed && stage + 1 < stages.length) {
+                // Blocks while the next stage is full
+                offer(stage + 1, d, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    private boolean offer(int stage, Dispatch d, long timeoutMS) {
+        BlockingQueue<Dispatch> queue = queues[stage][stripe(d)];
+        if(queue.offer(d)) return true;
+        backpressured.incrementAndGet();
+        LOG.info(names[stage]+" stage full; applying backpressure.");
+        try {
+            return queue.offer(d, timeoutMS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private boolean upstreamBusy(int stage) {
+        for(int s = 0; s < stage; s++) {
+            if(getDepth(s) > 0) return true;
+            for(AppThread w : workers[s]) {
+                if(w != null && w.isAlive()) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Envelopes without a destination peer are spread across stripes.
+     */
+    private int stripe(Dispatch d) {
+        int h = d.destination != null ? d.destination.hashCode() : System.identityHashCode(d.envelope);
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % stripes;
+    }
+
+    /**
+     * @return envelopes queued for the stage across its stripes
+     */
+    public int getDepth(int stage) {
+        int depth = 0;
+        for(BlockingQueue<Dispatch> q : queues[stage]) {
+            depth += q.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return true if any stripe of the stage is full so the stage before it is held up
+     */
+    public boolean isBackpressured(int stage) {
+        for(BlockingQueue<Dispatch> q : queues[stage]) {
+            if(q.remainingCapacity() == 0) return true;
+        }
+        return false;
+    }
+
+    public String getStageName(int stage) {
+        return names[stage];
+    }
+
+    public int getStages() {
+        return stages.length;
+    }
+
+    public long getProcessed(int stage) {
+        return processed[stage].get();
+    }
+
+    /**
+     * @return envelopes a stage failed on
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return envelopes not accepted by submit because the first stage stayed full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return times a stage was found full when handed an envelope
+     */
+    public long getBackpressured() {
+        return backpressured.get();
+    }
+}
@@ -0,0 +1,279 @@
+package io.onemfive.sensors;
+
+import io.onemfive.core.util.AppThread;
+import io.onemfive.data.Envelope;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Sends envelopes through their sensor's outbound queue and, if the sensor has not confirmed
+ * within a budget taken from its recent p95 latency, also through the next escalated sensor.
+ *
+ * The first confirmation wins and the other copy is withdrawn if still queued.
+ * The original is only reported failed once both copies have failed.
+ * Hedges are paid for from a bucket each send tops up by the hedge percent
+ * so no more than that share of traffic is ever hedged.
+ */
+public class HedgedSender {
+
+    private static final Logger LOG = Logger.getLogger(HedgedSender.class.getName());
+
+    // Hedges that may be spent at once after a quiet spell
+    private static final double MAX_BURST = 10;
+
+    /**
+     * Builds the copy of an envelope sent through the escalated sensor.
+     */
+    public interface Rerouter {
+        /**
+         * @return the copy to send or null if the envelope can not be rerouted
+         */
+        Envelope reroute(Envelope envelope);
+    }
+
+    private static final int PENDING = 0;
+    private static final int SENT = 1;
+    private static final int FAILED = 2;
+
+    private class Hedge implements Delayed {
+        final Sensor primary;
+        final Envelope envelope;
+        final SensorOutboundQueue.SendListener listener;
+        final long hedgeAt;
+        int primaryState = PENDING;
+        int hedgeState = -1;
+        boolean settled = false;
+        Sensor escalated;
+        Envelope copy;
+
+        Hedge(Sensor primary, Envelope envelope, SensorOutboundQueue.SendListener listener, long hedgeAt) {
+            this.primary = primary;
+            this.envelope = envelope;
+            this.listener = listener;
+            this.hedgeAt = hedgeAt;
+        }
+
+        final SensorOutboundQueue.SendListener primaryListener = new SensorOutboundQueue.SendListener() {
+            @Override
+            public void sent(Sensor sensor, Envelope e) {
+                boolean cancelHedge;
+                synchronized (Hedge.this) {
+                    primaryState = SENT;
+                    if(settled) return;
+                    settled = true;
+                    cancelHedge = hedgeState == PENDING;
+                }
+                if(cancelHedge) {
+                    sensorManager.getOutboundQueue(escalated).cancel(copy);
+                    hedgesLost.incrementAndGet();
+                }
+                if(listener != null) {
+                    listener.sent(primary, envelope);
+                }
+            }
+
+            @Override
+            public void failed(Sensor sensor, Envelope e) {
+                synchronized (Hedge.this) {
+                    primaryState = FAILED;
+                    // A pending hedge may still deliver
+                    if(settled || hedgeState == PENDING) return;
+                    settled = true;
+                }
+                notifyFailed(Hedge.this);
+            }
+        };
+
+        final SensorOutboundQueue.SendListener hedgeListener = new SensorOutboundQueue.SendListener() {
+            @Override
+            public void sent(Sensor sensor, Envelope e) {
+                boolean cancelPrimary;
+                synchronized (Hedge.this) {
+                    hedgeState = SENT;
+                    if(settled) return;
+                    settled = true;
+                    cancelPrimary = primaryState == PENDING;
+                }
+                hedgesWon.incrementAndGet();
+                if(cancelPrimary) {
+                    sensorManager.getOutboundQueue(primary).cancel(envelope);
+                }
+                if(listener != null) {
+                    listener.sent(primary, envelope);
+                }
+            }
+
+            @Override
+            public void failed(Sensor sensor, Envelope e) {
+                synchronized (Hedge.this) {
+                    hedgeState = FAILED;
+                    if(settled || primaryState == PENDING) return;
+                    settled = true;
+                }
+                notifyFailed(Hedge.this);
+            }
+        };
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(hedgeAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(hedgeAt, ((Hedge)o).hedgeAt);
+        }
+    }
+
+    private final SensorManager sensorManager;
+    private final Rerouter rerouter;
+    private final int hedgePercent;
+    private final long minBudgetMS;
+    private final DelayQueue<Hedge> timers = new DelayQueue<>();
+    private AppThread timer;
+    private volatile boolean running = false;
+
+    private double hedgeCredit = 0;
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong hedgesLost = new AtomicLong();
+    private final AtomicLong hedgesCapped = new AtomicLong();
+
+    public HedgedSender(SensorManager sensorManager, Rerouter rerouter, int hedgePercent, long minBudgetMS) {
+        this.sensorManager = sensorManager;
+        this.rerouter = rerouter;
+        this.hedgePercent = hedgePercent;
+        this.minBudgetMS = minBudgetMS;
+    }
+
+    public synchronized void start() {
+        if(running) return;
+        running = true;
+        timer = new AppThread(this::fire);
+        timer.start();
+    }
+
+    public synchronized void shutdown() {
+        running = false;
+        timers.clear();
+        if(timer == null) return;
+        try {
+            timer.join(1000);
+        } catch (InterruptedException e) {
+            LOG.warning("Interrupted waiting on hedge timer to stop.");
+        }
+        timer = null;
+    }
+
+    /**
+     * Queue the envelope on the sensor, hedging it if the sensor runs late.
+     * @param listener told whether the envelope was sent by either sensor; may be null
+     * @return false if the sensor's queue did not accept the envelope
+     */
+    public boolean send(Sensor sensor, Envelope envelope, SensorOutboundQueue.SendListener listener) {
+        if(!running || hedgePercent <= 0 || sensorManager.getEscalatedSensor(sensor) == null) {
+            return sensorManager.sendQueued(sensor, envelope, listener);
+        }
+        synchronized (this) {
+            hedgeCredit = Math.min(MAX_BURST, hedgeCredit + hedgePercent / 100.0);
+        }
+        long budget = Math.max(minBudgetMS, sensorManager.getOutboundQueue(sensor).getP95LatencyMS());
+        Hedge h = new Hedge(sensor, envelope, listener, System.currentTimeMillis() + budget);
+        if(!sensorManager.sendQueued(sensor, envelope, h.primaryListener)) {
+            return false;
+        }
+        timers.offer(h);
+        return true;
+    }
+
+    private void fire() {
+        while(running) {
+            Hedge h;
+            try {
+                h = timers.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOG.info("Hedge timer interrupted.");
+                return;
+            }
+            if(h == null) continue;
+            try {
+                hedge(h);
+            } catch (Exception e) {
+                LOG.warning("Hedging failed: "+e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private void hedge(Hedge h) {
+        synchronized (h) {
+            if(h.settled || h.primaryState != PENDING) return;
+        }
+        Sensor escalated = sensorManager.getEscalatedSensor(h.primary);
+        if(escalated == null || escalated.getStatus() == SensorStatus.NETWORK_BLOCKED) return;
+        if(!hasCredit()) return;
+        Envelope copy = rerouter.reroute(h.envelope);
+        if(copy == null) return;
+        synchronized (h) {
+            if(h.settled || h.primaryState != PENDING) return;
+            // Only paid for once the hedge is certain to be sent
+            synchronized (this) {
+                if(!hasCredit()) return;
+                hedgeCredit -= 1;
+            }
+            h.escalated = escalated;
+            h.copy = copy;
+            h.hedgeState = PENDING;
+        }
+        LOG.info(h.primary.getClass().getName()+" late confirming; hedging through "+escalated.getClass().getName());
+        hedged.incrementAndGet();
+        if(!sensorManager.sendQueued(escalated, copy, h.hedgeListener)) {
+            h.hedgeListener.failed(escalated, copy);
+        }
+    }
+
+    private synchronized boolean hasCredit() {
+        if(hedgeCredit < 1) {
+            hedgesCapped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void notifyFailed(Hedge h) {
+        if(h.listener != null) {
+            h.listener.failed(h.primary, h.envelope);
+        }
+    }
+
+    /**
+     * @return envelopes also sent through an escalated sensor
+     */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * @return hedges confirmed before the original
+     */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * @return hedges withdrawn because the original was confirmed first
+     */
+    public long getHedgesLost() {
+        return hedgesLost.get();
+    }
+
+    /**
+     * @return late sends not hedged because the hedge percent was spent
+     */
+    public long getHedgesCapped() {
+        return hedgesCapped.get();
+    }
+}
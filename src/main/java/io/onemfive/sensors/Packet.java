@@ -4,15 +4,34 @@ import io.onemfive.data.Envelope;
 import io.onemfive.data.NetworkPeer;
 import io.onemfive.data.content.Content;
 
+import io.onemfive.data.util.JSONParser;
+
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
+/**
+ * Packets keep the map or bytes they were received as and only decode their peers and envelope
+ * when first got, caching them, so packets only inspected by id and type and forwarded are never
+ * fully decoded; fields not yet decoded are passed through as received when sent on.
+ * Subclasses read and set these fields through their getters and setters.
+ * The peers of a packet received can be checked by address without decoding them.
+ */
 public class Packet {
 
     private Logger LOG = Logger.getLogger(Packet.class.getName());
 
+    private static final int ORIGINATION = 0;
+    private static final int FROM = 1;
+    private static final int TO = 2;
+    private static final int DESTINATION = 3;
+    private static final int ENVELOPE = 4;
+    private static final String[] KEYS = {"originationPeer", "fromPeer", "toPeer", "destinationPeer", "data"};
+    private static final int ALL = (1 << KEYS.length) - 1;
+
     private String id;
+    // Protected for subclasses compiled against earlier versions; null until decoded so use the getters
     protected Envelope envelope;
 
     protected NetworkPeer originationPeer;
@@ -20,6 +39,14 @@ public class Packet {
     protected NetworkPeer toPeer;
     protected NetworkPeer destinationPeer;
 
+    // Bit per field received and not yet decoded
+    private volatile int undecoded = 0;
+    // Map or bytes the fields were received as, released once all are decoded
+    private Map<String, Object> raw;
+    private ByteBuffer rawBuffer;
+    // Start and end of each field in rawBuffer
+    private int[] rawOffsets;
+
     public Packet() {}
 
     public String getId() {
@@ -32,83 +59,233 @@ public class Packet {
     }
 
     public Envelope getEnvelope() {
+        if(isUndecoded(ENVELOPE)) decode(ENVELOPE);
         return envelope;
     }
 
     public void setEnvelope(Envelope envelope) {
         this.envelope = envelope;
+        decoded(ENVELOPE);
     }
 
     public NetworkPeer getOriginationPeer() {
+        if(isUndecoded(ORIGINATION)) decode(ORIGINATION);
         return originationPeer;
     }
 
     public Packet setOriginationPeer(NetworkPeer originationPeer) {
         this.originationPeer = originationPeer;
+        decoded(ORIGINATION);
         return this;
     }
 
     public NetworkPeer getFromPeer() {
+        if(isUndecoded(FROM)) decode(FROM);
         return fromPeer;
     }
 
     public Packet setFromPeer(NetworkPeer fromPeer) {
         this.fromPeer = fromPeer;
+        decoded(FROM);
         return this;
     }
 
     public NetworkPeer getToPeer() {
+        if(isUndecoded(TO)) decode(TO);
         return toPeer;
     }
 
     public Packet setToPeer(NetworkPeer toPeer) {
         this.toPeer = toPeer;
+        decoded(TO);
         return this;
     }
 
     public NetworkPeer getDestinationPeer() {
+        if(isUndecoded(DESTINATION)) decode(DESTINATION);
         return destinationPeer;
     }
 
     public Packet setDestinationPeer(NetworkPeer destinationPeer) {
         this.destinationPeer = destinationPeer;
+        decoded(DESTINATION);
         return this;
     }
 
+    /**
+     * @return the from peer's address and I2P address, read from what was received without
+     * decoding the peer, or null if there is no from peer
+     */
+    public String[] getFromAddresses() {
+        return addresses(FROM);
+    }
+
+    /**
+     * @return the origination peer's address and I2P address, read from what was received without
+     * decoding the peer, or null if there is no origination peer
+     */
+    public String[] getOriginationAddresses() {
+        return addresses(ORIGINATION);
+    }
+
+    private synchronized String[] addresses(int field) {
+        if(isUndecoded(field) && raw != null) {
+            Map<String, Object> pm = (Map<String, Object>)raw.get(KEYS[field]);
+            return pm == null ? null : new String[] {(String)pm.get("address"), (String)pm.get("i2pAddress")};
+        }
+        if(isUndecoded(field) && rawBuffer != null) {
+            return PacketWire.readPeerAddresses(rawField(field));
+        }
+        NetworkPeer peer = field == FROM ? fromPeer : originationPeer;
+        return peer == null ? null : new String[] {peer.getAddress(), peer.getI2PAddress()};
+    }
+
+    private boolean isUndecoded(int field) {
+        return (undecoded & (1 << field)) != 0;
+    }
+
+    private synchronized void decode(int field) {
+        // Another thread may have decoded it first
+        if(!isUndecoded(field)) return;
+        switch(field) {
+            case ORIGINATION: originationPeer = decodePeer(field); break;
+            case FROM: fromPeer = decodePeer(field); break;
+            case TO: toPeer = decodePeer(field); break;
+            case DESTINATION: destinationPeer = decodePeer(field); break;
+            default: envelope = decodeEnvelope();
+        }
+        decoded(field);
+    }
+
+    private synchronized void decoded(int field) {
+        undecoded &= ~(1 << field);
+        if(undecoded == 0) {
+            raw = null;
+            rawBuffer = null;
+            rawOffsets = null;
+        }
+    }
+
+    private NetworkPeer decodePeer(int field) {
+        NetworkPeer peer = null;
+        if(raw != null) {
+            Map<String, Object> pm = (Map<String, Object>)raw.get(KEYS[field]);
+            if(pm != null) {
+                peer = new NetworkPeer();
+                peer.fromMap(pm);
+            }
+        } else if(rawBuffer != null) {
+            peer = PacketWire.readPeer(rawField(field));
+        }
+        return peer;
+    }
+
+    private Envelope decodeEnvelope() {
+        Map<String, Object> em = null;
+        if(raw != null) {
+            em = (Map<String, Object>)raw.get(KEYS[ENVELOPE]);
+        } else if(rawBuffer != null) {
+            String e = PacketWire.readString(rawField(ENVELOPE));
+            if(e != null) em = (Map<String, Object>)JSONParser.parse(e);
+        }
+        if(em == null) return null;
+        Envelope e = new Envelope();
+        e.fromMap(em);
+        return e;
+    }
+
+    private ByteBuffer rawField(int field) {
+        ByteBuffer b = rawBuffer.duplicate();
+        b.position(rawOffsets[field * 2]);
+        b.limit(rawOffsets[field * 2 + 1]);
+        return b;
+    }
+
+    /**
+     * Put the field's map as received if not yet decoded.
+     * @return false if the field has been decoded or was received binary
+     */
+    private synchronized boolean putRaw(Map<String, Object> m, int field) {
+        if(raw == null || !isUndecoded(field)) return false;
+        if(raw.get(KEYS[field]) != null) m.put(KEYS[field], raw.get(KEYS[field]));
+        return true;
+    }
+
+    /**
+     * Write the field's bytes as received if not yet decoded.
+     * @return false if the field has been decoded or was received as a map
+     */
+    private synchronized boolean writeRaw(ByteBuffer buf, int field) {
+        if(rawBuffer == null || !isUndecoded(field)) return false;
+        buf.put(rawField(field));
+        return true;
+    }
+
+    /**
+     * Subclasses adding fields are sent in the binary wire format once registered with the encoding
+     * of their fields or once they override this along with writeFields and readFields;
+     * until then they are sent as JSON.
+     */
+    public boolean isBinaryEncodable() {
+        return getClass() == Packet.class;
+    }
+
+    /**
+     * Write the packet's fields in the binary wire format; subclasses write theirs after calling super.
+     */
+    public void writeFields(ByteBuffer buf) {
+        PacketWire.writeString(buf, id);
+        if(!writeRaw(buf, ORIGINATION)) PacketWire.writePeer(buf, getOriginationPeer());
+        if(!writeRaw(buf, FROM)) PacketWire.writePeer(buf, getFromPeer());
+        if(!writeRaw(buf, TO)) PacketWire.writePeer(buf, getToPeer());
+        if(!writeRaw(buf, DESTINATION)) PacketWire.writePeer(buf, getDestinationPeer());
+        // Envelopes are opaque to the wire format
+        if(!writeRaw(buf, ENVELOPE)) PacketWire.writeString(buf, getEnvelope() == null ? null : JSONParser.toString(envelope.toMap()));
+    }
+
+    /**
+     * Read the packet's id in the order written by writeFields, checking the rest is well formed
+     * and noting where each field starts to be decoded when first got.
+     * The buffer must not be written to while the packet is in use.
+     */
+    public void readFields(ByteBuffer buf) {
+        id = PacketWire.readString(buf);
+        int[] offsets = new int[KEYS.length * 2];
+        for(int field = ORIGINATION; field <= DESTINATION; field++) {
+            offsets[field * 2] = buf.position();
+            PacketWire.skipPeer(buf);
+            offsets[field * 2 + 1] = buf.position();
+        }
+        offsets[ENVELOPE * 2] = buf.position();
+        PacketWire.skipString(buf);
+        offsets[ENVELOPE * 2 + 1] = buf.position();
+        raw = null;
+        rawBuffer = buf;
+        rawOffsets = offsets;
+        undecoded = ALL;
+    }
+
     @Override
     public Map<String, Object> toMap() {
         Map<String, Object> m = new HashMap<>();
         if(id != null) m.put("id", String.valueOf(id));
-        if(envelope != null) m.put("data", envelope.toMap());
-        if(originationPeer != null) m.put("originationPeer", originationPeer.toMap());
-        if(fromPeer != null) m.put("fromPeer", fromPeer.toMap());
-        if(toPeer != null) m.put("toPeer", toPeer.toMap());
-        if(destinationPeer != null) m.put("destinationPeer", destinationPeer.toMap());
+        if(!putRaw(m, ENVELOPE) && getEnvelope() != null) m.put("data", envelope.toMap());
+        if(!putRaw(m, ORIGINATION) && getOriginationPeer() != null) m.put("originationPeer", originationPeer.toMap());
+        if(!putRaw(m, FROM) && getFromPeer() != null) m.put("fromPeer", fromPeer.toMap());
+        if(!putRaw(m, TO) && getToPeer() != null) m.put("toPeer", toPeer.toMap());
+        if(!putRaw(m, DESTINATION) && getDestinationPeer() != null) m.put("destinationPeer", destinationPeer.toMap());
         return m;
     }
 
+    /**
+     * Read the packet's id, keeping the map to decode the peers and envelope from when first got.
+     */
     @Override
     public void fromMap(Map<String, Object> m) {
         if(m.get("id") != null) id = (String)m.get("id");
-        if(m.get("envelope") != null) {
-            Map<String, Object> dm = (Map<String, Object>)m.get("envelope");
-            envelope = new Envelope();
-        }
-        if(m.get("originationPeer") != null) {
-            fromPeer = new NetworkPeer();
-            fromPeer.fromMap((Map<String, Object>)m.get("originationPeer"));
-        }
-        if(m.get("fromPeer") != null) {
-            fromPeer = new NetworkPeer();
-            fromPeer.fromMap((Map<String, Object>)m.get("fromPeer"));
-        }
-        if(m.get("toPeer") != null) {
-            toPeer = new NetworkPeer();
-            toPeer.fromMap(((Map<String, Object>)m.get("toPeer")));
-        }
-        if(m.get("destinationPeer") != null) {
-            fromPeer = new NetworkPeer();
-            fromPeer.fromMap((Map<String, Object>)m.get("destinationPeer"));
-        }
+        rawBuffer = null;
+        rawOffsets = null;
+        raw = m;
+        undecoded = ALL;
     }
 }
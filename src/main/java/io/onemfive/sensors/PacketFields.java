@@ -0,0 +1,91 @@
+package io.onemfive.sensors;
+
+import io.onemfive.core.*;
+import io.onemfive.data.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary wire encodings of the fields the packets exchanged between peers add to those of Packet.
+ *
+ * Communication packets add the times they were sent and acknowledged, PeerStatus requests
+ * add their reliable peers, and responses add their status and the request they answer,
+ * written with its type id and fields as a packet of its own.
+ */
+public class PacketFields {
+
+    private PacketFields() {}
+
+    private static void writeTimes(CommunicationPacket packet, ByteBuffer buf) {
+        PacketWire.writeTime(buf, packet.getTimeSent());
+        PacketWire.writeTime(buf, packet.getTimeAcknowledged());
+    }
+
+    private static void readTimes(CommunicationPacket packet, ByteBuffer buf) {
+        long timeSent = PacketWire.readTime(buf);
+        long timeAcknowledged = PacketWire.readTime(buf);
+        if(timeSent > 0) packet.setTimeSent(timeSent);
+        if(timeAcknowledged > 0) packet.setTimeAcknowledged(timeAcknowledged);
+    }
+
+    public static final PacketRegistry.Fields<PeerStatusRequest> PEER_STATUS = new PacketRegistry.Fields<PeerStatusRequest>() {
+        @Override
+        public void write(PeerStatusRequest packet, ByteBuffer buf) {
+            writeTimes(packet, buf);
+            PacketWire.writePeers(buf, packet.getReliablePeers());
+        }
+
+        @Override
+        public PeerStatusRequest read(PeerStatusRequest packet, ByteBuffer buf) {
+            readTimes(packet, buf);
+            packet.setReliablePeers(PacketWire.readPeers(buf));
+            return packet;
+        }
+    };
+
+    /**
+     * @param registry looked up for the encoding of the request a response answers
+     */
+    public static PacketRegistry.Fields<ResponsePacket> response(PacketRegistry registry) {
+        return new PacketRegistry.Fields<ResponsePacket>() {
+            @Override
+            public boolean isEncodable(ResponsePacket packet) {
+                CommunicationPacket request = packet.getRequest();
+                if(request == null || packet.getStatusCode() == null) return false;
+                PacketRegistry.Codec<? extends Packet> codec = registry.get(request.getClass().getName());
+                return codec != null && codec.isBinaryEncodable(request);
+            }
+
+            @Override
+            public void write(ResponsePacket packet, ByteBuffer buf) {
+                writeTimes(packet, buf);
+                PacketWire.writeString(buf, packet.getStatusCode().name());
+                CommunicationPacket request = packet.getRequest();
+                String type = request.getClass().getName();
+                PacketWire.writeString(buf, type);
+                registry.get(type).writeFields(request, buf);
+            }
+
+            @Override
+            public ResponsePacket read(ResponsePacket packet, ByteBuffer buf) {
+                long timeSent = PacketWire.readTime(buf);
+                long timeAcknowledged = PacketWire.readTime(buf);
+                String status = PacketWire.readString(buf);
+                if(status == null) throw new IllegalArgumentException("Response without a status");
+                StatusCode statusCode = StatusCode.valueOf(status);
+                PacketRegistry.Codec<? extends Packet> codec = registry.get(PacketWire.readString(buf));
+                if(codec == null) throw new IllegalArgumentException("Response to a packet type not registered");
+                Packet request = codec.readFields(buf);
+                if(!(request instanceof CommunicationPacket)) throw new IllegalArgumentException("Response to a packet not a request");
+                // Responses are only built whole
+                ResponsePacket res = new ResponsePacket((CommunicationPacket)request, packet.getFromPeer(), packet.getToPeer(), statusCode, packet.getId());
+                res.setOriginationPeer(packet.getOriginationPeer());
+                res.setDestinationPeer(packet.getDestinationPeer());
+                res.setEnvelope(packet.getEnvelope());
+                if(timeSent > 0) res.setTimeSent(timeSent);
+                if(timeAcknowledged > 0) res.setTimeAcknowledged(timeAcknowledged);
+                return res;
+            }
+        };
+    }
+}
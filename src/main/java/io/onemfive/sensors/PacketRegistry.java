@@ -0,0 +1,207 @@
+package io.onemfive.sensors;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Packet types accepted inbound, each with the factory creating it and the handler it is dispatched to.
+ *
+ * The type id of raw JSON is read with a scan of its top-level keys so packets
+ * of unknown types are rejected before being parsed. Sensors may register
+ * their own packet types while starting. Types registered with their fields'
+ * encoding are sent in the binary wire format.
+ */
+public class PacketRegistry {
+
+    private static final Logger LOG = Logger.getLogger(PacketRegistry.class.getName());
+
+    public static final String TYPE = "type";
+
+    /**
+     * Writes and reads the fields a packet type adds to those of Packet in the binary wire format.
+     */
+    public interface Fields<P extends Packet> {
+        /**
+         * @return false if the packet holds something the wire format can not carry
+         */
+        default boolean isEncodable(P packet) {
+            return true;
+        }
+
+        /**
+         * Write the packet's own fields following those written by {@link Packet#writeFields(ByteBuffer)}.
+         */
+        void write(P packet, ByteBuffer buf);
+
+        /**
+         * Read the fields in the order written.
+         * @return the packet read, which may replace the one supplied
+         */
+        P read(P packet, ByteBuffer buf);
+    }
+
+    /**
+     * A packet type's factory, handler, and encoding of its fields if sent binary.
+     */
+    public static class Codec<P extends Packet> {
+        private final Supplier<P> factory;
+        private final Consumer<P> handler;
+        private final Fields<P> fields;
+
+        Codec(Supplier<P> factory, Consumer<P> handler, Fields<P> fields) {
+            this.factory = factory;
+            this.handler = handler;
+            this.fields = fields;
+        }
+
+        public P create() {
+            return factory.get();
+        }
+
+        @SuppressWarnings("unchecked")
+        public void handle(Packet packet) {
+            handler.accept((P)packet);
+        }
+
+        /**
+         * @return true if the packet may be sent in the binary wire format
+         */
+        @SuppressWarnings("unchecked")
+        public boolean isBinaryEncodable(Packet packet) {
+            return fields == null ? packet.isBinaryEncodable() : fields.isEncodable((P)packet);
+        }
+
+        /**
+         * Write the packet's fields, Packet's then its type's.
+         */
+        @SuppressWarnings("unchecked")
+        public void writeFields(Packet packet, ByteBuffer buf) {
+            packet.writeFields(buf);
+            if(fields != null) fields.write((P)packet, buf);
+        }
+
+        /**
+         * Create a packet and read its fields as written by writeFields.
+         */
+        public P readFields(ByteBuffer buf) {
+            P packet = create();
+            packet.readFields(buf);
+            return fields == null ? packet : fields.read(packet, buf);
+        }
+    }
+
+    private final Map<String, Codec<? extends Packet>> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * @param type id of the packet type carried in the packet's type attribute
+     * @return false if the type is already registered
+     */
+    public <P extends Packet> boolean register(String type, Supplier<P> factory, Consumer<P> handler) {
+        return register(type, factory, handler, null);
+    }
+
+    /**
+     * @param fields encoding of the fields the type adds to Packet's or null if it adds none or is only sent as JSON
+     * @return false if the type is already registered
+     */
+    public <P extends Packet> boolean register(String type, Supplier<P> factory, Consumer<P> handler, Fields<P> fields) {
+        if(codecs.putIfAbsent(type, new Codec<>(factory, handler, fields)) != null) {
+            LOG.warning("Packet type already registered: "+type);
+            return false;
+        }
+        LOG.info("Registered packet type: "+type);
+        return true;
+    }
+
+    public boolean unregister(String type) {
+        return codecs.remove(type) != null;
+    }
+
+    /**
+     * @return the type's codec or null if not registered
+     */
+    public Codec<? extends Packet> get(String type) {
+        return type == null ? null : codecs.get(type);
+    }
+
+    public boolean isRegistered(String type) {
+        return type != null && codecs.containsKey(type);
+    }
+
+    /**
+     * Read the type attribute of a JSON object without parsing it.
+     * Only the object's own keys are considered so nested type attributes are skipped.
+     * @return the type id or null if there is none or it is not a string
+     */
+    public static String typeOf(String json) {
+        int depth = 0;
+        boolean expectKey = false;
+        int n = json.length();
+        for(int i = 0; i < n; i++) {
+            char c = json.charAt(i);
+            switch(c) {
+                case '{':
+                    depth++;
+                    expectKey = depth == 1;
+                    break;
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case ',':
+                    expectKey = depth == 1;
+                    break;
+                case '"': {
+                    int end = endOfString(json, i);
+                    if(end < 0) return null;
+                    if(expectKey) {
+                        expectKey = false;
+                        if(end - i - 1 == TYPE.length() && json.startsWith(TYPE, i + 1)) {
+                            return stringValue(json, end + 1);
+                        }
+                    }
+                    i = end;
+                    break;
+                }
+                default:
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return index of the quote closing the string opened at start or -1 if unterminated
+     */
+    private static int endOfString(String json, int start) {
+        int end = json.indexOf('"', start + 1);
+        while(end > 0) {
+            // Escaped if preceded by an odd number of backslashes
+            int slashes = 0;
+            while(json.charAt(end - 1 - slashes) == '\\') slashes++;
+            if((slashes & 1) == 0) return end;
+            end = json.indexOf('"', end + 1);
+        }
+        return -1;
+    }
+
+    private static String stringValue(String json, int from) {
+        int i = from;
+        while(i < json.length() && Character.isWhitespace(json.charAt(i))) i++;
+        if(i >= json.length() || json.charAt(i) != ':') return null;
+        i++;
+        while(i < json.length() && Character.isWhitespace(json.charAt(i))) i++;
+        if(i >= json.length() || json.charAt(i) != '"') return null;
+        int end = endOfString(json, i);
+        if(end < 0) return null;
+        String value = json.substring(i + 1, end);
+        // Class names need no escapes; leave any others to the full parse
+        return value.indexOf('\\') < 0 ? value : null;
+    }
+}
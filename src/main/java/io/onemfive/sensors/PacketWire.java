@@ -0,0 +1,452 @@
+package io.onemfive.sensors;
+
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.data.util.JSONParser;
+import io.onemfive.sensors.peers.PeerGossip;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned binary wire format for packets, written to and read from ByteBuffers field by field
+ * without building maps, and the wire versions negotiated with each peer.
+ *
+ * A packet is a header of the magic bytes, the format version, and the length of the rest,
+ * followed by the packet's type id and the fields written by {@link PacketRegistry.Codec#writeFields(Packet, ByteBuffer)}:
+ * those of Packet then those its type adds. Times are varints of their value plus one with zero for unset.
+ * Optional sections may follow the fields, each a tag byte and the varint length of its bytes,
+ * so readers skip sections they do not know; the gossip attribute of peer lists is sent as one.
+ * Strings are a varint of their UTF-8 length plus one, with zero for null, followed by their bytes.
+ * Peer addresses and fingerprints, mostly Base64 keys and hashes, are written as the bytes they encode
+ * and written once when a peer's I2P address and fingerprint repeat its address and fingerprint.
+ * Any other attributes of a peer, such as its DID, follow as a JSON string so none are lost.
+ *
+ * Peers advertise the highest version they read with the wire attribute of their JSON packets.
+ * Packets only go out binary to peers that advertised a version this node writes and
+ * whose packet type supports it; all others stay JSON.
+ */
+public class PacketWire {
+
+    public static final int VERSION = 1;
+    // Attribute of JSON packets advertising the highest wire version the sender reads
+    public static final String WIRE = "wire";
+
+    private static final byte MAGIC_0 = 0x4d;
+    private static final byte MAGIC_1 = 0x35;
+    private static final int HEADER = 7;
+    private static final int INITIAL_CAPACITY = 512;
+    // Tags of the sections following a packet's fields
+    private static final int GOSSIP = 1;
+
+    private final int maxVersion;
+    private final Map<String, Integer> peerVersions = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxVersion highest version to write; 0 to always write JSON
+     */
+    public PacketWire(int maxVersion) {
+        this.maxVersion = Math.min(maxVersion, VERSION);
+    }
+
+    /**
+     * @return highest wire version this node reads and so advertises
+     */
+    public int getAdvertisedVersion() {
+        return maxVersion;
+    }
+
+    /**
+     * Note the highest wire version a peer reads from its advertisement or from it sending binary.
+     */
+    public void observed(String address, int version) {
+        if(address == null) return;
+        peerVersions.put(address, version);
+    }
+
+    /**
+     * @return the version to write to the peer or 0 for JSON
+     */
+    public int versionFor(NetworkPeer peer) {
+        if(maxVersion < 1 || peer == null || peer.getAddress() == null) return 0;
+        Integer v = peerVersions.get(peer.getAddress());
+        return v == null ? 0 : Math.min(v, maxVersion);
+    }
+
+    /**
+     * @return the packet binary encoded, flipped for reading
+     */
+    public static ByteBuffer encode(PacketRegistry.Codec<? extends Packet> codec, Packet packet, String type) {
+        return encode(codec, packet, type, null);
+    }
+
+    /**
+     * @param gossip gossip attribute describing the peer list the packet carries, if any
+     * @return the packet binary encoded, flipped for reading
+     */
+    public static ByteBuffer encode(PacketRegistry.Codec<? extends Packet> codec, Packet packet, String type, Map<String, Object> gossip) {
+        int capacity = INITIAL_CAPACITY;
+        while(true) {
+            ByteBuffer buf = ByteBuffer.allocate(capacity);
+            try {
+                buf.put(MAGIC_0).put(MAGIC_1).put((byte)VERSION).putInt(0);
+                writeString(buf, type);
+                codec.writeFields(packet, buf);
+                if(gossip != null) writeGossip(buf, gossip);
+                buf.putInt(3, buf.position() - HEADER);
+                buf.flip();
+                return buf;
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    /**
+     * @return true if the bytes start with the binary wire format's magic bytes
+     */
+    public static boolean isBinary(ByteBuffer buf) {
+        return buf.remaining() >= HEADER && buf.get(buf.position()) == MAGIC_0 && buf.get(buf.position() + 1) == MAGIC_1;
+    }
+
+    /**
+     * Read the header and type id leaving the buffer at the packet's fields.
+     * @return the type id or null if the bytes are not a packet of a supported version
+     */
+    public static String readType(ByteBuffer buf) {
+        try {
+            if(!isBinary(buf)) return null;
+            buf.position(buf.position() + 2);
+            int version = buf.get();
+            int length = buf.getInt();
+            if(version < 1 || version > VERSION || length != buf.remaining()) return null;
+            return readString(buf);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the packet's fields following its type id.
+     * @return the packet or null if its fields are truncated or malformed
+     */
+    public static Packet decode(PacketRegistry.Codec<? extends Packet> codec, ByteBuffer buf) {
+        try {
+            return codec.readFields(buf);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeGossip(ByteBuffer buf, Map<String, Object> gossip) {
+        ByteBuffer section = ByteBuffer.allocate(INITIAL_CAPACITY);
+        while(true) {
+            try {
+                PeerGossip.writeAttribute(section, gossip);
+                break;
+            } catch (BufferOverflowException e) {
+                section = ByteBuffer.allocate(section.capacity() * 2);
+            }
+        }
+        section.flip();
+        buf.put((byte)GOSSIP);
+        writeVarint(buf, section.remaining());
+        buf.put(section);
+    }
+
+    /**
+     * Read the sections following the packet's fields, skipping those not known.
+     * @return the gossip attribute or null if the packet carries none
+     * @throws IllegalArgumentException if a section is truncated or malformed
+     */
+    public static Map<String, Object> readGossip(ByteBuffer buf) {
+        Map<String, Object> gossip = null;
+        try {
+            while(buf.hasRemaining()) {
+                int tag = buf.get();
+                long len = readVarint(buf);
+                if(len < 0 || len > buf.remaining()) throw new IllegalArgumentException("Section longer than packet");
+                ByteBuffer section = buf.slice();
+                section.limit((int)len);
+                buf.position(buf.position() + (int)len);
+                if(tag == GOSSIP) {
+                    gossip = PeerGossip.readAttribute(section);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated section");
+        }
+        return gossip;
+    }
+
+    public static void writeVarint(ByteBuffer buf, long v) {
+        while((v & ~0x7fL) != 0) {
+            buf.put((byte)((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte)v);
+    }
+
+    public static long readVarint(ByteBuffer buf) {
+        long v = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            v |= (long)(b & 0x7f) << shift;
+            if((b & 0x80) == 0) return v;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static void writeTime(ByteBuffer buf, Long time) {
+        writeVarint(buf, time == null || time <= 0 ? 0 : time + 1);
+    }
+
+    /**
+     * @return the time or 0 if unset
+     */
+    public static long readTime(ByteBuffer buf) {
+        long t = readVarint(buf);
+        if(t < 0) throw new IllegalArgumentException("Malformed time");
+        return t == 0 ? 0 : t - 1;
+    }
+
+    public static void writeString(ByteBuffer buf, String s) {
+        if(s == null) {
+            writeVarint(buf, 0);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(buf, b.length + 1L);
+        buf.put(b);
+    }
+
+    public static String readString(ByteBuffer buf) {
+        long len = readVarint(buf);
+        if(len == 0) return null;
+        if(len - 1 > buf.remaining()) throw new IllegalArgumentException("String longer than packet");
+        byte[] b = new byte[(int)(len - 1)];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Advance past a string written by writeString without decoding it.
+     */
+    public static void skipString(ByteBuffer buf) {
+        long len = readVarint(buf);
+        if(len == 0) return;
+        if(len - 1 > buf.remaining()) throw new IllegalArgumentException("String longer than packet");
+        buf.position(buf.position() + (int)(len - 1));
+    }
+
+    /**
+     * Write a string that is likely Base64, as I2P destinations and hashes are, as the bytes it encodes.
+     * The varint header's low two bits tell how the rest is written: as UTF-8, I2P Base64, or standard Base64.
+     */
+    public static void writeToken(ByteBuffer buf, String s) {
+        if(s == null) {
+            writeVarint(buf, 0);
+            return;
+        }
+        byte[] b = decodeBase64(s, I2P_BASE64);
+        int kind = I2P_BASE64;
+        if(b == null) {
+            b = decodeBase64(s, BASE64);
+            kind = BASE64;
+        }
+        if(b == null) {
+            b = s.getBytes(StandardCharsets.UTF_8);
+            kind = UTF8;
+        }
+        writeVarint(buf, ((b.length + 1L) << 2) | kind);
+        buf.put(b);
+    }
+
+    public static String readToken(ByteBuffer buf) {
+        long h = readVarint(buf);
+        if(h == 0) return null;
+        long len = (h >>> 2) - 1;
+        if(len < 0 || len > buf.remaining()) throw new IllegalArgumentException("Token longer than packet");
+        byte[] b = new byte[(int)len];
+        buf.get(b);
+        switch((int)(h & 3)) {
+            case UTF8: return new String(b, StandardCharsets.UTF_8);
+            case I2P_BASE64: return Base64.getUrlEncoder().encodeToString(b).replace('_', '~');
+            case BASE64: return Base64.getEncoder().encodeToString(b);
+            default: throw new IllegalArgumentException("Unknown token kind");
+        }
+    }
+
+    private static void skipToken(ByteBuffer buf) {
+        long h = readVarint(buf);
+        if(h == 0) return;
+        long len = (h >>> 2) - 1;
+        if(len < 0 || len > buf.remaining()) throw new IllegalArgumentException("Token longer than packet");
+        if((h & 3) > BASE64) throw new IllegalArgumentException("Unknown token kind");
+        buf.position(buf.position() + (int)len);
+    }
+
+    private static final int UTF8 = 0;
+    private static final int I2P_BASE64 = 1;
+    private static final int BASE64 = 2;
+
+    /**
+     * @return the bytes encoded or null unless the string is exactly how they encode back
+     */
+    private static byte[] decodeBase64(String s, int kind) {
+        if(s.isEmpty() || s.length() % 4 != 0) return null;
+        try {
+            if(kind == I2P_BASE64) {
+                if(s.indexOf('_') >= 0) return null;
+                byte[] b = Base64.getUrlDecoder().decode(s.replace('~', '_'));
+                return Base64.getUrlEncoder().encodeToString(b).replace('_', '~').equals(s) ? b : null;
+            }
+            byte[] b = Base64.getDecoder().decode(s);
+            return Base64.getEncoder().encodeToString(b).equals(s) ? b : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static final int PRESENT = 1;
+    private static final int I2P_ADDRESS_SAME = 2;
+    private static final int I2P_FINGERPRINT_SAME = 4;
+    private static final int ATTRIBUTES = 8;
+    private static final int PEER_FLAGS = PRESENT | I2P_ADDRESS_SAME | I2P_FINGERPRINT_SAME | ATTRIBUTES;
+    // Attributes of a peer's map written as fields of their own
+    private static final Set<String> PEER_FIELDS = new HashSet<>(Arrays.asList("network", "address", "fingerprint", "i2pAddress", "i2pFingerprint"));
+
+    /**
+     * @return attributes of the peer's map other than its fields or null if none
+     */
+    private static Map<String, Object> peerAttributes(NetworkPeer peer) {
+        Map<String, Object> attributes = null;
+        for(Map.Entry<String, Object> e : peer.toMap().entrySet()) {
+            if(e.getValue() == null || PEER_FIELDS.contains(e.getKey())) continue;
+            if(attributes == null) attributes = new HashMap<>();
+            attributes.put(e.getKey(), e.getValue());
+        }
+        return attributes;
+    }
+
+    /**
+     * Peers are written as the fields they are keyed and routed by:
+     * network, address, fingerprint, I2P address, and I2P fingerprint,
+     * followed by any other attributes of their map as JSON.
+     */
+    public static void writePeer(ByteBuffer buf, NetworkPeer peer) {
+        if(peer == null) {
+            buf.put((byte)0);
+            return;
+        }
+        String address = peer.getAddress();
+        String fingerprint = peer.getFingerprint();
+        String i2pAddress = peer.getI2PAddress();
+        String i2pFingerprint = peer.getI2PFingerprint();
+        int flags = PRESENT;
+        if(i2pAddress != null && i2pAddress.equals(address)) flags |= I2P_ADDRESS_SAME;
+        if(i2pFingerprint != null && i2pFingerprint.equals(fingerprint)) flags |= I2P_FINGERPRINT_SAME;
+        Map<String, Object> attributes = peerAttributes(peer);
+        if(attributes != null) flags |= ATTRIBUTES;
+        buf.put((byte)flags);
+        writeString(buf, peer.getNetwork());
+        writeToken(buf, address);
+        writeToken(buf, fingerprint);
+        if((flags & I2P_ADDRESS_SAME) == 0) writeToken(buf, i2pAddress);
+        if((flags & I2P_FINGERPRINT_SAME) == 0) writeToken(buf, i2pFingerprint);
+        if(attributes != null) writeString(buf, JSONParser.toString(attributes));
+    }
+
+    private static int readPeerFlags(ByteBuffer buf) {
+        int flags = buf.get();
+        if(flags != 0 && ((flags & ~PEER_FLAGS) != 0 || (flags & PRESENT) == 0)) {
+            throw new IllegalArgumentException("Unknown peer flags: "+flags);
+        }
+        return flags;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static NetworkPeer readPeer(ByteBuffer buf) {
+        int flags = readPeerFlags(buf);
+        if(flags == 0) return null;
+        String network = readString(buf);
+        NetworkPeer peer = network == null ? new NetworkPeer() : new NetworkPeer(network);
+        String address = readToken(buf);
+        String fingerprint = readToken(buf);
+        String i2pAddress = (flags & I2P_ADDRESS_SAME) != 0 ? address : readToken(buf);
+        String i2pFingerprint = (flags & I2P_FINGERPRINT_SAME) != 0 ? fingerprint : readToken(buf);
+        if((flags & ATTRIBUTES) != 0) {
+            String json = readString(buf);
+            Object attributes = json == null ? null : JSONParser.parse(json);
+            if(!(attributes instanceof Map)) throw new IllegalArgumentException("Peer attributes not a map");
+            Map<String, Object> m = new HashMap<>((Map<String, Object>)attributes);
+            if(network != null) m.put("network", network);
+            peer.fromMap(m);
+        }
+        peer.setAddress(address);
+        peer.setFingerprint(fingerprint);
+        peer.setI2PAddress(i2pAddress);
+        peer.setI2PFingerprint(i2pFingerprint);
+        return peer;
+    }
+
+    /**
+     * Read only the address and I2P address of a peer written by writePeer.
+     * @return null if no peer was written
+     */
+    public static String[] readPeerAddresses(ByteBuffer buf) {
+        int flags = readPeerFlags(buf);
+        if(flags == 0) return null;
+        skipString(buf);
+        String address = readToken(buf);
+        skipToken(buf);
+        return new String[] {address, (flags & I2P_ADDRESS_SAME) != 0 ? address : readToken(buf)};
+    }
+
+    /**
+     * Advance past a peer written by writePeer, checking it would read back, without decoding it.
+     */
+    public static void skipPeer(ByteBuffer buf) {
+        int flags = readPeerFlags(buf);
+        if(flags == 0) return;
+        skipString(buf);
+        skipToken(buf);
+        skipToken(buf);
+        if((flags & I2P_ADDRESS_SAME) == 0) skipToken(buf);
+        if((flags & I2P_FINGERPRINT_SAME) == 0) skipToken(buf);
+        if((flags & ATTRIBUTES) != 0) skipString(buf);
+    }
+
+    public static void writePeers(ByteBuffer buf, List<NetworkPeer> peers) {
+        if(peers == null) {
+            writeVarint(buf, 0);
+            return;
+        }
+        writeVarint(buf, peers.size() + 1L);
+        for(NetworkPeer p : peers) {
+            writePeer(buf, p);
+        }
+    }
+
+    public static List<NetworkPeer> readPeers(ByteBuffer buf) {
+        long n = readVarint(buf);
+        if(n == 0) return null;
+        // Each peer takes at least a byte
+        if(n - 1 > buf.remaining()) throw new IllegalArgumentException("More peers than bytes");
+        List<NetworkPeer> peers = new ArrayList<>((int)(n - 1));
+        for(long i = 1; i < n; i++) {
+            peers.add(readPeer(buf));
+        }
+        return peers;
+    }
+}
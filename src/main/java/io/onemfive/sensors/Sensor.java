@@ -7,6 +7,8 @@ import io.onemfive.data.NetworkPeer;
 import io.onemfive.sensors.peers.PeerReport;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Expected behavior from a Sensor.
@@ -16,6 +18,18 @@ import java.io.File;
 public interface Sensor extends LifeCycle {
     void setTaskRunner(TaskRunner taskRunner);
     boolean send(Envelope envelope);
+    /**
+     * Send envelopes in one go. Sensors with a per-call cost should override it
+     * to amortize that cost across the batch; by default each is sent on its own.
+     * @return envelopes not sent; empty if all were
+     */
+    default List<Envelope> sendBatch(List<Envelope> envelopes) {
+        List<Envelope> notSent = new ArrayList<>();
+        for(Envelope e : envelopes) {
+            if(!send(e)) notSent.add(e);
+        }
+        return notSent;
+    }
     boolean reply(Envelope envelope);
     void setNetwork(NetworkPeer.Network network);
     NetworkPeer.Network getNetwork();
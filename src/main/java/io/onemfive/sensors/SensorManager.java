@@ -18,6 +18,17 @@ public interface SensorManager {
     boolean init(Properties properties);
     boolean isActive(String sensorName);
     Sensor selectSensor(Envelope envelope);
+    /**
+     * Queue the envelope on the sensor's outbound queue to be sent in a batch.
+     * @param listener told whether the sensor sent the envelope; may be null
+     * @return false if the queue is full and the envelope was not queued
+     */
+    boolean sendQueued(Sensor sensor, Envelope envelope, SensorOutboundQueue.SendListener listener);
+    SensorOutboundQueue getOutboundQueue(Sensor sensor);
+    /**
+     * @return the next active sensor to escalate to from the supplied one or null if none
+     */
+    Sensor getEscalatedSensor(Sensor sensor);
     void registerSensor(Sensor sensor);
     void setPeerManager(PeerManager peerManager);
     PeerReport getPeerReport();
@@ -27,6 +38,10 @@ public interface SensorManager {
     void sendToBus(Envelope envelope);
     void suspend(Envelope envelope);
     File getSensorDirectory(String sensorName);
+    /**
+     * @return packet types accepted inbound for sensors to register their own with
+     */
+    PacketRegistry getPacketRegistry();
     boolean registerSensorStatusListener(String sensorId, SensorStatusListener listener);
     boolean unregisterSensorStatusListener(String sensorId, SensorStatusListener listener);
 }
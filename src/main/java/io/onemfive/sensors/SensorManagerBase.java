@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class SensorManagerBase implements SensorManager {
 
@@ -17,6 +18,7 @@ public abstract class SensorManagerBase implements SensorManager {
     protected final Map<String, Sensor> activeSensors = new HashMap<>();
     protected final Map<String, Sensor> blockedSensors = new HashMap<>();
     protected final Map<String, List<SensorStatusListener>> listeners = new HashMap<>();
+    protected final Map<String, SensorOutboundQueue> outboundQueues = new ConcurrentHashMap<>();
 
     private PeerManager peerManager;
 
@@ -66,6 +68,49 @@ public abstract class SensorManagerBase implements SensorManager {
         return registeredSensors.get(sensorName);
     }
 
+    @Override
+    public boolean sendQueued(Sensor sensor, Envelope envelope, SensorOutboundQueue.SendListener listener) {
+        return getOutboundQueue(sensor).offer(envelope, listener);
+    }
+
+    /**
+     * @return the sensor's outbound queue, its own if a BaseSensor else one kept here, started on first use
+     */
+    @Override
+    public SensorOutboundQueue getOutboundQueue(final Sensor sensor) {
+        return outboundQueues.computeIfAbsent(sensor.getClass().getName(), k -> {
+            if(sensor instanceof BaseSensor) {
+                return ((BaseSensor)sensor).getOutboundQueue();
+            }
+            SensorOutboundQueue q = new SensorOutboundQueue(sensor, SensorsConfig.OutQC, SensorsConfig.OutMB, SensorsConfig.OutTL, SensorsConfig.OutW);
+            q.start();
+            return q;
+        });
+    }
+
+    /**
+     * No escalation by default.
+     */
+    @Override
+    public Sensor getEscalatedSensor(Sensor sensor) {
+        return null;
+    }
+
+    /**
+     * Hand queued envelopes to their sensors then stop the outbound queues.
+     */
+    protected void shutdownOutboundQueues(long waitMS) {
+        for(Map.Entry<String, SensorOutboundQueue> e : outboundQueues.entrySet()) {
+            Sensor s = registeredSensors.get(e.getKey());
+            if(s instanceof BaseSensor) {
+                ((BaseSensor)s).shutdownOutboundQueue(waitMS);
+            } else {
+                e.getValue().shutdown(waitMS);
+            }
+        }
+        outboundQueues.clear();
+    }
+
     public boolean isActive(String sensorName) {
         return activeSensors.containsKey(sensorName);
     }
@@ -75,6 +120,11 @@ public abstract class SensorManagerBase implements SensorManager {
         return new File(sensorsService.getSensorsDirectory(), sensorName);
     }
 
+    @Override
+    public PacketRegistry getPacketRegistry() {
+        return sensorsService.getPacketRegistry();
+    }
+
     @Override
     public void sendToBus(Envelope envelope) {
         sensorsService.sendToBus(envelope);
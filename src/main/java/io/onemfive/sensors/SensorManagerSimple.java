@@ -244,6 +244,7 @@ public class SensorManagerSimple extends SensorManagerBase {
     @Override
     public boolean shutdown() {
         // TODO: Add loop with checks
+        shutdownOutboundQueues(SensorsConfig.OutTL * 2L);
         Collection<Sensor> sensors = activeSensors.values();
         for(final Sensor s : sensors) {
             LOG.info("Beginning Shutdown of sensor "+s.getClass().getName());
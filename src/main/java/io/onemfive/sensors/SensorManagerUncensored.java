@@ -64,6 +64,30 @@ public class SensorManagerUncensored extends SensorManagerSimple {
 
     private static Logger LOG = Logger.getLogger(SensorManagerUncensored.class.getName());
 
+    // Order blocked sensors escalate in
+    private static final String[] ESCALATION = {TOR_SENSOR_NAME, I2P_SENSOR_NAME, RADIO_SENSOR_NAME, LIFI_SENSOR_NAME};
+
+    /**
+     * Tor escalates to I2P, I2P to Radio, and Radio to LiFi, skipping any not active.
+     */
+    @Override
+    public Sensor getEscalatedSensor(Sensor sensor) {
+        int i = escalationIndex(sensor.getClass().getName());
+        if(i < 0) return null;
+        for(int j = i + 1; j < ESCALATION.length; j++) {
+            Sensor s = getActiveSensors().get(ESCALATION[j]);
+            if(s != null) return s;
+        }
+        return null;
+    }
+
+    private static int escalationIndex(String sensorName) {
+        for(int i = 0; i < ESCALATION.length; i++) {
+            if(ESCALATION[i].equals(sensorName)) return i;
+        }
+        return -1;
+    }
+
     @Override
     public Sensor selectSensor(Envelope e) {
         // Lookup sensor by simple normal means
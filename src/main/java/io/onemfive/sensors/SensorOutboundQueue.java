@@ -0,0 +1,298 @@
+package io.onemfive.sensors;
+
+import io.onemfive.core.util.AppThread;
+import io.onemfive.data.Envelope;
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.data.util.DLC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Bounded queue of envelopes outbound through a sensor drained by a small pool of workers
+ * handing the sensor batches through {@link Sensor#sendBatch(List)}.
+ *
+ * Envelopes are striped by destination peer, each worker draining its own stripe, so envelopes
+ * to the same peer leave in the order queued while a slow batch only holds up the peers sharing
+ * its stripe. Batch size adapts to observed latency: it doubles after a full batch sent within the
+ * target latency and halves after a batch that took longer, staying between one and the max batch size.
+ * Latency from queueing to the sensor confirming is sampled so callers can tell when a send is running late.
+ */
+public class SensorOutboundQueue {
+
+    private static final Logger LOG = Logger.getLogger(SensorOutboundQueue.class.getName());
+
+    private static final int LATENCY_SAMPLES = 128;
+    private static final int P95_EVERY = 16;
+
+    /**
+     * Told of the outcome of each envelope handed to the sensor.
+     */
+    public interface SendListener {
+        default void sent(Sensor sensor, Envelope envelope) {}
+        void failed(Sensor sensor, Envelope envelope);
+    }
+
+    private static class Outbound {
+        final Envelope envelope;
+        final SendListener listener;
+        final long queuedAt = System.currentTimeMillis();
+
+        Outbound(Envelope envelope, SendListener listener) {
+            this.envelope = envelope;
+            this.listener = listener;
+        }
+    }
+
+    private final Sensor sensor;
+    private final Function<Envelope, String> destinationOf;
+    private final BlockingQueue<Outbound>[] stripes;
+    private final int maxBatch;
+    private final long targetLatencyMS;
+    private AppThread[] drainers;
+
+    private volatile boolean running = false;
+    private volatile int batchSize = 1;
+    private volatile long averageLatencyMS = 0;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    // Guards the latency samples and batch size adapting as every worker updates them
+    private final Object stats = new Object();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long latencyCount = 0;
+    private volatile long p95LatencyMS = 0;
+
+    /**
+     * @param capacity envelopes queued across all workers
+     * @param workers workers draining the queue, each for its own share of destination peers
+     */
+    public SensorOutboundQueue(Sensor sensor, int capacity, int maxBatch, long targetLatencyMS, int workers) {
+        this(sensor, capacity, maxBatch, targetLatencyMS, workers, SensorOutboundQueue::destination);
+    }
+
+    /**
+     * @param destinationOf address of the peer an envelope is to or null if none
+     */
+    @SuppressWarnings("unchecked")
+    SensorOutboundQueue(Sensor sensor, int capacity, int maxBatch, long targetLatencyMS, int workers, Function<Envelope, String> destinationOf) {
+        this.sensor = sensor;
+        this.destinationOf = destinationOf;
+        this.stripes = new BlockingQueue[Math.max(1, workers)];
+        for(int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ArrayBlockingQueue<>(Math.max(1, capacity / stripes.length));
+        }
+        this.maxBatch = Math.max(1, maxBatch);
+        this.targetLatencyMS = targetLatencyMS;
+    }
+
+    public synchronized void start() {
+        if(running) return;
+        running = true;
+        drainers = new AppThread[stripes.length];
+        for(int i = 0; i < stripes.length; i++) {
+            final BlockingQueue<Outbound> stripe = stripes[i];
+            drainers[i] = new AppThread(() -> drain(stripe));
+            drainers[i].start();
+        }
+    }
+
+    /**
+     * @param listener told whether the sensor sent the envelope; may be null
+     * @return false if stopped or full and the envelope was not queued
+     */
+    public boolean offer(Envelope envelope, SendListener listener) {
+        if(running && stripe(envelope).offer(new Outbound(envelope, listener))) return true;
+        long r = refused.incrementAndGet();
+        LOG.warning(sensor.getClass().getName()+" outbound queue not accepting envelope. Total refused: "+r);
+        return false;
+    }
+
+    /**
+     * Withdraw the envelope if not yet handed to the sensor; its listener is not told.
+     * @return false if the envelope already left the queue
+     */
+    public boolean cancel(Envelope envelope) {
+        if(stripe(envelope).removeIf(o -> o.envelope == envelope)) {
+            cancelled.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stop once queued envelopes have been handed to the sensor, waiting up to the supplied time.
+     */
+    public synchronized void shutdown(long waitMS) {
+        running = false;
+        if(drainers == null) return;
+        for(AppThread drainer : drainers) {
+            try {
+                drainer.join(waitMS);
+            } catch (InterruptedException e) {
+                LOG.warning("Interrupted waiting on outbound queue to drain.");
+                break;
+            }
+        }
+        drainers = null;
+    }
+
+    /**
+     * Envelopes without a destination peer are spread across stripes.
+     */
+    private BlockingQueue<Outbound> stripe(Envelope envelope) {
+        String destination = destinationOf.apply(envelope);
+        int h = destination != null ? destination.hashCode() : System.identityHashCode(envelope);
+        return stripes[((h ^ (h >>> 16)) & 0x7fffffff) % stripes.length];
+    }
+
+    private static String destination(Envelope envelope) {
+        SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class, envelope);
+        NetworkPeer to = request == null || request.to == null ? null : request.to.getPrioritizedPeer();
+        return to == null ? null : to.getAddress();
+    }
+
+    private void drain(BlockingQueue<Outbound> queue) {
+        List<Outbound> batch = new ArrayList<>(maxBatch);
+        while(running || !queue.isEmpty()) {
+            Outbound first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOG.info("Outbound queue drainer interrupted.");
+                return;
+            }
+            if(first == null) continue;
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            send(batch);
+            batch.clear();
+        }
+    }
+
+    private void send(List<Outbound> batch) {
+        List<Envelope> envelopes = new ArrayList<>(batch.size());
+        for(Outbound o : batch) {
+            envelopes.add(o.envelope);
+        }
+        long start = System.currentTimeMillis();
+        List<Envelope> notSent;
+        try {
+            notSent = sensor.sendBatch(envelopes);
+        } catch (Exception e) {
+            LOG.warning(sensor.getClass().getName()+" failed sending batch: "+e.getLocalizedMessage());
+            notSent = envelopes;
+        }
+        long end = System.currentTimeMillis();
+        adapt(end - start, batch.size());
+        batches.incrementAndGet();
+        Set<Envelope> unsent = Collections.newSetFromMap(new IdentityHashMap<>());
+        if(notSent != null) {
+            unsent.addAll(notSent);
+        }
+        for(Outbound o : batch) {
+            boolean ok = !unsent.contains(o.envelope);
+            if(ok) {
+                sent.incrementAndGet();
+                recordLatency(end - o.queuedAt);
+            } else {
+                failed.incrementAndGet();
+            }
+            if(o.listener == null) continue;
+            try {
+                if(ok) {
+                    o.listener.sent(sensor, o.envelope);
+                } else {
+                    o.listener.failed(sensor, o.envelope);
+                }
+            } catch (Exception e) {
+                LOG.warning("Outbound send listener failed: "+e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Recorded by every worker; p95 is recomputed every few samples.
+     */
+    private void recordLatency(long latencyMS) {
+        synchronized (stats) {
+            latencies[(int)(latencyCount++ % LATENCY_SAMPLES)] = latencyMS;
+            if(latencyCount % P95_EVERY == 0 || latencyCount < P95_EVERY) {
+                long[] sorted = Arrays.copyOf(latencies, (int)Math.min(latencyCount, LATENCY_SAMPLES));
+                Arrays.sort(sorted);
+                p95LatencyMS = sorted[(int)Math.ceil(sorted.length * 0.95) - 1];
+            }
+        }
+    }
+
+    private void adapt(long latencyMS, int size) {
+        synchronized (stats) {
+            long avg = averageLatencyMS;
+            averageLatencyMS = avg == 0 ? latencyMS : avg + (latencyMS - avg) / 8;
+            if(latencyMS > targetLatencyMS) {
+                batchSize = Math.max(1, batchSize / 2);
+            } else if(size >= batchSize) {
+                // Only a full batch shows the sensor kept up with a bigger one
+                batchSize = Math.min(maxBatch, batchSize * 2);
+            }
+        }
+    }
+
+    public int getDepth() {
+        int depth = 0;
+        for(BlockingQueue<Outbound> q : stripes) {
+            depth += q.size();
+        }
+        return depth;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return moving average of milliseconds the sensor took per batch
+     */
+    public long getAverageLatencyMS() {
+        return averageLatencyMS;
+    }
+
+    /**
+     * @return 95th percentile of milliseconds from queueing to the sensor confirming over recent sends; 0 until one is sent
+     */
+    public long getP95LatencyMS() {
+        return p95LatencyMS;
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRefused() {
+        return refused.get();
+    }
+
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+}
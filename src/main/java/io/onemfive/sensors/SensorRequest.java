@@ -27,4 +27,6 @@ public class SensorRequest extends ServiceRequest {
     public NetworkPeer destinationPeer;
     public Content requestContent;
     public Content responseContent;
+    // Whether a late send may also be sent through an escalated sensor
+    public boolean hedgeable = true;
 }
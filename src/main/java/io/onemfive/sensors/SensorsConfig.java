@@ -33,7 +33,11 @@ public class SensorsConfig {
                 NetworkPeer np;
                 String[] na;
                 for(String b : bl) {
-                    na = b.split("|");
+                    na = b.split("\\|");
+                    if(na.length != 2) {
+                        // Not in network|address format
+                        continue;
+                    }
                     np = new NetworkPeer(na[0]);
                     np.setAddress(na[1]);
                     banned.add(np);
@@ -46,6 +50,15 @@ public class SensorsConfig {
         if(properties.getProperty("onemfive.sensors.MaxPT") != null) {
             MaxPT = Integer.parseInt(properties.getProperty("onemfive.sensors.MaxPT"));
         }
+        if(properties.getProperty("onemfive.sensors.EP") != null) {
+            EP = properties.getProperty("onemfive.sensors.EP");
+        }
+        if(properties.getProperty("onemfive.sensors.ColdPT") != null) {
+            ColdPT = Integer.parseInt(properties.getProperty("onemfive.sensors.ColdPT"));
+        }
+        if(properties.getProperty("onemfive.sensors.MaxLE") != null) {
+            MaxLE = Integer.parseInt(properties.getProperty("onemfive.sensors.MaxLE"));
+        }
         if(properties.getProperty("onemfive.sensors.MaxPS") != null) {
             MaxPS = Integer.parseInt(properties.getProperty("onemfive.sensors.MaxPS"));
         }
@@ -61,6 +74,78 @@ public class SensorsConfig {
         if(properties.getProperty("onemfive.sensors.MinAckSRP") != null) {
             MinAckSRP = Integer.parseInt(properties.getProperty("onemfive.sensors.MinAckSRP"));
         }
+        if(properties.getProperty("onemfive.sensors.MaxRH") != null) {
+            MaxRH = Integer.parseInt(properties.getProperty("onemfive.sensors.MaxRH"));
+        }
+        if(properties.getProperty("onemfive.sensors.SI") != null) {
+            SI = Integer.parseInt(properties.getProperty("onemfive.sensors.SI"));
+        }
+        if(properties.getProperty("onemfive.sensors.RelHL") != null) {
+            RelHL = Integer.parseInt(properties.getProperty("onemfive.sensors.RelHL"));
+        }
+        if(properties.getProperty("onemfive.sensors.RelHys") != null) {
+            RelHys = Integer.parseInt(properties.getProperty("onemfive.sensors.RelHys"));
+        }
+        if(properties.getProperty("onemfive.sensors.AckQC") != null) {
+            AckQC = Integer.parseInt(properties.getProperty("onemfive.sensors.AckQC"));
+        }
+        if(properties.getProperty("onemfive.sensors.AckFI") != null) {
+            AckFI = Integer.parseInt(properties.getProperty("onemfive.sensors.AckFI"));
+        }
+        if(properties.getProperty("onemfive.sensors.AckFE") != null) {
+            AckFE = Integer.parseInt(properties.getProperty("onemfive.sensors.AckFE"));
+        }
+        if(properties.getProperty("onemfive.sensors.PruneH") != null) {
+            PruneH = Integer.parseInt(properties.getProperty("onemfive.sensors.PruneH"));
+        }
+        if(properties.getProperty("onemfive.sensors.PruneI") != null) {
+            PruneI = Integer.parseInt(properties.getProperty("onemfive.sensors.PruneI"));
+        }
+        if(properties.getProperty("onemfive.sensors.PruneTB") != null) {
+            PruneTB = Integer.parseInt(properties.getProperty("onemfive.sensors.PruneTB"));
+        }
+        if(properties.getProperty("onemfive.sensors.DispS") != null) {
+            DispS = Integer.parseInt(properties.getProperty("onemfive.sensors.DispS"));
+        }
+        if(properties.getProperty("onemfive.sensors.DispQC") != null) {
+            DispQC = Integer.parseInt(properties.getProperty("onemfive.sensors.DispQC"));
+        }
+        if(properties.getProperty("onemfive.sensors.DispST") != null) {
+            DispST = Integer.parseInt(properties.getProperty("onemfive.sensors.DispST"));
+        }
+        if(properties.getProperty("onemfive.sensors.OutQC") != null) {
+            OutQC = Integer.parseInt(properties.getProperty("onemfive.sensors.OutQC"));
+        }
+        if(properties.getProperty("onemfive.sensors.OutMB") != null) {
+            OutMB = Integer.parseInt(properties.getProperty("onemfive.sensors.OutMB"));
+        }
+        if(properties.getProperty("onemfive.sensors.OutTL") != null) {
+            OutTL = Integer.parseInt(properties.getProperty("onemfive.sensors.OutTL"));
+        }
+        if(properties.getProperty("onemfive.sensors.OutW") != null) {
+            OutW = Integer.parseInt(properties.getProperty("onemfive.sensors.OutW"));
+        }
+        if(properties.getProperty("onemfive.sensors.HedgeP") != null) {
+            HedgeP = Integer.parseInt(properties.getProperty("onemfive.sensors.HedgeP"));
+        }
+        if(properties.getProperty("onemfive.sensors.HedgeMB") != null) {
+            HedgeMB = Integer.parseInt(properties.getProperty("onemfive.sensors.HedgeMB"));
+        }
+        if(properties.getProperty("onemfive.sensors.InitRTO") != null) {
+            InitRTO = Integer.parseInt(properties.getProperty("onemfive.sensors.InitRTO"));
+        }
+        if(properties.getProperty("onemfive.sensors.MinRTO") != null) {
+            MinRTO = Integer.parseInt(properties.getProperty("onemfive.sensors.MinRTO"));
+        }
+        if(properties.getProperty("onemfive.sensors.MaxRTO") != null) {
+            MaxRTO = Integer.parseInt(properties.getProperty("onemfive.sensors.MaxRTO"));
+        }
+        if(properties.getProperty("onemfive.sensors.MaxRT") != null) {
+            MaxRT = Integer.parseInt(properties.getProperty("onemfive.sensors.MaxRT"));
+        }
+        if(properties.getProperty("onemfive.sensors.WireV") != null) {
+            WireV = Integer.parseInt(properties.getProperty("onemfive.sensors.WireV"));
+        }
     }
 
     // ------------ Discovery ---------------
@@ -72,6 +157,12 @@ public class SensorsConfig {
     public static int MinPT = 10;
     // Max Peers Tracked - the total number of Peers to attempt to maintain knowledge of
     public static int MaxPT = 100;
+    // Eviction Policy - which Known peer to evict once MaxPT are tracked: LRA (least recently acked), SCORE (lowest sampled reliability score), or CLOCK (second chance)
+    public static String EP = "LRA";
+    // Cold Peers Tracked - evicted peers kept with their history to come back cheaply
+    public static int ColdPT = 20;
+    // Max Listed Evictions - Known peers evicted per minute to make room for peers only listed by remote peers
+    public static int MaxLE = 10;
     // Max Peers Sent - Maximum number of peers to send in a peer list (the bigger a datagram, the less chance of it getting through).
     public static int MaxPS = 5;
     // Max Acknowledgments Tracked
@@ -82,5 +173,53 @@ public class SensorsConfig {
     public static int MinAckRP = 20;
     // Super Reliable Peer Min Acks
     public static int MinAckSRP = 10000;
+    // Reliability Half-Life - hours for acks and failures to count half as much towards a peer's reliability score
+    public static int RelHL = 168;
+    // Reliability Hysteresis - percent a peer's reliability score must fall below a tier's threshold to be demoted
+    public static int RelHys = 20;
+    // Max Relay Hops - maximum number of peers a rerouted request may be relayed through
+    public static int MaxRH = 3;
+    // Snapshot Interval - seconds between warm-start snapshots of the peer graph; 0 to only snapshot on shutdown
+    public static int SI = 300;
+    // Ack Queue Capacity - ack observations queued for saving before new ones are dropped
+    public static int AckQC = 1000;
+    // Ack Flush Interval - max milliseconds an ack observation waits to be saved
+    public static int AckFI = 250;
+    // Ack Flush Events - ack observations queued that trigger saving before the flush interval
+    public static int AckFE = 100;
+    // Prune Horizon - hours without an ack after which a peer is pruned from the peer graph; 0 to never prune
+    public static int PruneH = 168;
+    // Prune Interval - seconds between runs of the peer pruner
+    public static int PruneI = 600;
+    // Prune Time Box - max milliseconds each run of the peer pruner may take
+    public static int PruneTB = 100;
+    // Dispatch Stripes - parallel workers per dispatch stage; envelopes to the same peer always share one; 0 for one per core
+    public static int DispS = 0;
+    // Dispatch Queue Capacity - envelopes queued per dispatch stage stripe before the stage feeding it is held up
+    public static int DispQC = 100;
+    // Dispatch Submit Timeout - max milliseconds the bus waits on a full dispatch pipeline before dead lettering an envelope
+    public static int DispST = 1000;
+    // Outbound Queue Capacity - envelopes queued per sensor before new ones are refused
+    public static int OutQC = 1000;
+    // Outbound Max Batch - most envelopes a sensor is handed at once
+    public static int OutMB = 32;
+    // Outbound Target Latency - milliseconds a batch send should take; batches grow while faster and shrink while slower
+    public static int OutTL = 500;
+    // Outbound Workers - drainers of each sensor's outbound queue, each sending to its own share of destination peers
+    public static int OutW = 4;
+    // Hedge Percent - max percent of sends also sent through the next escalated sensor when the first has not confirmed in time; 0 to never hedge
+    public static int HedgeP = 5;
+    // Hedge Min Budget - min milliseconds to wait on a sensor's confirmation before hedging, whatever its recent p95 latency
+    public static int HedgeMB = 250;
+    // Initial RTO - milliseconds to wait on a response from a peer not yet timed
+    public static int InitRTO = 3000;
+    // Min RTO - least milliseconds to wait on a response from a peer
+    public static int MinRTO = 1000;
+    // Max RTO - most milliseconds to wait on a response from a peer once backed off
+    public static int MaxRTO = 60000;
+    // Max Retransmissions - times a request a peer has not responded to is sent again before giving up on it
+    public static int MaxRT = 2;
+    // Wire Version - highest binary wire format version to send packets in to peers advertising it; 0 to always send JSON
+    public static int WireV = 1;
 
 }
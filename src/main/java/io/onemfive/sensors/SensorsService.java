@@ -13,12 +13,16 @@ import io.onemfive.data.util.HashUtil;
 import io.onemfive.data.util.JSONParser;
 import io.onemfive.did.AuthenticateDIDRequest;
 import io.onemfive.did.DIDService;
+import io.onemfive.sensors.peers.AckObservation;
+import io.onemfive.sensors.peers.AckPipeline;
 import io.onemfive.sensors.peers.BasePeerManager;
+import io.onemfive.sensors.peers.PeerGossip;
 import io.onemfive.sensors.peers.PeerManager;
+import io.onemfive.sensors.peers.PendingRequests;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -41,6 +45,13 @@ public class SensorsService extends BaseService {
 
     private SensorManager sensorManager;
     private BasePeerManager peerManager;
+    private AckPipeline ackPipeline;
+    private DispatchPipeline dispatchPipeline;
+    private HedgedSender hedgedSender;
+    private PendingRequests<PeerStatusRequest> pendingRequests;
+    private final PacketRegistry packetRegistry = new PacketRegistry();
+    private PacketWire packetWire;
+    private PeerGossip peerGossip;
     private File sensorsDirectory;
     private Properties properties;
     private TaskRunner taskRunner;
@@ -53,6 +64,48 @@ public class SensorsService extends BaseService {
         return peerManager;
     }
 
+    /**
+     * @return write-behind pipeline of ack observations exposing queue depth, flush latency, and drop metrics
+     */
+    public AckPipeline getAckPipeline() {
+        return ackPipeline;
+    }
+
+    /**
+     * @return staged pipeline sending envelopes off of the bus thread exposing per stage depth, backpressure, and rejection metrics
+     */
+    public DispatchPipeline getDispatchPipeline() {
+        return dispatchPipeline;
+    }
+
+    /**
+     * @return packet types accepted inbound; sensors register their own while starting
+     */
+    public PacketRegistry getPacketRegistry() {
+        return packetRegistry;
+    }
+
+    /**
+     * @return peer status requests awaiting a response exposing per peer RTO and timeout metrics
+     */
+    public PendingRequests<PeerStatusRequest> getPendingRequests() {
+        return pendingRequests;
+    }
+
+    /**
+     * @return peer lists exchanged with each peer exposing full list, delta, and out of step metrics
+     */
+    public PeerGossip getPeerGossip() {
+        return peerGossip;
+    }
+
+    /**
+     * @return sender hedging late sends through escalated sensors exposing hedge metrics
+     */
+    public HedgedSender getHedgedSender() {
+        return hedgedSender;
+    }
+
     Properties getProperties() {
         return properties;
     }
@@ -75,77 +128,16 @@ public class SensorsService extends BaseService {
     private void handleAll(Envelope e) {
         Route r = e.getRoute();
         switch (r.getOperation()) {
-            case OPERATION_SEND : {
+            case OPERATION_SEND :
+            case OPERATION_REPLY : {
                 SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class,e);
-                if(request == null){
-                    LOG.info("No SensorRequest in Envelope. Not a P2P request...making resource request...");
-                } else {
-                    DID to = request.to;
-                    if (to != null) {
-                        NetworkPeer peer = to.getPrioritizedPeer();
-                        if (peer == null) {
-                            LOG.warning("No Network Peers in TO address. Unable to send.");
-                            return;
-                        }
-                        peerManager.verifyPeer(peer);
-                    }
-                }
-                Sensor sensor = sensorManager.selectSensor(e);
-                if(sensor != null) {
-                    LOG.info("Sending Envelope to selected Sensor...");
-                    if (!sensor.send(e)) {
-                        Message m = e.getMessage();
-                        boolean reroute = false;
-                        if (m != null && m.getErrorMessages() != null && m.getErrorMessages().size() > 0) {
-                            for (String err : m.getErrorMessages()) {
-                                LOG.warning(err);
-                                if ("BLOCKED".equals(err)) {
-                                    if (e.getSensitivity() == Envelope.Sensitivity.NONE) {
-                                        LOG.info("No security required. Assuming block means the site is down.");
-                                    } else {
-                                        LOG.info("Some level of security required. Re-routing through another peer.");
-                                        reroute = true;
-                                    }
-                                }
-                            }
-                        }
-                        if (reroute || sensor.getStatus() == SensorStatus.NETWORK_BLOCKED) {
-                            LOG.info("Can we reroute?");
-                            String fromNetwork = sensor.getClass().getName();
-                            sensor = sensorManager.selectSensor(e);
-                            if (sensor != null) {
-                                String toNetwork = sensor.getClass().getName();
-                                if (!fromNetwork.equals(toNetwork)) {
-                                    LOG.info("Escalated sensor: " + toNetwork);
-                                    NetworkPeer newToPeer = peerManager.getRandomPeer(peerManager.getLocalPeer());
-                                    if (newToPeer == null) {
-                                        LOG.warning("No other peers to route blocked request. Request is dead.");
-                                    } else {
-                                        // Clear error messages
-                                        if (m != null) {
-                                            m.clearErrorMessages();
-                                        }
-                                        // Send through escalated network
-                                        sensor.send(e);
-                                    }
-                                }
-                            } else {
-                                LOG.warning("Rerouting desired but no Sensor available for rerouting.");
-                            }
-                        }
-                    }
-                } else {
-                    LOG.warning("No sensor available to send message. Dead lettering...");
+                NetworkPeer to = request == null || request.to == null ? null : request.to.getPrioritizedPeer();
+                if(dispatchPipeline == null || !dispatchPipeline.submit(e, request, to == null ? null : to.getAddress())) {
+                    LOG.warning("Unable to dispatch Envelope. Dead lettering...");
                     deadLetter(e);
                 }
                 break;
             }
-            case OPERATION_REPLY : {
-                LOG.info("Replying with Envelope to requester...");
-                Sensor sensor = sensorManager.selectSensor(e);
-                sensor.reply(e);
-                break;
-            }
             case OPERATION_UPDATE_LOCAL_DID: {
                 LOG.info("Update local DID...");
                 peerManager.updateLocalPeer((DID)DLC.getData(DID.class,e));break;
@@ -161,6 +153,181 @@ public class SensorsService extends BaseService {
         }
     }
 
+    /**
+     * Decode and verify stage: ensure the peer a request is sent to is saved.
+     */
+    private boolean verify(DispatchPipeline.Dispatch d) {
+        if(!OPERATION_SEND.equals(d.envelope.getRoute().getOperation())) {
+            return true;
+        }
+        SensorRequest request = d.request;
+        if(request == null){
+            LOG.info("No SensorRequest in Envelope. Not a P2P request...making resource request...");
+        } else {
+            DID to = request.to;
+            if (to != null) {
+                NetworkPeer peer = to.getPrioritizedPeer();
+                if (peer == null) {
+                    LOG.warning("No Network Peers in TO address. Unable to send.");
+                    return false;
+                }
+                peerManager.verifyPeer(peer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sensor selection stage.
+     */
+    private boolean select(DispatchPipeline.Dispatch d) {
+        d.sensor = sensorManager.selectSensor(d.envelope);
+        if(d.sensor == null) {
+            LOG.warning("No sensor available to send message. Dead lettering...");
+            deadLetter(d.envelope);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Send stage: reply through the selected sensor or queue the request on its outbound queue.
+     */
+    private boolean send(DispatchPipeline.Dispatch d) {
+        Envelope e = d.envelope;
+        Sensor sensor = d.sensor;
+        if(OPERATION_REPLY.equals(e.getRoute().getOperation())) {
+            LOG.info("Replying with Envelope to requester...");
+            sensor.reply(e);
+            return true;
+        }
+        LOG.info("Queueing Envelope to selected Sensor...");
+        boolean queued = d.request != null && !d.request.hedgeable
+                ? sensorManager.sendQueued(sensor, e, this::sendFailed)
+                : hedgedSender.send(sensor, e, this::sendFailed);
+        if(!queued) {
+            sendFailed(sensor, e);
+        }
+        return true;
+    }
+
+    /**
+     * Handle an envelope a dispatch stage failed on as a failed send once a sensor was selected
+     * for it, otherwise dead letter it.
+     */
+    private void dispatchFailed(DispatchPipeline.Dispatch d, Exception ex) {
+        if(d.sensor != null && OPERATION_SEND.equals(d.envelope.getRoute().getOperation())) {
+            sendFailed(d.sensor, d.envelope);
+        } else {
+            deadLetter(d.envelope);
+        }
+    }
+
+    /**
+     * Reroute a request its sensor failed to send if it was blocked.
+     */
+    private void sendFailed(Sensor sensor, Envelope e) {
+        SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class,e);
+        Message m = e.getMessage();
+        boolean reroute = false;
+        if (m != null && m.getErrorMessages() != null && m.getErrorMessages().size() > 0) {
+            for (String err : m.getErrorMessages()) {
+                LOG.warning(err);
+                if ("BLOCKED".equals(err)) {
+                    if (e.getSensitivity() == Envelope.Sensitivity.NONE) {
+                        LOG.info("No security required. Assuming block means the site is down.");
+                    } else {
+                        LOG.info("Some level of security required. Re-routing through another peer.");
+                        reroute = true;
+                    }
+                }
+            }
+        }
+        if (reroute || sensor.getStatus() == SensorStatus.NETWORK_BLOCKED) {
+            LOG.info("Can we reroute?");
+            String fromNetwork = sensor.getClass().getName();
+            sensor = sensorManager.selectSensor(e);
+            if (sensor != null) {
+                String toNetwork = sensor.getClass().getName();
+                if (!fromNetwork.equals(toNetwork)) {
+                    LOG.info("Escalated sensor: " + toNetwork);
+                    if (request != null) {
+                        relay(request);
+                    }
+                    // Clear error messages
+                    if (m != null) {
+                        m.clearErrorMessages();
+                    }
+                    // Send through escalated network
+                    if(!sensorManager.sendQueued(sensor, e, null)) {
+                        LOG.warning("Escalated sensor not accepting requests. Request is dead.");
+                    }
+                }
+            } else {
+                LOG.warning("Rerouting desired but no Sensor available for rerouting.");
+            }
+        }
+    }
+
+    /**
+     * Point the request at the first hop of the lowest latency path to its destination, keeping
+     * its destination. Without a path through other peers it stays addressed to the destination
+     * so only the sensor changes.
+     */
+    private void relay(SensorRequest request) {
+        NetworkPeer destination = request.destinationPeer != null ? request.destinationPeer
+                : request.toPeer != null ? request.toPeer
+                : request.to != null ? request.to.getPrioritizedPeer() : null;
+        if (destination == null || destination.getAddress() == null) {
+            return;
+        }
+        List<NetworkPeer> relayPath = peerManager.findLowestLatencyPath(destination, SensorsConfig.MaxRH);
+        if (relayPath.size() > 1) {
+            // Relay through the first hop of the lowest latency path
+            request.toPeer = relayPath.get(0);
+            request.destinationPeer = destination;
+        } else {
+            LOG.info("No relay path within "+SensorsConfig.MaxRH+" hops; sending to the destination directly.");
+        }
+    }
+
+    /**
+     * Copy of a request relayed for hedging so the original is left untouched.
+     * The copy keeps the original's id, headers, and data so it is the same request to its receiver.
+     * @return null for requests not to a peer as those can not be relayed
+     */
+    private Envelope rerouteCopy(Envelope e) {
+        SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class,e);
+        if(request == null) return null;
+        SensorRequest r = new SensorRequest();
+        r.from = request.from;
+        r.to = request.to;
+        r.content = request.content;
+        r.toPeer = request.toPeer;
+        r.fromPeer = request.fromPeer;
+        r.destinationPeer = request.destinationPeer;
+        r.requestContent = request.requestContent;
+        r.responseContent = request.responseContent;
+        r.hedgeable = request.hedgeable;
+        relay(r);
+        Envelope copy = Envelope.documentFactory(e.getId());
+        copy.setSensitivity(e.getSensitivity());
+        for(Map.Entry<String, Object> h : e.getHeaders().entrySet()) {
+            copy.setHeader(h.getKey(), h.getValue());
+        }
+        if(e.getMessage() instanceof DocumentMessage && copy.getMessage() instanceof DocumentMessage) {
+            // Copied map by map so replacing the copy's request leaves the original's
+            List<Map<String, Object>> data = ((DocumentMessage)copy.getMessage()).data;
+            data.clear();
+            for(Map<String, Object> d : ((DocumentMessage)e.getMessage()).data) {
+                data.add(new HashMap<>(d));
+            }
+        }
+        DLC.addData(SensorRequest.class, r, copy);
+        DLC.addRoute(SensorsService.class, OPERATION_SEND, copy);
+        return copy;
+    }
+
     public void sendToBus(Envelope envelope) {
         LOG.info("Sending request to service bus from Sensors Service...");
         producer.send(envelope);
@@ -177,63 +344,74 @@ public class SensorsService extends BaseService {
         // -- Ensure saved ---
         NetworkPeer fromPeer = new NetworkPeer();
         fromPeer.setDid(fromDid);
+        if(peerManager.isBanned(fromPeer)) {
+            LOG.info("Dropping envelope from banned peer.");
+            return;
+        }
         peerManager.savePeer(fromPeer,true);
         // ----------
         EventMessage m = (EventMessage)envelope.getMessage();
         Object msg = m.getMessage();
-        Object obj;
-        if(msg instanceof String) {
+        if(msg instanceof String && isJSON((String)msg)) {
             // Raw
-            Map<String, Object> mp = (Map<String, Object>) JSONParser.parse(msg);
-            String type = (String) mp.get("type");
+            String json = (String)msg;
+            String type = PacketRegistry.typeOf(json);
             if (type == null) {
                 LOG.warning("Attribute 'type' not found in EventMessage message. Unable to instantiate object.");
                 deadLetter(envelope);
                 return;
             }
-            try {
-                obj = Class.forName(type).getConstructor().newInstance();
-            } catch (NoSuchMethodException e) {
-                LOG.warning("No constructor for class: " + type);
+            PacketRegistry.Codec<? extends Packet> codec = packetRegistry.get(type);
+            if (codec == null) {
+                LOG.warning("Packet type not registered: " + type);
                 deadLetter(envelope);
                 return;
-            } catch (InvocationTargetException e) {
-                LOG.warning("Unable to invoke new class of type: "+type);
-                deadLetter(envelope);
-                return;
-            } catch (InstantiationException e) {
-                LOG.warning("Unable to instantiate class: " + type);
+            }
+            Map<String, Object> mp = (Map<String, Object>) JSONParser.parse(json);
+            Packet packet = codec.create();
+            packet.fromMap(mp);
+            if(mp.get(PacketWire.WIRE) instanceof Number) {
+                packetWire.observed(address(packet.getFromAddresses()), ((Number)mp.get(PacketWire.WIRE)).intValue());
+            }
+            Object gossip = mp.get(PeerGossip.ATTRIBUTE);
+            dispatch(codec, packet, gossip instanceof Map ? (Map<String, Object>)gossip : null);
+        } else if(msg instanceof String || msg instanceof byte[]) {
+            // Binary wire format, Base64 encoded by sensors carrying text
+            ByteBuffer buf;
+            try {
+                buf = ByteBuffer.wrap(msg instanceof byte[] ? (byte[])msg : Base64.getDecoder().decode((String)msg));
+            } catch (IllegalArgumentException e) {
+                LOG.warning("EventMessage message neither JSON nor Base64.");
                 deadLetter(envelope);
                 return;
-            } catch (IllegalAccessException e) {
-                LOG.severe("Class of type "+type+" is not accessible.");
+            }
+            String type = PacketWire.readType(buf);
+            if (type == null) {
+                LOG.warning("EventMessage message not a packet of a supported wire version.");
                 deadLetter(envelope);
                 return;
-            } catch (ClassNotFoundException e) {
-                LOG.warning("Class not on classpath: " + type);
+            }
+            PacketRegistry.Codec<? extends Packet> codec = packetRegistry.get(type);
+            if (codec == null) {
+                LOG.warning("Packet type not registered: " + type);
                 deadLetter(envelope);
                 return;
             }
-            if (obj instanceof Packet) {
-                LOG.info("Object a Packet...");
-                Packet packet = (Packet) obj;
-                packet.fromMap(mp);
-                switch (type) {
-                    case "io.onemfive.sensors.packet.PeerStatus": {
-                        pingIn((PeerStatusRequest) packet);
-                        break;
-                    }
-                    case "io.onemfive.sensors.packet.ResponsePacket": {
-                        response((ResponsePacket) packet);
-                        break;
-                    }
-                    default:
-                        deadLetter(envelope);
-                }
-            } else {
-                LOG.warning("Object " + obj.getClass().getName() + " not handled.");
+            Packet packet = PacketWire.decode(codec, buf);
+            Map<String, Object> gossip;
+            try {
+                gossip = packet == null ? null : PacketWire.readGossip(buf);
+            } catch (IllegalArgumentException e) {
+                packet = null;
+                gossip = null;
+            }
+            if(packet == null) {
+                LOG.warning("Malformed packet of type: " + type);
                 deadLetter(envelope);
+                return;
             }
+            packetWire.observed(address(packet.getFromAddresses()), PacketWire.VERSION);
+            dispatch(codec, packet, gossip);
         } else if(msg instanceof DID) {
             LOG.info("Route in DID with I2P Address...");
             DID d = (DID)msg;
@@ -254,17 +432,64 @@ public class SensorsService extends BaseService {
     }
 
 
+    /**
+     * @param gossip the packet's gossip attribute describing the peer list it carries, if any
+     */
+    private void dispatch(PacketRegistry.Codec<? extends Packet> codec, Packet packet, Map<String, Object> gossip) {
+        // Checked by address so packets from banned peers are dropped without decoding their peers
+        if(isBanned(packet.getFromAddresses()) || isBanned(packet.getOriginationAddresses())) {
+            LOG.info("Dropping packet from banned peer.");
+            return;
+        }
+        // Peer lists are carried by PeerStatus requests and echoed back with the responder's list in their responses
+        PeerStatusRequest ps = null;
+        if(packet instanceof PeerStatusRequest) {
+            ps = (PeerStatusRequest)packet;
+        } else if(packet instanceof ResponsePacket && ((ResponsePacket)packet).getRequest() instanceof PeerStatusRequest) {
+            ps = (PeerStatusRequest)((ResponsePacket)packet).getRequest();
+        }
+        if(ps != null) {
+            peerGossip.received(packet.getFromPeer(), ps.getReliablePeers(), gossip);
+        }
+        codec.handle(packet);
+    }
+
+    private boolean isBanned(String[] addresses) {
+        if(addresses == null) return false;
+        for(String address : addresses) {
+            if(peerManager.isBanned(address)) return true;
+        }
+        return false;
+    }
+
+    private static String address(String[] addresses) {
+        return addresses == null ? null : addresses[0];
+    }
+
+    private static boolean isJSON(String msg) {
+        for(int i = 0; i < msg.length(); i++) {
+            char c = msg.charAt(i);
+            if(!Character.isWhitespace(c)) return c == '{';
+        }
+        return false;
+    }
+
     /**
      * Request from an external NetworkPeer to see if this NetworkPeer is online.
      * Reply with known reliable peer addresses.
      */
     public void pingIn(PeerStatusRequest request) {
         LOG.info("Received PeerStatus request...");
-        peerManager.reliablesFromRemotePeer(request.getFromPeer(), request.getReliablePeers());
+        // The request may only carry the peers added since the last list so take the full list held
+        List<NetworkPeer> held = peerGossip.held(request.getFromPeer());
+        if(held != null) {
+            peerManager.reliablesFromRemotePeer(request.getFromPeer(), held);
+        }
         request.setResponding(true);
-        request.setReliablePeers(peerManager.getReliablesToShare(peerManager.getLocalPeer()));
+        PeerGossip.Outgoing reliables = peerGossip.toSend(request.getFromPeer(), peerManager.getReliablesToShare(peerManager.getLocalPeer(), request.getFromPeer()));
+        request.setReliablePeers(reliables.getPeers());
         LOG.info("Sending response to PeerStatus request...");
-        routeOut(new ResponsePacket(request, peerManager.getLocalPeer(), request.getFromPeer(), StatusCode.OK, request.getId()));
+        routeOut(new ResponsePacket(request, peerManager.getLocalPeer(), request.getFromPeer(), StatusCode.OK, request.getId()), reliables.getAttribute());
     }
 
     /**
@@ -280,10 +505,15 @@ public class SensorsService extends BaseService {
                 LOG.info("Ok response received from request.");
                 if (req instanceof PeerStatusRequest) {
                     LOG.info("PeerStatus response received from PeerStatus request.");
-                    LOG.info("Saving peer status times in graph...");
-                    if(peerManager.savePeerStatusTimes(req.getFromPeer(), req.getToPeer(), req.getTimeSent(), req.getTimeAcknowledged())) {
-                        LOG.info("Updating reliables in graph...");
-                        peerManager.reliablesFromRemotePeer(req.getToPeer(), ((PeerStatusRequest)req).getReliablePeers());
+                    LOG.info("Queueing peer status times...");
+                    long rtt = pendingRequests.acknowledged(req.getId());
+                    // The response may only carry the peers added since the last list so take the full list held
+                    List<NetworkPeer> held = peerGossip.held(res.getFromPeer());
+                    if(rtt < 0) {
+                        // Not sent by this run, given up on, or retransmitted; fall back to the echoed times
+                        ackPipeline.offer(new AckObservation(req.getFromPeer(), req.getToPeer(), req.getTimeSent(), req.getTimeAcknowledged(), held));
+                    } else {
+                        ackPipeline.offer(new AckObservation(req.getFromPeer(), req.getToPeer(), req.getTimeAcknowledged() - rtt, req.getTimeAcknowledged(), held));
                     }
                 } else {
                     LOG.warning("Unsupported request type received in ResponsePacket: "+req.getClass().getName());
@@ -317,6 +547,11 @@ public class SensorsService extends BaseService {
             default:
                 LOG.warning("Unhandled ResponsePacket due to unhandled Status Code: " + res.getStatusCode().name());
         }
+        if(res.getStatusCode() != StatusCode.OK && req instanceof PeerStatusRequest) {
+            // Answered but not served so counted against the peer's reliability
+            pendingRequests.acknowledged(req.getId());
+            ackPipeline.offer(AckObservation.failure(req.getFromPeer(), req.getToPeer(), req.getTimeSent()));
+        }
     }
 
     /**
@@ -325,8 +560,25 @@ public class SensorsService extends BaseService {
     public void pingOut(NetworkPeer peerToProbe) {
         LOG.info("Sending PeerStatus request out to peer...");
         PeerStatusRequest ps = new PeerStatusRequest(peerManager.getLocalPeer(), peerToProbe);
-        ps.setReliablePeers(peerManager.getReliablesToShare(peerManager.getLocalPeer()));
-        routeOut(ps);
+        PeerGossip.Outgoing reliables = peerGossip.toSend(peerToProbe, peerManager.getReliablesToShare(peerManager.getLocalPeer(), peerToProbe));
+        ps.setReliablePeers(reliables.getPeers());
+        if(ps.getId() == null) {
+            ps.setId(UUID.randomUUID().toString());
+        }
+        pendingRequests.track(ps.getId(), ps.getFromPeer(), peerToProbe, ps);
+        routeOut(ps, reliables.getAttribute());
+    }
+
+    /**
+     * Send a peer status request again after it timed out.
+     */
+    private void retransmit(PeerStatusRequest ps) {
+        LOG.info("Retransmitting PeerStatus request to peer...");
+        ps.setTimeSent(System.currentTimeMillis());
+        // Still against the last list acknowledged so the peer can apply it whether or not the first arrived
+        PeerGossip.Outgoing reliables = peerGossip.toSend(ps.getToPeer(), peerManager.getReliablesToShare(peerManager.getLocalPeer(), ps.getToPeer()));
+        ps.setReliablePeers(reliables.getPeers());
+        routeOut(ps, reliables.getAttribute());
     }
 
     /**
@@ -334,20 +586,47 @@ public class SensorsService extends BaseService {
      * @param packet
      */
     public void routeOut(CommunicationPacket packet) {
+        routeOut(packet, null);
+    }
+
+    /**
+     * Send request out to peer
+     * @param packet
+     * @param gossip gossip attribute describing the peer list the packet carries, if any
+     */
+    public void routeOut(CommunicationPacket packet, Map<String, Object> gossip) {
         LOG.info("Routing out comm packet to Sensors Service...");
         if(packet.getTimeSent() <= 0) {
             // initial route out
             packet.setTimeSent(System.currentTimeMillis());
         }
-        String json = JSONParser.toString(packet.toMap());
-        LOG.info("Content to send: "+json);
+        String type = packet.getClass().getName();
+        PacketRegistry.Codec<? extends Packet> codec = packetRegistry.get(type);
+        String content;
+        if(codec != null && codec.isBinaryEncodable(packet) && packetWire.versionFor(packet.getToPeer()) > 0) {
+            ByteBuffer buf = PacketWire.encode(codec, packet, type, gossip);
+            content = Base64.getEncoder().encodeToString(Arrays.copyOf(buf.array(), buf.limit()));
+        } else {
+            Map<String, Object> m = packet.toMap();
+            if(packetWire.getAdvertisedVersion() > 0) {
+                m.put(PacketWire.WIRE, packetWire.getAdvertisedVersion());
+            }
+            if(gossip != null) {
+                m.put(PeerGossip.ATTRIBUTE, gossip);
+            }
+            content = JSONParser.toString(m);
+        }
+        LOG.info("Content to send: "+content);
         Envelope e = Envelope.documentFactory();
         // Setting Sensitivity to HIGH requests it to be routed through I2P
         e.setSensitivity(Envelope.Sensitivity.HIGH);
         SensorRequest r = new SensorRequest();
         r.from = packet.getFromPeer().getDid();
         r.to = packet.getToPeer().getDid();
-        r.content = json;
+        r.content = content;
+        // Peer status round trips are measured so are never hedged
+        r.hedgeable = !(packet instanceof PeerStatusRequest)
+                && !(packet instanceof ResponsePacket && ((ResponsePacket)packet).getRequest() instanceof PeerStatusRequest);
         DLC.addData(SensorRequest.class, r, e);
         DLC.addRoute(SensorsService.class, SensorsService.OPERATION_SEND, e);
         producer.send(e);
@@ -551,6 +830,8 @@ public class SensorsService extends BaseService {
         }
 
         SensorsConfig.update(properties);
+        packetWire = new PacketWire(SensorsConfig.WireV);
+        peerGossip = new PeerGossip(SensorsConfig.MaxPT);
 
         // Sensor Manager
         try {
@@ -577,6 +858,10 @@ public class SensorsService extends BaseService {
             return false;
         }
 
+        // Packet types; sensors may add their own while starting
+        packetRegistry.register(PeerStatusRequest.class.getName(), PeerStatusRequest::new, this::pingIn, PacketFields.PEER_STATUS);
+        packetRegistry.register(ResponsePacket.class.getName(), ResponsePacket::new, this::response, PacketFields.response(packetRegistry));
+
         // Sensors
         String[] sensorConfigStrings = sensorsConfig.split(":");
         String[] sp;
@@ -603,6 +888,19 @@ public class SensorsService extends BaseService {
             }
         }
         if(sensorManager.init(properties) && peerManager.init(properties)) {
+            ackPipeline = new AckPipeline(peerManager, SensorsConfig.AckQC, SensorsConfig.AckFI, SensorsConfig.AckFE);
+            ackPipeline.start();
+            pendingRequests = new PendingRequests<>(ackPipeline, this::retransmit, SensorsConfig.InitRTO, SensorsConfig.MinRTO, SensorsConfig.MaxRTO, SensorsConfig.MaxRT, SensorsConfig.MaxPT);
+            pendingRequests.start();
+            hedgedSender = new HedgedSender(sensorManager, this::rerouteCopy, SensorsConfig.HedgeP, SensorsConfig.HedgeMB);
+            hedgedSender.start();
+            int stripes = SensorsConfig.DispS > 0 ? SensorsConfig.DispS : Runtime.getRuntime().availableProcessors();
+            dispatchPipeline = new DispatchPipeline(
+                    new String[] {"Verify", "Select", "Send"},
+                    new DispatchPipeline.Stage[] {this::verify, this::select, this::send},
+                    stripes, SensorsConfig.DispQC, SensorsConfig.DispST, this::dispatchFailed);
+            dispatchPipeline.start();
+
             Subscription subscription = this::routeIn;
 
             // Subscribe to Text notifications
@@ -691,7 +989,23 @@ public class SensorsService extends BaseService {
         super.shutdown();
         if(getServiceStatus() != ServiceStatus.RESTARTING)
             updateStatus(ServiceStatus.SHUTTING_DOWN);
+        if(dispatchPipeline != null) {
+            // Let queued envelopes go out before the sensors stop
+            dispatchPipeline.shutdown(SensorsConfig.DispST);
+        }
+        if(hedgedSender != null) {
+            hedgedSender.shutdown();
+        }
         sensorManager.shutdown();
+        if(pendingRequests != null) {
+            pendingRequests.shutdown();
+        }
+        if(ackPipeline != null) {
+            ackPipeline.shutdown();
+        }
+        if(peerManager != null) {
+            peerManager.shutdown();
+        }
         return true;
     }
 
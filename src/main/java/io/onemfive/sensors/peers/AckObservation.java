@@ -0,0 +1,129 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.data.NetworkPeer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Acks and failures of requests from one peer to another awaiting being saved to the peer store,
+ * along with the reliable peers reported by the acking peer.
+ * The order acks and failures were observed in is kept so they can be saved in that order.
+ */
+public class AckObservation {
+
+    /**
+     * Receives the acks and failures of an observation in the order they were observed.
+     */
+    public interface Events {
+        void ack(long latencyMS);
+        void failure(long timeSent);
+    }
+
+    private final NetworkPeer fromPeer;
+    private NetworkPeer toPeer;
+    private final List<Long> latencies = new ArrayList<>();
+    private final List<Long> failures = new ArrayList<>();
+    // Number of acks observed before each failure
+    private final List<Integer> acksBeforeFailures = new ArrayList<>();
+    private long lastAckTime;
+    private List<NetworkPeer> reliables;
+
+    public AckObservation(NetworkPeer fromPeer, NetworkPeer toPeer, long timeSent, long timeAcknowledged, List<NetworkPeer> reliables) {
+        this.fromPeer = fromPeer;
+        this.toPeer = toPeer;
+        this.latencies.add(timeAcknowledged - timeSent);
+        this.lastAckTime = timeAcknowledged;
+        this.reliables = reliables;
+    }
+
+    private AckObservation(NetworkPeer fromPeer, NetworkPeer toPeer, long timeSent) {
+        this.fromPeer = fromPeer;
+        this.toPeer = toPeer;
+        this.failures.add(timeSent);
+        this.acksBeforeFailures.add(0);
+    }
+
+    /**
+     * Observation of a request sent at timeSent that was not acknowledged.
+     */
+    public static AckObservation failure(NetworkPeer fromPeer, NetworkPeer toPeer, long timeSent) {
+        return new AckObservation(fromPeer, toPeer, timeSent);
+    }
+
+    /**
+     * Fold a later observation of the same pair of peers into this one, keeping the order observed.
+     */
+    public void merge(AckObservation later) {
+        toPeer = later.toPeer;
+        for(int acks : later.acksBeforeFailures) {
+            acksBeforeFailures.add(latencies.size() + acks);
+        }
+        latencies.addAll(later.latencies);
+        failures.addAll(later.failures);
+        lastAckTime = Math.max(lastAckTime, later.lastAckTime);
+        if(later.reliables != null) {
+            if(reliables == null) {
+                reliables = later.reliables;
+            } else {
+                // Peer lists may be deltas each adding peers so keep those of both
+                Map<String, NetworkPeer> union = new LinkedHashMap<>();
+                for(NetworkPeer p : reliables) union.put(p.getAddress(), p);
+                for(NetworkPeer p : later.reliables) union.put(p.getAddress(), p);
+                reliables = new ArrayList<>(union.values());
+            }
+        }
+    }
+
+    public String getKey() {
+        return fromPeer.getAddress() + "->" + toPeer.getAddress();
+    }
+
+    public NetworkPeer getFromPeer() {
+        return fromPeer;
+    }
+
+    public NetworkPeer getToPeer() {
+        return toPeer;
+    }
+
+    /**
+     * @return round trip latency in milliseconds of each ack in the order acknowledged
+     */
+    public List<Long> getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return time sent of each request not acknowledged in the order observed
+     */
+    public List<Long> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Replay the acks and failures in the order observed.
+     */
+    public void replay(Events events) {
+        int f = 0;
+        for(int a = 0; a < latencies.size(); a++) {
+            for(; f < failures.size() && acksBeforeFailures.get(f) <= a; f++) {
+                events.failure(failures.get(f));
+            }
+            events.ack(latencies.get(a));
+        }
+        for(; f < failures.size(); f++) {
+            events.failure(failures.get(f));
+        }
+    }
+
+    public long getLastAckTime() {
+        return lastAckTime;
+    }
+
+    public List<NetworkPeer> getReliables() {
+        return reliables;
+    }
+}
@@ -0,0 +1,183 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.core.util.AppThread;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind pipeline saving ack observations to the peer store off of the notification thread.
+ *
+ * Observations are queued on a bounded queue and drained by a single writer every flush interval
+ * or once flush events have queued, whichever comes first. Observations of the same pair of peers
+ * are coalesced keeping their acks and failures in the order received, then the batch is saved at
+ * once and the reliables of any peers promoted to Reliable are saved in the order the promotions
+ * occurred. Observations arriving to a full queue and batches failing to save twice are dropped
+ * and counted.
+ */
+public class AckPipeline implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(AckPipeline.class.getName());
+
+    private final PeerManager peerManager;
+    private final BlockingQueue<AckObservation> queue;
+    private final long flushIntervalMS;
+    private final int flushEvents;
+
+    private volatile boolean running = false;
+    private AppThread writer;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private volatile long lastFlushLatencyMS = 0L;
+    private volatile long maxFlushLatencyMS = 0L;
+
+    public AckPipeline(PeerManager peerManager, int capacity, long flushIntervalMS, int flushEvents) {
+        this.peerManager = peerManager;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flushIntervalMS = flushIntervalMS;
+        this.flushEvents = flushEvents;
+    }
+
+    /**
+     * @return false if the queue is full and the observation was dropped
+     */
+    public boolean offer(AckObservation observation) {
+        if(!queue.offer(observation)) {
+            long d = dropped.incrementAndGet();
+            LOG.warning("Ack queue full; dropped observation of "+observation.getKey()+". Total dropped: "+d);
+            return false;
+        }
+        return true;
+    }
+
+    public void start() {
+        running = true;
+        writer = new AppThread(this);
+        writer.start();
+    }
+
+    /**
+     * Stop accepting flush cycles once the queue is drained and wait for the writer to finish.
+     */
+    public void shutdown() {
+        running = false;
+        if(writer != null) {
+            try {
+                writer.join(flushIntervalMS * 4);
+            } catch (InterruptedException e) {
+                LOG.warning("Interrupted waiting on ack writer to drain.");
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<AckObservation> batch = new ArrayList<>(flushEvents);
+        while(running || !queue.isEmpty()) {
+            long deadline = System.currentTimeMillis() + flushIntervalMS;
+            try {
+                AckObservation o = queue.poll(flushIntervalMS, TimeUnit.MILLISECONDS);
+                while(o != null) {
+                    batch.add(o);
+                    long wait = deadline - System.currentTimeMillis();
+                    if(batch.size() >= flushEvents || wait <= 0) break;
+                    o = queue.poll(wait, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                LOG.info("Ack writer interrupted; draining queue.");
+                running = false;
+                queue.drainTo(batch);
+            }
+            if(!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+        LOG.info("Ack writer stopped.");
+    }
+
+    private void flush(List<AckObservation> batch) {
+        Map<String, AckObservation> coalesced = new LinkedHashMap<>();
+        for(AckObservation o : batch) {
+            AckObservation existing = coalesced.putIfAbsent(o.getKey(), o);
+            if(existing != null) {
+                existing.merge(o);
+            }
+        }
+        List<AckObservation> observed = new ArrayList<>(coalesced.values());
+        long start = System.currentTimeMillis();
+        List<AckObservation> promoted = save(observed);
+        if(promoted == null) {
+            // Retry once as failures are mostly transient, e.g. a lock timeout
+            promoted = save(observed);
+            if(promoted == null) {
+                long d = dropped.addAndGet(batch.size());
+                LOG.warning("Dropped "+batch.size()+" ack observations unable to be saved. Total dropped: "+d);
+                return;
+            }
+        }
+        for(AckObservation o : promoted) {
+            if(o.getReliables() != null) {
+                LOG.info("Updating reliables of peer promoted to Reliable...");
+                peerManager.reliablesFromRemotePeer(o.getToPeer(), o.getReliables());
+            }
+        }
+        long latency = System.currentTimeMillis() - start;
+        lastFlushLatencyMS = latency;
+        if(latency > maxFlushLatencyMS) maxFlushLatencyMS = latency;
+        flushes.incrementAndGet();
+        flushed.addAndGet(batch.size());
+        LOG.info("Flushed "+batch.size()+" ack observations of "+coalesced.size()+" peer pairs in "+latency+"ms; queue depth: "+queue.size());
+    }
+
+    /**
+     * @return peers promoted or null if the observations could not be saved
+     */
+    private List<AckObservation> save(List<AckObservation> observed) {
+        try {
+            return peerManager.savePeerStatusTimes(observed);
+        } catch (Exception e) {
+            LOG.warning("Unable to save "+observed.size()+" ack observations: "+e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return observations dropped to a full queue or failing to save
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * @return total observations saved
+     */
+    public long getFlushed() {
+        return flushed.get();
+    }
+
+    public long getLastFlushLatencyMS() {
+        return lastFlushLatencyMS;
+    }
+
+    public long getMaxFlushLatencyMS() {
+        return maxFlushLatencyMS;
+    }
+}
@@ -0,0 +1,62 @@
+package io.onemfive.sensors.peers;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps every network address of a peer (1M5, I2P, Tor, SDR, LiFi) to its node id
+ * with a bounded negative cache of addresses recently confirmed unknown.
+ */
+public class AddressIndex {
+
+    private final Map<String, Long> ids = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> misses;
+
+    public AddressIndex(final int maxMisses) {
+        misses = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxMisses;
+            }
+        });
+    }
+
+    /**
+     * @return id of the node with the supplied address on any network or null if not indexed
+     */
+    public Long get(String address) {
+        return address == null ? null : ids.get(address);
+    }
+
+    public void put(String address, long id) {
+        if(address == null || address.isEmpty()) return;
+        ids.put(address, id);
+        misses.remove(address);
+    }
+
+    public void remove(String address) {
+        if(address != null) ids.remove(address);
+    }
+
+    /**
+     * @return true if the address was recently looked up and confirmed unknown
+     */
+    public boolean isKnownMiss(String address) {
+        return misses.containsKey(address);
+    }
+
+    public void recordMiss(String address) {
+        misses.put(address, Boolean.TRUE);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public void clear() {
+        ids.clear();
+        misses.clear();
+    }
+}
@@ -0,0 +1,96 @@
+package io.onemfive.sensors.peers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Set of peer addresses kept in a dense array with swap-remove
+ * so that membership, insertion, removal, and uniform random selection are all O(1).
+ */
+public class AddressSet {
+
+    // Attempts at weighted rejection sampling before settling for a uniform pick
+    private static final int MAX_WEIGHTED_ATTEMPTS = 32;
+
+    private final List<String> addresses = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    public synchronized boolean add(String address) {
+        if(positions.containsKey(address)) return false;
+        positions.put(address, addresses.size());
+        addresses.add(address);
+        return true;
+    }
+
+    public synchronized boolean remove(String address) {
+        Integer pos = positions.remove(address);
+        if(pos == null) return false;
+        int last = addresses.size() - 1;
+        String moved = addresses.remove(last);
+        if(pos != last) {
+            addresses.set(pos, moved);
+            positions.put(moved, pos);
+        }
+        return true;
+    }
+
+    public synchronized boolean contains(String address) {
+        return positions.containsKey(address);
+    }
+
+    public synchronized int size() {
+        return addresses.size();
+    }
+
+    public synchronized List<String> toList() {
+        return new ArrayList<>(addresses);
+    }
+
+    /**
+     * @return a uniformly selected address or null if empty
+     */
+    public synchronized String random(Random random) {
+        return addresses.isEmpty() ? null : addresses.get(random.nextInt(addresses.size()));
+    }
+
+    /**
+     * Select an address with probability proportional to its weight using rejection sampling.
+     * Weights must be within [0,1]; expected cost is O(1 / mean weight).
+     * Falls back to the last uniformly drawn candidate if none are accepted within a bounded number of attempts.
+     *
+     * @return a selected address or null if empty
+     */
+    public synchronized String randomWeighted(Random random, ToDoubleFunction<String> weight) {
+        String candidate = null;
+        for(int i = 0; i < MAX_WEIGHTED_ATTEMPTS && !addresses.isEmpty(); i++) {
+            candidate = addresses.get(random.nextInt(addresses.size()));
+            if(random.nextDouble() < weight.applyAsDouble(candidate)) {
+                return candidate;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * Select up to k distinct addresses uniformly using Floyd's algorithm in O(k).
+     */
+    public synchronized List<String> sample(Random random, int k) {
+        int n = addresses.size();
+        if(k >= n) return new ArrayList<>(addresses);
+        List<String> sample = new ArrayList<>(k);
+        Set<Integer> chosen = new HashSet<>();
+        for(int j = n - k; j < n; j++) {
+            int t = random.nextInt(j + 1);
+            int pick = chosen.add(t) ? t : j;
+            if(pick == j) chosen.add(j);
+            sample.add(addresses.get(pick));
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,105 @@
+package io.onemfive.sensors.peers;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Banned peer addresses checked on every path peers are taken in or shared.
+ *
+ * A Bloom filter answers the common case of a peer not being banned without touching
+ * the address set, which then confirms any possible match so there are no false positives.
+ * Both hashes are computed over the address's chars so checks never allocate.
+ * The filter doubles once it holds more addresses than it was sized for.
+ */
+public class BannedPeers {
+
+    private static final int BITS_PER_ADDRESS = 10;
+    private static final int HASHES = 7;
+    private static final int MIN_CAPACITY = 128;
+
+    private final Set<String> addresses = ConcurrentHashMap.newKeySet();
+    private volatile long[] bits;
+    private int capacity;
+
+    public BannedPeers() {
+        this(MIN_CAPACITY);
+    }
+
+    public BannedPeers(int capacity) {
+        this.capacity = Math.max(MIN_CAPACITY, capacity);
+        this.bits = new long[words(this.capacity)];
+    }
+
+    /**
+     * @return false if null, empty, or already banned
+     */
+    public synchronized boolean add(String address) {
+        if(address == null || address.isEmpty() || !addresses.add(address)) return false;
+        if(addresses.size() > capacity) {
+            capacity *= 2;
+            long[] b = new long[words(capacity)];
+            for(String a : addresses) {
+                set(b, a);
+            }
+            bits = b;
+        } else {
+            long[] b = bits;
+            set(b, address);
+            // Publish the set bits to unsynchronized readers
+            bits = b;
+        }
+        return true;
+    }
+
+    public boolean contains(String address) {
+        if(address == null) return false;
+        long[] b = bits;
+        long m = (long)b.length << 6;
+        long h1 = fnv(address);
+        long h2 = mix(address.hashCode()) | 1L;
+        for(int i = 0; i < HASHES; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, m);
+            if((b[(int)(bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return addresses.contains(address);
+    }
+
+    public int size() {
+        return addresses.size();
+    }
+
+    public synchronized void clear() {
+        addresses.clear();
+        bits = new long[words(capacity)];
+    }
+
+    private static void set(long[] b, String address) {
+        long m = (long)b.length << 6;
+        long h1 = fnv(address);
+        long h2 = mix(address.hashCode()) | 1L;
+        for(int i = 0; i < HASHES; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, m);
+            b[(int)(bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static int words(int capacity) {
+        return (int)(((long)capacity * BITS_PER_ADDRESS + 63) >>> 6);
+    }
+
+    private static long fnv(String s) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -4,9 +4,21 @@ import io.onemfive.core.keyring.AuthNRequest;
 import io.onemfive.core.util.tasks.TaskRunner;
 import io.onemfive.data.DID;
 import io.onemfive.data.NetworkPeer;
+import io.onemfive.sensors.SensorsConfig;
 import io.onemfive.sensors.SensorsService;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import static io.onemfive.core.ServiceRequest.NO_ERROR;
@@ -15,11 +27,26 @@ public abstract class BasePeerManager implements PeerManager, PeerReport {
 
     private static final Logger LOG = Logger.getLogger(BasePeerManager.class.getName());
 
+    // Peer properties holding an address on one of the networks
+    public static final String[] ADDRESS_PROPERTIES = {"address", "1m5Address", "torAddress", "i2pAddress", "sdrAddress", "lifiAddress"};
+
     private Properties properties;
     protected SensorsService service;
+    // Directory the store is kept in when not the SensorsService's
+    private File directory;
     protected NetworkPeer localPeer = new NetworkPeer();
     protected PeerDiscovery peerDiscovery;
     protected TaskRunner taskRunner;
+    protected final RelationshipIndex relIndex = new RelationshipIndex();
+    protected EvictionPolicy eviction = EvictionPolicy.create(SensorsConfig.EP);
+    protected ColdPeers coldPeers = new ColdPeers(SensorsConfig.ColdPT);
+    protected final BannedPeers banned = new BannedPeers();
+    // Local peer address the eviction policy is tracking Known peers of
+    private String evictionTrackedFor;
+    // Evictions peers only listed by remote peers may still make, refilled at MaxLE a minute
+    private double listedEvictions = SensorsConfig.MaxLE;
+    private long listedEvictionsAt = System.currentTimeMillis();
+    private final AtomicLong listedRefused = new AtomicLong();
 
     public BasePeerManager() {}
 
@@ -39,6 +66,17 @@ public abstract class BasePeerManager implements PeerManager, PeerReport {
         this.taskRunner = taskRunner;
     }
 
+    /**
+     * Keep the store in the supplied directory rather than the SensorsService's.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    protected File getDirectory() throws IOException {
+        return directory != null ? directory : service.getServiceDirectory();
+    }
+
     @Override
     public NetworkPeer getLocalPeer() {
         return localPeer;
@@ -81,11 +119,384 @@ public abstract class BasePeerManager implements PeerManager, PeerReport {
         if(taskRunner==null) {
             taskRunner = new TaskRunner();
         }
+        eviction = EvictionPolicy.create(SensorsConfig.EP);
+        coldPeers = new ColdPeers(SensorsConfig.ColdPT);
+        evictionTrackedFor = null;
+        listedEvictions = SensorsConfig.MaxLE;
+        listedEvictionsAt = System.currentTimeMillis();
         peerDiscovery = new PeerDiscovery(PeerDiscovery.class.getSimpleName(), service, taskRunner, properties);
         taskRunner.addTask(peerDiscovery);
         return true;
     }
 
+    /**
+     * Lazily page through peers so that only one page is held in memory at a time.
+     * @param fromPeer peer whose related peers to iterate or null for all peers
+     */
+    @Override
+    public Iterator<NetworkPeer> iteratePeers(final NetworkPeer fromPeer, final P2PRelationship.RelType relType, final int pageSize) {
+        return new Iterator<NetworkPeer>() {
+            private PeerPage page;
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                while(page == null || (next >= page.getPeers().size() && page.hasMore())) {
+                    page = getPeers(fromPeer, relType, pageSize, page == null ? null : page.getContinuation());
+                    next = 0;
+                }
+                return next < page.getPeers().size();
+            }
+
+            @Override
+            public NetworkPeer next() {
+                if(!hasNext()) throw new NoSuchElementException();
+                return page.getPeers().get(next++);
+            }
+        };
+    }
+
+    @Override
+    public void reliablesFromRemotePeer(NetworkPeer remotePeer, List<NetworkPeer> remoteKnown) {
+        if(isBanned(remotePeer)) {
+            LOG.info("Ignoring reliables from banned peer: "+remotePeer.getAddress());
+            return;
+        }
+        LOG.info("Number of known by remote peer sent: "+remoteKnown.size());
+        List<NetworkPeer> allowed = new ArrayList<>(remoteKnown.size());
+        for(NetworkPeer p : remoteKnown) {
+            if(!isBanned(p)) allowed.add(p);
+        }
+        if(allowed.size() < remoteKnown.size()) {
+            LOG.info("Dropped "+(remoteKnown.size() - allowed.size())+" banned peers sent by remote peer.");
+        }
+        remoteKnown = allowed;
+        // Peers beyond MaxPT are made room for by eviction
+        int toSave = SensorsConfig.MaxPS;
+        if(remoteKnown.size() > toSave) {
+            // Ensure we do not update beyond the max sent to help fight a form of DDOS
+            LOG.info("Only taking "+toSave+" reliables from this peer. Max reliables to receive: " + SensorsConfig.MaxPS);
+            remoteKnown = remoteKnown.subList(0, toSave);
+        }
+        LOG.info("Saving Remote Peer and its known...");
+        if(savePeers(remotePeer, remoteKnown)) {
+            LOG.info("Remote Peer and "+remoteKnown.size()+" of its known saved and related as known.");
+        }
+    }
+
+    /**
+     * Save each ack and failure in the order observed.
+     * @return observations whose acking peer was promoted to Reliable in the order promoted
+     */
+    @Override
+    public List<AckObservation> savePeerStatusTimes(List<AckObservation> observations) {
+        List<AckObservation> promoted = new ArrayList<>();
+        for(AckObservation o : observations) {
+            boolean[] reliable = new boolean[1];
+            o.replay(new AckObservation.Events() {
+                @Override
+                public void ack(long latencyMS) {
+                    reliable[0] |= savePeerStatusTimes(o.getFromPeer(), o.getToPeer(), o.getLastAckTime() - latencyMS, o.getLastAckTime());
+                }
+
+                @Override
+                public void failure(long timeSent) {
+                    savePeerStatusFailure(o.getFromPeer(), o.getToPeer(), timeSent);
+                }
+            });
+            if(reliable[0]) promoted.add(o);
+        }
+        return promoted;
+    }
+
+    public boolean isLocalReady() {
+        boolean ready = getLocalPeer()!=null && getLocalPeer().getAddress()!=null;
+        if(ready) {
+            LOG.info("Local is ready: "+getLocalPeer().getAddress());
+        } else {
+            LOG.info("Local is not ready.");
+        }
+        return ready;
+    }
+
+    public boolean isRemoteReady(NetworkPeer r) {
+        boolean ready = r != null && r.getAddress()!=null;
+        if(ready) {
+            LOG.info("Remote is ready: "+r.getAddress());
+        } else {
+            LOG.info("Remote is not ready.");
+        }
+        return ready;
+    }
+
+    public boolean isRemoteLocal(NetworkPeer r) {
+        boolean remoteIsLocal = r != null
+                && r.getAddress()!=null
+                && getLocalPeer()!=null
+                && getLocalPeer().getAddress()!=null
+                && r.getAddress().equals(getLocalPeer().getAddress());
+        if(remoteIsLocal) {
+            LOG.info("Remote Peer is actually the Local Peer.");
+        } else {
+            LOG.info("Remote Peer is not the Local Peer.");
+        }
+        return remoteIsLocal;
+    }
+
+    /**
+     * Tier a peer's reliability score places it in given its current tier.
+     * Peers move up once their score reaches MinAckRP or MinAckSRP but only move down
+     * once it falls RelHys percent below so that peers near a threshold do not flap.
+     *
+     * @return Known, Reliable, or SuperReliable
+     */
+    protected static P2PRelationship.RelType tier(P2PRelationship.RelType current, double score) {
+        double down = 1.0 - SensorsConfig.RelHys / 100.0;
+        int rank = rank(current);
+        if(score >= SensorsConfig.MinAckSRP * (rank >= 2 ? down : 1.0)) {
+            return P2PRelationship.RelType.SuperReliable;
+        }
+        if(score >= SensorsConfig.MinAckRP * (rank >= 1 ? down : 1.0)) {
+            return P2PRelationship.RelType.Reliable;
+        }
+        return P2PRelationship.RelType.Known;
+    }
+
+    /**
+     * SuperReliable peers are also related as Reliable.
+     * @return relationships to add (true) or remove (false) to move a peer between tiers
+     */
+    protected static Map<P2PRelationship.RelType, Boolean> tierChanges(P2PRelationship.RelType from, P2PRelationship.RelType to) {
+        Map<P2PRelationship.RelType, Boolean> changes = new LinkedHashMap<>();
+        int fromRank = rank(from);
+        int toRank = rank(to);
+        if(fromRank < 1 && toRank >= 1) changes.put(P2PRelationship.RelType.Reliable, true);
+        if(fromRank < 2 && toRank >= 2) changes.put(P2PRelationship.RelType.SuperReliable, true);
+        if(fromRank >= 2 && toRank < 2) changes.put(P2PRelationship.RelType.SuperReliable, false);
+        if(fromRank >= 1 && toRank < 1) changes.put(P2PRelationship.RelType.Reliable, false);
+        return changes;
+    }
+
+    protected static P2PRelationship.RelType currentTier(RelationshipIndex relIndex, String startAddress, String endAddress) {
+        if(relIndex.contains(startAddress, P2PRelationship.RelType.SuperReliable, endAddress)) {
+            return P2PRelationship.RelType.SuperReliable;
+        }
+        if(relIndex.contains(startAddress, P2PRelationship.RelType.Reliable, endAddress)) {
+            return P2PRelationship.RelType.Reliable;
+        }
+        return P2PRelationship.RelType.Known;
+    }
+
+    private static int rank(P2PRelationship.RelType tier) {
+        return tier == P2PRelationship.RelType.SuperReliable ? 2 : tier == P2PRelationship.RelType.Reliable ? 1 : 0;
+    }
+
+    @Override
+    public List<NetworkPeer> getReliablesToShare(NetworkPeer p) {
+        return getReliablesToShare(p, null);
+    }
+
+    /**
+     * Share Reliable (including SuperReliable) peers only, falling back to Known peers
+     * while none have become Reliable yet so discovery can bootstrap.
+     *
+     * Beyond MaxPS the peers ranked first for the receiving peer are shared, so each peer
+     * is sent the same list until the tiers change and gossip can send it deltas, while
+     * different peers are sent different peers.
+     */
+    protected List<String> reliablesToShare(String address, String toAddress) {
+        List<String> reliables = new ArrayList<>(relIndex.related(address, P2PRelationship.RelType.Reliable));
+        if(reliables.isEmpty()) {
+            reliables.addAll(relIndex.related(address, P2PRelationship.RelType.Known));
+        }
+        reliables.removeIf(banned::contains);
+        if(reliables.size() <= SensorsConfig.MaxPS) {
+            return reliables;
+        }
+        long seed = toAddress == null ? 0L : PeerGossip.hash(toAddress);
+        Comparator<String> byRank = Comparator.<String>comparingLong(a -> PeerGossip.hash(a) ^ seed).thenComparing(Comparator.naturalOrder());
+        // Keeps the MaxPS ranked first with the last of them at its head
+        PriorityQueue<String> first = new PriorityQueue<>(SensorsConfig.MaxPS + 1, byRank.reversed());
+        for(String a : reliables) {
+            first.add(a);
+            if(first.size() > SensorsConfig.MaxPS) first.poll();
+        }
+        List<String> shared = new ArrayList<>(first);
+        shared.sort(byRank);
+        return shared;
+    }
+
+    /**
+     * @return true if either the peer's address or its I2P address is banned
+     */
+    @Override
+    public boolean isBanned(NetworkPeer peer) {
+        return peer != null && (banned.contains(peer.getAddress()) || banned.contains(peer.getI2PAddress()));
+    }
+
+    /**
+     * @return true if the address, either a peer's address or its I2P address, is banned
+     */
+    @Override
+    public boolean isBanned(String address) {
+        return banned.contains(address);
+    }
+
+    /**
+     * Ban the peer at runtime, removing it from the local peer's Known peers and persisting
+     * the ban as a Banned relationship from the local peer.
+     */
+    @Override
+    public Boolean banPeer(NetworkPeer peer) {
+        if(!isLocalReady() || !isRemoteReady(peer) || isRemoteLocal(peer)) {
+            return false;
+        }
+        banned.add(peer.getAddress());
+        banned.add(peer.getI2PAddress());
+        coldPeers.take(peer.getAddress());
+        for(P2PRelationship.RelType relType : new P2PRelationship.RelType[] {P2PRelationship.RelType.SuperReliable, P2PRelationship.RelType.Reliable, P2PRelationship.RelType.Known}) {
+            if(relIndex.contains(getLocalPeer().getAddress(), relType, peer.getAddress())) {
+                removeRelationship(getLocalPeer(), peer, relType);
+            }
+        }
+        LOG.info("Banned peer: "+peer.getAddress());
+        return saveBan(peer);
+    }
+
+    /**
+     * Save the peer without relating it as Known and relate it as Banned to the local peer.
+     */
+    protected abstract boolean saveBan(NetworkPeer peer);
+
+    public abstract boolean removeRelationship(NetworkPeer startPeer, NetworkPeer endPeer, P2PRelationship.RelType relType);
+
+    /**
+     * Load banned addresses from configuration and the Banned relationships persisted by earlier runtime bans.
+     */
+    protected void loadBanned() {
+        banned.clear();
+        for(NetworkPeer p : SensorsConfig.banned) {
+            banned.add(p.getAddress());
+        }
+        for(String start : relIndex.startAddresses()) {
+            for(String address : relIndex.related(start, P2PRelationship.RelType.Banned)) {
+                banned.add(address);
+            }
+        }
+        LOG.info("Loaded "+banned.size()+" banned addresses.");
+    }
+
+    /**
+     * Evict the local peer's Known peers chosen by the eviction policy until the supplied
+     * number of new Known peers fit within MaxPT.
+     */
+    protected void makeRoom(int needed) {
+        String local = getLocalPeer().getAddress();
+        if(local == null || needed <= 0) return;
+        trackEviction(local);
+        while(relIndex.count(local, P2PRelationship.RelType.Known) + needed > SensorsConfig.MaxPT) {
+            String victim = eviction.evict();
+            if(victim == null) {
+                LOG.warning("Max peers tracked but none to evict: "+SensorsConfig.MaxPT);
+                return;
+            }
+            LOG.info("Max peers tracked; evicting Known peer: "+victim);
+            if(!evictPeer(victim)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Room for the new Known peers of a remote peer's list, to be made with makeRoom. Peers in contact
+     * with the local peer are always made room for. Peers only listed by a remote peer fill free capacity
+     * but evict at most MaxLE Known peers a minute so a remote peer listing peers it controls can not
+     * flush out the peers the local peer has acked.
+     * @param direct new Known peers in contact with the local peer
+     * @param listed new Known peers only listed by a remote peer
+     * @return how many of the listed peers there is room for
+     */
+    protected synchronized int roomForListed(int direct, int listed) {
+        String local = getLocalPeer().getAddress();
+        if(local == null) return listed;
+        long free = Math.max(0L, SensorsConfig.MaxPT - relIndex.count(local, P2PRelationship.RelType.Known) - direct);
+        int room = (int)Math.min(listed, free);
+        if(room < listed) {
+            long now = System.currentTimeMillis();
+            listedEvictions = Math.min(SensorsConfig.MaxLE, listedEvictions + (now - listedEvictionsAt) * SensorsConfig.MaxLE / 60000.0);
+            listedEvictionsAt = now;
+            int granted = (int)Math.min(listed - room, (long)listedEvictions);
+            listedEvictions -= granted;
+            room += granted;
+            if(room < listed) {
+                long r = listedRefused.addAndGet(listed - room);
+                LOG.info("Max listed evictions a minute reached; not relating "+(listed - room)+" listed peers as Known. Total refused: "+r);
+            }
+        }
+        return room;
+    }
+
+    /**
+     * @return peers listed by remote peers not related as Known for lack of room
+     */
+    public long getListedRefused() {
+        return listedRefused.get();
+    }
+
+    /**
+     * Prune peers that no peer has acked or newly related as Known since the supplied time,
+     * working through the peers in address order from where the last call stopped until the deadline.
+     * The local peer and banned and cold peers are never pruned.
+     *
+     * @return peers removed
+     */
+    public abstract List<NetworkPeer> prune(long staleBefore, long deadline);
+
+    /**
+     * Remove the local peer's relationships to the peer moving it to the cold tier,
+     * removing the peer dropped from the cold tier if any from the store.
+     */
+    protected abstract boolean evictPeer(String address);
+
+    /**
+     * Called as relationships are indexed so the eviction policy follows the local peer's Known peers.
+     */
+    protected void knownChanged(String startAddress, P2PRelationship.RelType relType, String endAddress, boolean added) {
+        if(relType != P2PRelationship.RelType.Known || !startAddress.equals(evictionTrackedFor)) return;
+        if(added) {
+            eviction.add(endAddress);
+        } else {
+            eviction.remove(endAddress);
+        }
+    }
+
+    protected void evictionAcked(String startAddress, String endAddress, double reliabilityScore) {
+        if(startAddress.equals(evictionTrackedFor)) {
+            eviction.acked(endAddress, reliabilityScore);
+        }
+    }
+
+    protected void evictionFailed(String startAddress, String endAddress, double reliabilityScore) {
+        if(startAddress.equals(evictionTrackedFor)) {
+            eviction.failed(endAddress, reliabilityScore);
+        }
+    }
+
+    private synchronized void trackEviction(String local) {
+        if(local.equals(evictionTrackedFor)) return;
+        eviction.clear();
+        for(String address : relIndex.related(local, P2PRelationship.RelType.Known)) {
+            eviction.add(address);
+        }
+        evictionTrackedFor = local;
+        LOG.info("Eviction policy tracking "+eviction.size()+" Known peers.");
+    }
+
+    @Override
+    public Boolean shutdown() {
+        return true;
+    }
+
     @Override
     public void run() {
         init(properties);
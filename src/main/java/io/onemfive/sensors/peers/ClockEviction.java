@@ -0,0 +1,90 @@
+package io.onemfive.sensors.peers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CLOCK second chance eviction: a hand sweeps the peers clearing the referenced bit an ack set,
+ * evicting the first peer not acked since the hand last passed or that has failed since. O(1) amortized.
+ */
+public class ClockEviction implements EvictionPolicy {
+
+    private final List<String> peers = new ArrayList<>();
+    private final List<Boolean> referenced = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private int hand = 0;
+
+    @Override
+    public synchronized void add(String address) {
+        if(positions.containsKey(address)) return;
+        positions.put(address, peers.size());
+        peers.add(address);
+        referenced.add(true);
+    }
+
+    @Override
+    public synchronized void acked(String address, double reliabilityScore) {
+        Integer pos = positions.get(address);
+        if(pos != null) {
+            referenced.set(pos, true);
+        }
+    }
+
+    /**
+     * A failed request withdraws the peer's second chance.
+     */
+    @Override
+    public synchronized void failed(String address, double reliabilityScore) {
+        Integer pos = positions.get(address);
+        if(pos != null) {
+            referenced.set(pos, false);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String address) {
+        Integer pos = positions.remove(address);
+        if(pos == null) return;
+        int last = peers.size() - 1;
+        String moved = peers.remove(last);
+        Boolean movedReferenced = referenced.remove(last);
+        if(pos != last) {
+            peers.set(pos, moved);
+            referenced.set(pos, movedReferenced);
+            positions.put(moved, pos);
+        }
+    }
+
+    @Override
+    public synchronized String evict() {
+        // Clears at most every bit once before finding a victim
+        for(int i = 0; i <= peers.size(); i++) {
+            if(hand >= peers.size()) hand = 0;
+            if(peers.isEmpty()) return null;
+            if(referenced.get(hand)) {
+                referenced.set(hand, false);
+                hand++;
+            } else {
+                String victim = peers.get(hand);
+                remove(victim);
+                return victim;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return peers.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        peers.clear();
+        referenced.clear();
+        positions.clear();
+        hand = 0;
+    }
+}
@@ -0,0 +1,60 @@
+package io.onemfive.sensors.peers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small bounded tier of peers recently evicted from the local peer's Known peers.
+ * Cold peers stay in the peer store and keep their Known relationship stats here so they can
+ * come back with their history instead of starting over; peers dropped from the tier are
+ * removed from the store.
+ */
+public class ColdPeers {
+
+    public static class ColdPeer {
+        // Known relationship properties or null if none
+        public final Map<String, Object> known;
+
+        public ColdPeer(Map<String, Object> known) {
+            this.known = known;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, ColdPeer> peers = new LinkedHashMap<>();
+
+    public ColdPeers(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return address of the oldest cold peer dropped to make room or null if none
+     */
+    public synchronized String put(String address, Map<String, Object> known) {
+        peers.remove(address);
+        peers.put(address, new ColdPeer(known));
+        if(peers.size() > capacity) {
+            Iterator<String> i = peers.keySet().iterator();
+            String dropped = i.next();
+            i.remove();
+            return dropped;
+        }
+        return null;
+    }
+
+    /**
+     * @return the cold peer, no longer cold, or null if not cold
+     */
+    public synchronized ColdPeer take(String address) {
+        return address == null ? null : peers.remove(address);
+    }
+
+    public synchronized boolean contains(String address) {
+        return peers.containsKey(address);
+    }
+
+    public synchronized int size() {
+        return peers.size();
+    }
+}
@@ -0,0 +1,42 @@
+package io.onemfive.sensors.peers;
+
+/**
+ * Selects which of the local peer's Known peers to evict once MaxPT are tracked.
+ * Implementations keep their own bookkeeping, updated as peers are added, acked, fail,
+ * and are removed, so selecting a peer to evict never touches the peer store.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Start tracking a newly Known peer as if it was just acked.
+     */
+    void add(String address);
+
+    void acked(String address, double reliabilityScore);
+
+    void failed(String address, double reliabilityScore);
+
+    void remove(String address);
+
+    /**
+     * Select a peer to evict and stop tracking it.
+     * @return address of the peer to evict or null if none are tracked
+     */
+    String evict();
+
+    int size();
+
+    void clear();
+
+    /**
+     * @param name LRA (least recently acked), SCORE (lowest of sampled reliability scores), or CLOCK (second chance)
+     */
+    static EvictionPolicy create(String name) {
+        if("SCORE".equalsIgnoreCase(name)) {
+            return new SampledScoreEviction();
+        } else if("CLOCK".equalsIgnoreCase(name)) {
+            return new ClockEviction();
+        }
+        return new LeastRecentlyAckedEviction();
+    }
+}
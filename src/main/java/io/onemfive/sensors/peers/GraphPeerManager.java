@@ -6,14 +6,13 @@ import io.onemfive.data.NetworkPeer;
 import io.onemfive.neo4j.GraphUtil;
 import io.onemfive.neo4j.Neo4jDB;
 import io.onemfive.sensors.SensorsConfig;
-import org.neo4j.graphalgo.GraphAlgoFactory;
-import org.neo4j.graphalgo.PathFinder;
-import org.neo4j.graphalgo.WeightedPath;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.schema.IndexDefinition;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.ToDoubleFunction;
 import java.util.logging.Logger;
 
 public class GraphPeerManager extends BasePeerManager {
@@ -21,14 +20,31 @@ public class GraphPeerManager extends BasePeerManager {
     private static final Logger LOG = Logger.getLogger(GraphPeerManager.class.getName());
 
     public static final Label PEER_LABEL = Label.label(NetworkPeer.class.getSimpleName());
+    // Single node holding the generation of the last snapshot taken of the store
+    private static final Label SNAPSHOT_LABEL = Label.label(PeerSnapshot.class.getSimpleName());
+    private static final String SNAPSHOT_GENERATION = "generation";
     public static final String PEER_LOCAL = "localPeer";
 
     // Peer-to-Peer Relationship
     public static final String PEER_TO_PEER_AVG_LATENCY = "peerToPeerAvgLatency";
+    // Time a Known relationship was created
+    public static final String CREATED = "created";
+
+    // Peers examined per transaction while pruning
+    private static final int PRUNE_BATCH = 100;
 
     public static final String DBNAME = "imspg";
 
     private Neo4jDB db;
+    private PeerCounters counters;
+    private final AddressIndex addressIndex = new AddressIndex(1000);
+    private final LatencyRouter router = new LatencyRouter();
+    private File snapshotFile;
+    // Address the next prune batch starts after
+    private String pruneCursor = "";
+    private long prunedTotal = 0L;
+    // When set, relationship index answers are cross-checked against the graph
+    private boolean verifyRelIndex = false;
 
     public GraphPeerManager() { }
 
@@ -44,15 +60,19 @@ public class GraphPeerManager extends BasePeerManager {
         db = new Neo4jDB();
         String baseDir = null;
         try {
-            baseDir = service.getServiceDirectory().getCanonicalPath();
+            baseDir = getDirectory().getCanonicalPath();
         } catch (IOException e) {
             LOG.warning("IOException caught retrieving SensorsService's service directory.");
             return false;
         }
         db.setLocation(baseDir + "/" + DBNAME);
+        counters = new PeerCounters(new File(baseDir, DBNAME + ".counters"));
+        // Kept through a clean so that a cleaned store can be warm-started
+        snapshotFile = new File(baseDir, DBNAME + ".snapshot");
         String cleanDB = properties.getProperty("onemfive.sensors.db.cleanOnRestart");
         if (Boolean.parseBoolean(cleanDB)) {
             FileUtil.rmdir(db.getLocation(), false);
+            new File(baseDir, DBNAME + ".counters").delete();
             LOG.info("Cleaned " + DBNAME);
         }
         db.init(properties);
@@ -64,12 +84,9 @@ public class GraphPeerManager extends BasePeerManager {
             if(definitions==null || ((List)definitions).size() == 0) {
                 LOG.info("1M5 Indexes not found; creating...");
                 // No Address Indexes...set them up
-                db.getGraphDb().schema().indexFor(PEER_LABEL).withName("NetworkPeer.address").on("address").create();
-                db.getGraphDb().schema().indexFor(PEER_LABEL).withName("NetworkPeer.1m5Address").on("1m5Address").create();
-                db.getGraphDb().schema().indexFor(PEER_LABEL).withName("NetworkPeer.torAddress").on("torAddress").create();
-                db.getGraphDb().schema().indexFor(PEER_LABEL).withName("NetworkPeer.i2pAddress").on("i2pAddress").create();
-                db.getGraphDb().schema().indexFor(PEER_LABEL).withName("NetworkPeer.sdrAddress").on("sdrAddress").create();
-                db.getGraphDb().schema().indexFor(PEER_LABEL).withName("NetworkPeer.lifiAddress").on("lifiAddress").create();
+                for(String addressProperty : ADDRESS_PROPERTIES) {
+                    db.getGraphDb().schema().indexFor(PEER_LABEL).withName("NetworkPeer."+addressProperty).on(addressProperty).create();
+                }
                 LOG.info("1M5 Indexes created.");
             }
             tx.success();
@@ -77,6 +94,18 @@ public class GraphPeerManager extends BasePeerManager {
             LOG.warning(e.getLocalizedMessage());
         }
 
+        restoreSnapshot();
+        loadRelationshipIndex();
+        loadBanned();
+        loadAddressIndex();
+        verifyRelIndex = Boolean.parseBoolean(properties.getProperty("onemfive.sensors.peers.index.verify"));
+        if(verifyRelIndex) {
+            verifyRelationshipIndex();
+        }
+        if(!loadPeerCounters()) {
+            return false;
+        }
+
         LOG.info("Relationship configurations:" +
                 "\n\tonemfive.sensors.MinPT="+SensorsConfig.MinPT+": Min Peers Tracked - the point at which Discovery process goes into 'hyper' mode." +
                 "\n\tonemfive.sensors.MaxPT="+SensorsConfig.MaxPT+": Max Peers Tracked - the total number of Peers to attempt to maintain knowledge of." +
@@ -86,34 +115,39 @@ public class GraphPeerManager extends BasePeerManager {
                 "\n\tonemfive.sensors.MinAckRP="+SensorsConfig.MinAckRP+": Reliable Peer Min Acks" +
                 "\n\tonemfive.sensors.MinAckSRP="+SensorsConfig.MinAckSRP+": Super Reliable Peer Min Acks");
 
+        if(SensorsConfig.SI > 0) {
+            taskRunner.addTask(new PeerSnapshotTask(PeerSnapshotTask.class.getSimpleName(), taskRunner, properties, this));
+        }
+        if(SensorsConfig.PruneH > 0) {
+            taskRunner.addTask(new PeerPruneTask(PeerPruneTask.class.getSimpleName(), taskRunner, properties, this));
+        }
         return true;
     }
 
-//    public Node[] findShortestPath(NetworkPeer fromPeer, NetworkPeer toPeer) {
-//        Node[] shortestPath = null;
-//        PathFinder<Path> finder = GraphAlgoFactory.shortestPath(PathExpanders.forTypeAndDirection(P2PRelationship.RelType.Known, Direction.OUTGOING), 15);
-//
-//        Node startNode = findPeerNode(fromPeer, true);
-//        Node endNode = findPeerNode(toPeer, true);
-//        Iterator<Path> i = finder.findAllPaths( startNode, endNode ).iterator();
-//        Path p;
-//        while(i.hasNext()) {
-//            p = i.next();
-//
-//        }
-//        return shortestPath;
-//    }
-//
-//    public Node[] findLowestLatencyPath(NetworkPeer fromPeer, NetworkPeer toPeer) {
-//        Node[] lowestLatencyPath = null;
-//        PathFinder<WeightedPath> finder = GraphAlgoFactory.dijkstra(PathExpanders.forTypeAndDirection(P2PRelationship.RelType.Known, Direction.OUTGOING), PEER_TO_PEER_AVG_LATENCY);
-//        Node startNode = findPeerNode(fromPeer, true);
-//        Node endNode = findPeerNode(toPeer, true);
-//        WeightedPath path = finder.findSinglePath( startNode, endNode );
-//        double weight = path.weight();
-//
-//        return lowestLatencyPath;
-//    }
+    /**
+     * Lowest average ack latency path from the local peer to the supplied peer over Known relationships.
+     * Answered from the incrementally maintained latency router.
+     *
+     * @return peers to relay through ending with the supplied peer; empty if not reachable within maxHops
+     */
+    @Override
+    public List<NetworkPeer> findLowestLatencyPath(NetworkPeer toPeer, int maxHops) {
+        List<NetworkPeer> path = new ArrayList<>();
+        if(!isLocalReady() || toPeer == null) {
+            return path;
+        }
+        router.setSource(getLocalPeer().getAddress());
+        for(String address : router.path(toPeer.getAddress(), maxHops)) {
+            NetworkPeer p = findPeerByAddress(address);
+            if(p == null) {
+                LOG.warning("Peer on lowest latency path not found: "+address);
+                return new ArrayList<>();
+            }
+            path.add(p);
+        }
+        LOG.info("Lowest latency path to "+toPeer.getAddress()+" has "+path.size()+" hops.");
+        return path;
+    }
 
     @Override
     public NetworkPeer getLocalPeer() {
@@ -127,6 +161,10 @@ public class GraphPeerManager extends BasePeerManager {
             LOG.info("NetworkPeer to save has no Address. Skipping.");
             return false;
         }
+        if(isBanned(p)) {
+            LOG.info("NetworkPeer to save is banned. Skipping.");
+            return false;
+        }
         boolean updated = false;
         try {
             updated = updatePeer(p);
@@ -137,18 +175,13 @@ public class GraphPeerManager extends BasePeerManager {
             return true;
         else if(autocreate) {
             LOG.info("Creating NetworkPeer in graph...");
-            long numberPeers = totalPeers(getLocalPeer(), P2PRelationship.RelType.Known);
-            if(numberPeers <= SensorsConfig.MaxPT) {
-                try (Transaction tx = db.getGraphDb().beginTx()) {
-                    Node n = db.getGraphDb().createNode(PEER_LABEL);
-                    toNode(p,n);
-                    tx.success();
-                    LOG.info("CDNPeer saved to graph.");
-                } catch (Exception e) {
-                    LOG.warning(e.getLocalizedMessage());
-                }
-            } else {
-                LOG.info("Not adding peer; max number of peers reached: "+ SensorsConfig.MaxPT);
+            try (Transaction tx = db.getGraphDb().beginTx()) {
+                Node n = db.getGraphDb().createNode(PEER_LABEL);
+                toNode(p,n);
+                tx.success();
+                LOG.info("CDNPeer saved to graph.");
+            } catch (Exception e) {
+                LOG.warning(e.getLocalizedMessage());
             }
         } else {
             LOG.info("New Peer but autocreate is false, unable to save peer.");
@@ -185,21 +218,31 @@ public class GraphPeerManager extends BasePeerManager {
 
     @Override
     public Boolean verifyPeer(NetworkPeer peer) {
+        if(isBanned(peer)) {
+            return false;
+        }
         if(findPeerByNetworkedAddress(peer.getNetwork(), peer.getAddress())==null) {
             return savePeer(peer, true);
         }
         return true;
     }
 
+    /**
+     * @param fromPeer peer whose Known peers to list or null for all peers
+     */
     @Override
     public List<NetworkPeer> getAllPeers(NetworkPeer fromPeer, int pageSize, int beginIndex) {
         LOG.info("Get All Peers...");
         List<NetworkPeer> peers = new ArrayList<>();
-        int numPeers = 0;
+        Map<String,Object> params = new HashMap<>();
+        params.put("skip", beginIndex);
+        params.put("limit", pageSize);
+        String cql = peersMatch(fromPeer, P2PRelationship.RelType.Known, params) +
+                " RETURN p ORDER BY p.address SKIP $skip LIMIT $limit";
         try(Transaction tx = db.getGraphDb().beginTx()){
-            ResourceIterator<Node> i = db.getGraphDb().findNodes(PEER_LABEL);
-            while (i.hasNext() && numPeers++ < pageSize) {
-                peers.add(toPeer(toMap(i.next())));
+            Result r = db.getGraphDb().execute(cql, params);
+            while (r.hasNext()) {
+                peers.add(toPeer((Node)r.next().get("p")));
             }
             tx.success();
         } catch(Exception e) {
@@ -208,75 +251,99 @@ public class GraphPeerManager extends BasePeerManager {
         return peers;
     }
 
+    /**
+     * Keyset pagination ordered by the indexed address property so each page costs O(pageSize)
+     * regardless of how deep into the peers it is.
+     *
+     * @param fromPeer peer whose related peers to list or null for all peers
+     */
     @Override
-    public NetworkPeer getRandomPeer(NetworkPeer p) {
-        LOG.info("Get Random Peer...");
-        NetworkPeer peer = null;
-        long numberPeers = totalPeers(p, P2PRelationship.RelType.Known);
-        if(numberPeers > 0) {
-            long randomIndex = (long)(Math.random() * numberPeers);
-            List<NetworkPeer> peers = getPeersByIndexRange(p, randomIndex, 1);
-            peer = peers.get(0);
-            LOG.info("Random peer selected: "+peer+" of peer: "+p);
-        }
-        return peer;
-    }
-
-    // TODO: Move this to file system to speed up
-    @Override
-    public Long totalPeers(NetworkPeer p, P2PRelationship.RelType relType) {
-        long count = -1;
-        try (Transaction tx = db.getGraphDb().beginTx()) {
-            String cql = "MATCH (n {address: '"+p.getAddress()+"'})-[:" + relType.name() + "]->()" +
-                    " RETURN count(*) as total";
-            Result r = db.getGraphDb().execute(cql);
-            if (r.hasNext()) {
-                Map<String,Object> row = r.next();
-                for (Map.Entry<String,Object> column : row.entrySet()) {
-                    count = (long)column.getValue();
+    public PeerPage getPeers(NetworkPeer fromPeer, P2PRelationship.RelType relType, int pageSize, String continuation) {
+        List<NetworkPeer> peers = new ArrayList<>(pageSize);
+        Map<String,Object> params = new HashMap<>();
+        params.put("after", PeerPage.keyOf(continuation));
+        params.put("limit", pageSize + 1);
+        String cql = peersMatch(fromPeer, relType, params) +
+                " WHERE p.address > $after" +
+                " RETURN p ORDER BY p.address LIMIT $limit";
+        boolean more = false;
+        try(Transaction tx = db.getGraphDb().beginTx()){
+            Result r = db.getGraphDb().execute(cql, params);
+            while (r.hasNext()) {
+                Node n = (Node)r.next().get("p");
+                if(peers.size() == pageSize) {
+                    more = true;
                     break;
                 }
+                peers.add(toPeer(n));
             }
+            r.close();
             tx.success();
-            LOG.info(count + " peers for peer: "+p.getAddress());
         } catch(Exception e) {
             LOG.warning(e.getLocalizedMessage());
         }
-        return count;
+        String next = more ? PeerPage.continuationAfter(peers.get(peers.size()-1).getAddress()) : null;
+        return new PeerPage(peers, next);
     }
 
-    public boolean isLocalReady() {
-        boolean ready = getLocalPeer()!=null && getLocalPeer().getAddress()!=null;
-        if(ready) {
-            LOG.info("Local is ready: "+getLocalPeer().getAddress());
-        } else {
-            LOG.info("Local is not ready.");
+    private String peersMatch(NetworkPeer fromPeer, P2PRelationship.RelType relType, Map<String,Object> params) {
+        if(fromPeer == null) {
+            return "MATCH (p:"+PEER_LABEL.name()+")";
         }
-        return ready;
+        params.put("from", fromPeer.getAddress());
+        return "MATCH (f:"+PEER_LABEL.name()+" {address: $from})-[:"+relType.name()+"]->(p:"+PEER_LABEL.name()+")";
     }
 
-    public boolean isRemoteReady(NetworkPeer r) {
-        boolean ready = r != null && r.getAddress()!=null;
-        if(ready) {
-            LOG.info("Remote is ready: "+r.getAddress());
-        } else {
-            LOG.info("Remote is not ready.");
+    /**
+     * Match of the relationship r between the peers at $start and $end by address through the address index.
+     */
+    private String relationshipMatch(RelationshipType relType) {
+        return "MATCH (n:"+PEER_LABEL.name()+" {address: $start})-[r:"+relType.name()+"]->(e:"+PEER_LABEL.name()+" {address: $end})";
+    }
+
+    private Map<String,Object> relationshipParams(NetworkPeer startPeer, NetworkPeer endPeer) {
+        Map<String,Object> params = new HashMap<>();
+        params.put("start", startPeer.getAddress());
+        params.put("end", endPeer.getAddress());
+        return params;
+    }
+
+    @Override
+    public NetworkPeer getRandomPeer(NetworkPeer p) {
+        LOG.info("Get Random Peer...");
+        NetworkPeer peer = findPeerByAddress(relIndex.random(p.getAddress(), P2PRelationship.RelType.Known));
+        if(peer != null) {
+            LOG.info("Random peer selected: "+peer+" of peer: "+p);
         }
-        return ready;
+        return peer;
     }
 
-    public boolean isRemoteLocal(NetworkPeer r) {
-        boolean remoteIsLocal = r != null
-                && r.getAddress()!=null
-                && getLocalPeer()!=null
-                && getLocalPeer().getAddress()!=null
-                && r.getAddress().equals(getLocalPeer().getAddress());
-        if(remoteIsLocal) {
-            LOG.info("Remote Peer is actually the Local Peer.");
-        } else {
-            LOG.info("Remote Peer is not the Local Peer.");
+    @Override
+    public List<NetworkPeer> getRandomPeers(NetworkPeer p, P2PRelationship.RelType relType, int k) {
+        LOG.info("Get "+k+" Random Peers...");
+        List<NetworkPeer> peers = new ArrayList<>();
+        for(String address : relIndex.sample(p.getAddress(), relType, k)) {
+            NetworkPeer peer = findPeerByAddress(address);
+            if(peer != null) {
+                peers.add(peer);
+            }
         }
-        return remoteIsLocal;
+        return peers;
+    }
+
+    /**
+     * Select a random related peer in proportion to the supplied weight of its address.
+     * @param weight weight of each peer's address within [0,1]
+     */
+    public NetworkPeer getWeightedRandomPeer(NetworkPeer p, P2PRelationship.RelType relType, ToDoubleFunction<String> weight) {
+        return findPeerByAddress(relIndex.randomWeighted(p.getAddress(), relType, weight));
+    }
+
+    @Override
+    public Long totalPeers(NetworkPeer p, P2PRelationship.RelType relType) {
+        long count = counters.get(p.getAddress(), relType);
+        LOG.info(count + " peers for peer: "+p.getAddress());
+        return count;
     }
 
     public NetworkPeer findPeerByAddress(String address) {
@@ -284,7 +351,9 @@ public class GraphPeerManager extends BasePeerManager {
         if(address!=null) {
             try (Transaction tx = db.getGraphDb().beginTx()) {
                 Node n = db.getGraphDb().findNode(PEER_LABEL, "address", address);
-                p = toPeer(n);
+                if(n!=null) {
+                    p = toPeer(n);
+                }
                 tx.success();
             } catch (Exception e) {
                 LOG.warning(e.getLocalizedMessage());
@@ -309,29 +378,56 @@ public class GraphPeerManager extends BasePeerManager {
         return p;
     }
 
+    /**
+     * Find a peer by its address on any network.
+     * Answered from the address index with recently confirmed misses
+     * cached so repeated lookups of unknown addresses never reach the graph.
+     */
     public NetworkPeer findPeerByAddressAllNetworks(String address) {
+        if(address==null) {
+            return null;
+        }
+        Long id = addressIndex.get(address);
+        if(id==null && addressIndex.isKnownMiss(address)) {
+            return null;
+        }
         NetworkPeer p = null;
-        if(address!=null) {
-            p = findPeerByAddress(address);
-            if(p!=null) {
-                return p;
-            }
-            for (NetworkPeer.Network network : NetworkPeer.Network.values()) {
-                try (Transaction tx = db.getGraphDb().beginTx()) {
-                    Node n = db.getGraphDb().findNode(PEER_LABEL, network.name() + "Address", address);
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            Node n = null;
+            if(id!=null) {
+                try {
+                    n = db.getGraphDb().getNodeById(id);
+                } catch (NotFoundException e) {
+                    n = null;
+                }
+                if(n==null || !hasAddress(n, address)) {
+                    // Node removed or its id reused
+                    LOG.info("Indexed node for address no longer in graph: "+address);
+                    addressIndex.remove(address);
+                    n = null;
+                }
+            } else {
+                // Not indexed; confirm with graph before caching as a miss
+                for(String addressProperty : ADDRESS_PROPERTIES) {
+                    n = db.getGraphDb().findNode(PEER_LABEL, addressProperty, address);
                     if(n!=null) {
-                        p = toPeer(n);
+                        indexAddresses(n);
+                        break;
                     }
-                    tx.success();
-                } catch (Exception e) {
-                    LOG.warning(e.getLocalizedMessage());
-                }
-                if(p!=null) {
-                    return p;
                 }
             }
+            if(n!=null) {
+                p = toPeer(n);
+            }
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning(e.getLocalizedMessage());
+            return null;
         }
-        return null;
+        if(p==null) {
+            addressIndex.recordMiss(address);
+        }
+        return p;
     }
 
     public boolean isKnown(String address) {
@@ -340,6 +436,153 @@ public class GraphPeerManager extends BasePeerManager {
         return isKnown;
     }
 
+    /**
+     * Load the address index from all peers in the graph.
+     */
+    private void loadAddressIndex() {
+        LOG.info("Loading address index...");
+        addressIndex.clear();
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            ResourceIterator<Node> i = db.getGraphDb().findNodes(PEER_LABEL);
+            while(i.hasNext()) {
+                indexAddresses(i.next());
+            }
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning(e.getLocalizedMessage());
+        }
+        LOG.info("Address index loaded with "+addressIndex.size()+" addresses.");
+    }
+
+    private boolean hasAddress(Node n, String address) {
+        for(String addressProperty : ADDRESS_PROPERTIES) {
+            if(address.equals(n.getProperty(addressProperty, null))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void indexAddresses(Node n) {
+        for(String addressProperty : ADDRESS_PROPERTIES) {
+            Object address = n.getProperty(addressProperty, null);
+            if(address instanceof String) {
+                addressIndex.put((String)address, n.getId());
+            }
+        }
+    }
+
+    /**
+     * Load the relationship index from all P2P relationships in the graph.
+     */
+    private void loadRelationshipIndex() {
+        LOG.info("Loading relationship index...");
+        relIndex.clear();
+        router.clear();
+        if(scanRelationships(relIndex, router)) {
+            LOG.info("Relationship index loaded.");
+        }
+    }
+
+    /**
+     * Open the peer counter file, rebuilding it from the relationship index
+     * if it was not closed cleanly or disagrees with the graph.
+     */
+    private boolean loadPeerCounters() {
+        boolean clean;
+        try {
+            clean = counters.open(SensorsConfig.MaxPT);
+        } catch (IOException e) {
+            LOG.warning("Unable to open peer counters: "+e.getLocalizedMessage());
+            return false;
+        }
+        boolean consistent = clean;
+        for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+            if(!consistent) break;
+            long indexed = 0;
+            for(String start : relIndex.startAddresses()) {
+                int count = relIndex.count(start, relType);
+                indexed += count;
+                if(counters.get(start, relType) != count) {
+                    consistent = false;
+                    break;
+                }
+            }
+            consistent &= counters.total(relType) == indexed;
+        }
+        if(!consistent) {
+            LOG.info("Peer counters inconsistent with graph; rebuilding...");
+            counters.clear();
+            for(String start : relIndex.startAddresses()) {
+                for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+                    counters.set(start, relType, relIndex.count(start, relType));
+                }
+            }
+            LOG.info("Peer counters rebuilt.");
+        }
+        return true;
+    }
+
+    /**
+     * Compare the relationship index with the graph.
+     * @return true if every P2P relationship in the graph is in the index and vice versa
+     */
+    public boolean verifyRelationshipIndex() {
+        LOG.info("Verifying relationship index against graph...");
+        RelationshipIndex graphIndex = new RelationshipIndex();
+        if(!scanRelationships(graphIndex, null)) {
+            return false;
+        }
+        int mismatches = countMissing(graphIndex, relIndex, "Relationship missing from index: ")
+                + countMissing(relIndex, graphIndex, "Relationship in index not in graph: ");
+        LOG.info("Relationship index verified with "+mismatches+" mismatches.");
+        return mismatches == 0;
+    }
+
+    private int countMissing(RelationshipIndex source, RelationshipIndex target, String message) {
+        int missing = 0;
+        for(String start : source.startAddresses()) {
+            for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+                for(String end : source.related(start, relType)) {
+                    if(!target.contains(start, relType, end)) {
+                        LOG.warning(message+start+"-["+relType.name()+"]->"+end);
+                        missing++;
+                    }
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @param router also loaded with Known relationship latencies if supplied
+     */
+    private boolean scanRelationships(RelationshipIndex index, LatencyRouter router) {
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            ResourceIterator<Node> i = db.getGraphDb().findNodes(PEER_LABEL);
+            while(i.hasNext()) {
+                Node n = i.next();
+                Object start = n.getProperty("address", null);
+                if(start == null) continue;
+                for(Relationship r : n.getRelationships(Direction.OUTGOING)) {
+                    P2PRelationship.RelType relType = RelationshipIndex.relType(r.getType().name());
+                    Object end = r.getEndNode().getProperty("address", null);
+                    if(relType != null && end != null) {
+                        index.add((String)start, relType, (String)end);
+                        if(router != null && relType == P2PRelationship.RelType.Known) {
+                            router.setEdge((String)start, (String)end, (Long)r.getProperty("avgAckLatencyMS", 0L));
+                        }
+                    }
+                }
+            }
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning(e.getLocalizedMessage());
+            return false;
+        }
+        return true;
+    }
+
     public boolean isRelated(NetworkPeer peer, P2PRelationship.RelType relType) {
         boolean isRelated = hasRelationship(getLocalPeer(), peer, relType);
         LOG.info("Are Peers Related? :\n\tLocal Peer Address: "+getLocalPeer().getAddress()+"\n\tRemote Peer Address :"+peer.getAddress()+"\n\t is related: "+isRelated);
@@ -361,51 +604,42 @@ public class GraphPeerManager extends BasePeerManager {
             LOG.info("Both peers are the same, skipping.");
             return null;
         }
+        boolean localKnown = relType == P2PRelationship.RelType.Known
+                && leftPeer.getAddress().equals(getLocalPeer().getAddress());
+        ColdPeers.ColdPeer cold = null;
+        if(localKnown && !relIndex.contains(leftPeer.getAddress(), relType, rightPeer.getAddress())) {
+            // Taken first so that making room can not drop it from the cold tier
+            cold = coldPeers.take(rightPeer.getAddress());
+            makeRoom(1);
+        }
         P2PRelationship rt = null;
         try (Transaction tx = db.getGraphDb().beginTx()) {
             Node lpn = db.getGraphDb().findNode(PEER_LABEL, "address", leftPeer.getAddress());
             Node rpn = db.getGraphDb().findNode(PEER_LABEL, "address", rightPeer.getAddress());
-            Iterator<Relationship> i = lpn.getRelationships(relType, Direction.OUTGOING).iterator();
-            while(i.hasNext()) {
-                Relationship r = i.next();
-                if(r.getNodes()[1].equals(rpn)) {
-                    // load
-                    rt = initP2PRel(r);
-                    LOG.info("Found P2P Relationship; no need to create.");
-                    break;
-                }
-            }
-            if(rt==null) {
+            Relationship existing = findRelationship(lpn, rpn, relType);
+            if(existing!=null) {
+                // load
+                rt = initP2PRel(existing);
+                LOG.info("Found P2P Relationship; no need to create.");
+            } else {
                 // create
-                Relationship r = lpn.createRelationshipTo(rpn, relType);
+                Relationship r = createRelationship(lpn, rpn, relType);
+                restoreCold(r, cold, rightPeer.getAddress());
                 rt = initP2PRel(r);
                 LOG.info(rightPeer+" is now a "+relType.name()+" peer of "+leftPeer);
             }
             tx.success();
         } catch(Exception e) {
             LOG.warning(e.getLocalizedMessage());
+            return null;
         }
+        indexRelationship(leftPeer.getAddress(), relType, rightPeer.getAddress());
         return rt;
     }
 
     public long countByRelType(NetworkPeer p, P2PRelationship.RelType relType) {
-        long count = -1;
-        try (Transaction tx = db.getGraphDb().beginTx()) {
-            String cql = "MATCH (n {address: '"+p.getAddress()+"'})-[:" + relType.name() + "]->()" +
-                    " RETURN count(*) as total";
-            Result r = db.getGraphDb().execute(cql);
-            if (r.hasNext()) {
-                Map<String,Object> row = r.next();
-                for (Map.Entry<String,Object> column : row.entrySet()) {
-                    count = (long)column.getValue();
-                    break;
-                }
-            }
-            tx.success();
-            LOG.info(count+" "+relType.name());
-        } catch(Exception e) {
-            LOG.warning(e.getLocalizedMessage());
-        }
+        long count = counters.get(p.getAddress(), relType);
+        LOG.info(count+" "+relType.name());
         return count;
     }
 
@@ -415,79 +649,93 @@ public class GraphPeerManager extends BasePeerManager {
      */
     public boolean removeRelationship(NetworkPeer startPeer, NetworkPeer endPeer, P2PRelationship.RelType relType) {
         try (Transaction tx = db.getGraphDb().beginTx()) {
-            String cql = "MATCH (n {address: '"+startPeer.getAddress()+"'})-[r:" + relType.name() + "]->( e {address: '"+endPeer.getAddress()+"'})" +
-                    " DELETE r;";
-            db.getGraphDb().execute(cql);
+            String cql = relationshipMatch(relType) + " DELETE r;";
+            db.getGraphDb().execute(cql, relationshipParams(startPeer, endPeer));
             tx.success();
             LOG.info(relType.name() + " relationship of "+endPeer+" removed from "+startPeer);
         } catch(Exception e) {
             LOG.warning(e.getLocalizedMessage());
             return false;
         }
+        unindexRelationship(startPeer.getAddress(), relType, endPeer.getAddress());
         return true;
     }
 
-    public List<NetworkPeer> getPeersByIndexRange(NetworkPeer lp, long startIndex, long limit) {
-        LOG.info("Looking up peers starting at index["+startIndex+"] and limited to "+limit+" peers....");
-        List<NetworkPeer> peers = new ArrayList<>();
+    /**
+     * Upserts the remote peer and the peers it knows in a single transaction,
+     * relating all of them as Known to the local peer and the supplied peers as Known to the remote peer.
+     */
+    @Override
+    public Boolean savePeers(NetworkPeer remotePeer, List<NetworkPeer> peers) {
+        if(!isRemoteReady(remotePeer) || isRemoteLocal(remotePeer)) {
+            return false;
+        }
+        String localAddress = getLocalPeer().getAddress();
+        List<NetworkPeer> toRelate = new ArrayList<>(peers.size());
+        boolean remoteNew = localAddress != null && !relIndex.contains(localAddress, P2PRelationship.RelType.Known, remotePeer.getAddress());
+        Set<String> listedNew = new LinkedHashSet<>();
+        for(NetworkPeer p : peers) {
+            if(p.getAddress()==null || p.getAddress().isEmpty() || p.getAddress().equals("null")
+                    || p.getAddress().equals(localAddress)
+                    || p.getAddress().equals(remotePeer.getAddress())) {
+                continue;
+            }
+            toRelate.add(p);
+            if(localAddress != null && !relIndex.contains(localAddress, P2PRelationship.RelType.Known, p.getAddress())) {
+                listedNew.add(p.getAddress());
+            }
+        }
+        int room = roomForListed(remoteNew ? 1 : 0, listedNew.size());
+        // Listed peers beyond the room made are only related as Known to the remote peer
+        Set<String> newlyKnown = new HashSet<>();
+        if(remoteNew) newlyKnown.add(remotePeer.getAddress());
+        for(String address : listedNew) {
+            if(room-- <= 0) break;
+            newlyKnown.add(address);
+        }
+        // Taken first so that making room can not drop them from the cold tier
+        Map<String,ColdPeers.ColdPeer> cold = new HashMap<>();
+        for(String address : newlyKnown) {
+            ColdPeers.ColdPeer c = coldPeers.take(address);
+            if(c != null) cold.put(address, c);
+        }
+        makeRoom(newlyKnown.size());
+        List<String[]> known = new ArrayList<>();
         try (Transaction tx = db.getGraphDb().beginTx()) {
-            String cql = "START rp=node(*) MATCH (lp:"+PEER_LABEL+" {address: '"+lp.getAddress()+"'})->(rp:"+PEER_LABEL+")" +
-                    " RETURN rp" +
-                    " SKIP " + startIndex +
-                    " LIMIT " + limit +";";
-            Result r = db.getGraphDb().execute(cql);
-            while (r.hasNext()) {
-                peers.add(toPeer((Node)r.next().get("rp")));
+            Node lpn = localAddress == null ? null : db.getGraphDb().findNode(PEER_LABEL, "address", localAddress);
+            Node rpn = mergePeerNode(remotePeer);
+            if(lpn != null) {
+                mergeKnown(lpn, rpn, cold.get(remotePeer.getAddress()), remotePeer.getAddress());
+                known.add(new String[]{localAddress, remotePeer.getAddress()});
+            }
+            for(NetworkPeer p : toRelate) {
+                Node pn = mergePeerNode(p);
+                if(lpn != null && (newlyKnown.contains(p.getAddress()) || !listedNew.contains(p.getAddress()))) {
+                    mergeKnown(lpn, pn, cold.get(p.getAddress()), p.getAddress());
+                    known.add(new String[]{localAddress, p.getAddress()});
+                }
+                mergeRelationship(rpn, pn, P2PRelationship.RelType.Known);
+                known.add(new String[]{remotePeer.getAddress(), p.getAddress()});
             }
             tx.success();
-        } catch(Exception e) {
+        } catch (Exception e) {
             LOG.warning(e.getLocalizedMessage());
+            return false;
         }
-        return peers;
-    }
-
-    @Override
-    public void reliablesFromRemotePeer(NetworkPeer remotePeer, List<NetworkPeer> remoteKnown) {
-        LOG.info("Number of known by remote peer sent: "+remoteKnown.size());
-        int saved = 0;
-        LOG.info("Saving Remote Peer...");
-        if(savePeer(remotePeer, true)) {
-            LOG.info("Remote Peer saved.");
-            relatePeers(getLocalPeer(), remotePeer, P2PRelationship.RelType.Known);
-            LOG.info("Remote Peer related as known to local peer.");
-            long numberKnown = totalPeers(getLocalPeer(), P2PRelationship.RelType.Known);
-            NetworkPeer remoteRelP;
-            for (NetworkPeer known : remoteKnown) {
-                if (numberKnown + saved > SensorsConfig.MaxPT)
-                    break;
-                LOG.info("Saving Remote Known...");
-                savePeer(known, true);
-                relatePeers(getLocalPeer(), known, P2PRelationship.RelType.Known);
-                LOG.info("Remote Peer saved and related as Known to local peer.");
-                relatePeers(remotePeer, known, P2PRelationship.RelType.Known);
-                LOG.info("Remote Known Peer related as Known to Remote Peer.");
-                if (++saved >= SensorsConfig.MaxPS) {
-                    LOG.info("No longer taking reliables from this peer. Max reliables to receive reached: " + SensorsConfig.MaxPS);
-                    break; // Ensure we do not update beyond the max sent to help fight a form of DDOS
-                }
-            }
+        for(String[] k : known) {
+            indexRelationship(k[0], P2PRelationship.RelType.Known, k[1]);
         }
+        return true;
     }
 
     @Override
-    public List<NetworkPeer> getReliablesToShare(NetworkPeer p) {
+    public List<NetworkPeer> getReliablesToShare(NetworkPeer p, NetworkPeer toPeer) {
         List<NetworkPeer> peers = new ArrayList<>();
-        try (Transaction tx = db.getGraphDb().beginTx()) {
-            String cql = "MATCH (n {address: '"+p.getAddress()+"'})-[:" + P2PRelationship.RelType.Known.name() + "]->(x)" +
-                    " RETURN x" +
-                    " LIMIT "+ SensorsConfig.MaxPS+";";
-            Result result = db.getGraphDb().execute(cql);
-            while (result.hasNext()) {
-                peers.add(toPeer((Node)result.next().get("x")));
+        for(String address : reliablesToShare(p.getAddress(), toPeer == null ? null : toPeer.getAddress())) {
+            NetworkPeer peer = findPeerByAddress(address);
+            if(peer != null) {
+                peers.add(peer);
             }
-            tx.success();
-        } catch(Exception e) {
-            LOG.warning(e.getLocalizedMessage());
         }
         return peers;
     }
@@ -504,101 +752,430 @@ public class GraphPeerManager extends BasePeerManager {
      * @param timeAcknowledged
      */
     public Boolean savePeerStatusTimes(NetworkPeer startPeer, NetworkPeer endPeer, Long timeSent, Long timeAcknowledged) {
-        boolean addedAsReliable = false;
-        startPeer.setLocal(true); // Start is always local
+        try {
+            return !savePeerStatusTimes(Collections.singletonList(
+                    new AckObservation(startPeer, endPeer, timeSent, timeAcknowledged, null))).isEmpty();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
 
-        boolean isKnown = false;
-        boolean isReliable = false;
-        boolean isSuperReliable = false;
+    /**
+     * Acks and failures of an observation applied to its Known relationship stats in the order observed,
+     * moving the end peer between tiers as they are.
+     */
+    private static class AppliedEvents implements AckObservation.Events {
+        private final P2PRelationship knownRel;
+        private final long lastAckTime;
+        // The first ack of a peer not yet known only relates it as Known
+        private boolean relating;
+        private P2PRelationship.RelType tier;
+        private int acks = 0;
+        private int failures = 0;
+        private boolean failedLast = false;
 
-        long totalAcks = 0;
-        long avgAckLatency = 0;
+        private AppliedEvents(P2PRelationship knownRel, long lastAckTime, boolean relating, P2PRelationship.RelType tier) {
+            this.knownRel = knownRel;
+            this.lastAckTime = lastAckTime;
+            this.relating = relating;
+            this.tier = tier;
+        }
 
-        isKnown = hasRelationship(startPeer, endPeer, P2PRelationship.RelType.Known);
-        if(isKnown) {
-            P2PRelationship knownRel = new P2PRelationship();
-            String cql = "MATCH (n {address: '" + startPeer.getAddress() + "'})-[r:" + P2PRelationship.RelType.Known.name() + "]->(e {address: '" + endPeer.getAddress() + "'})" +
-                    "return r;";
-            try (Transaction tx = db.getGraphDb().beginTx()) {
-                Result result = db.getGraphDb().execute(cql);
-                if (result.hasNext()) {
-                    Relationship r = (Relationship)result.next().get("r");
-                    knownRel.fromMap(r.getAllProperties());
-                }
-                tx.success();
-            } catch (Exception e) {
-                LOG.warning(e.getLocalizedMessage());
+        @Override
+        public void ack(long latencyMS) {
+            if(relating) {
+                relating = false;
+                return;
             }
-            // Update stats
             knownRel.advanceTotalAcks();
-            knownRel.setLastAckTime(timeAcknowledged);
-            knownRel.addAckTimeTracked(timeAcknowledged - timeSent);
-            avgAckLatency = knownRel.getAvgAckLatencyMS();
-            cql = "MATCH (n {address: '" + startPeer.getAddress() + "'})-[r:" + P2PRelationship.RelType.Known.name() + "]->(e {address: '" + endPeer.getAddress() + "'})" +
-                    " SET r.totalAcks = " + knownRel.getTotalAcks() + "," +
-                    " r.lastAckTime = " + knownRel.getLastAckTime() + "," +
-                    " r.avgAckLatencyMS = " + avgAckLatency + "," +
-                    " r.ackTimesTracked = '" + knownRel.getAckTimesTracked() + "';";
-            try (Transaction tx = db.getGraphDb().beginTx()) {
-                db.getGraphDb().execute(cql);
+            knownRel.addAckTimeTracked(latencyMS);
+            knownRel.recordAck(lastAckTime);
+            tier = tier(tier, knownRel.getReliabilityScore());
+            acks++;
+            failedLast = false;
+        }
+
+        @Override
+        public void failure(long timeSent) {
+            // Not yet Known so not recorded
+            if(relating) return;
+            knownRel.recordFailure(System.currentTimeMillis());
+            tier = tier(tier, knownRel.getReliabilityScore());
+            failures++;
+            failedLast = true;
+        }
+    }
+
+    /**
+     * Saves a batch of Peer Request status results.
+     *
+     * The first ack of a peer not yet known only relates it as Known; earlier failures of it are not recorded.
+     * Every pair's Known relationship is created if new, its stats and reliability score read, updated by
+     * each ack and failure in the order observed, and any resulting move between the Known, Reliable,
+     * and SuperReliable tiers written within a single transaction so a retried batch is applied once.
+     *
+     * @return observations whose end peer was promoted from Known to Reliable or above in the order promoted
+     * @throws IllegalStateException if the batch could not be saved, leaving the store as it was
+     */
+    @Override
+    public List<AckObservation> savePeerStatusTimes(List<AckObservation> observations) {
+        List<AckObservation> saving = new ArrayList<>();
+        List<Boolean> relating = new ArrayList<>();
+        Set<String> newlyKnown = new HashSet<>();
+        for(AckObservation o : observations) {
+            NetworkPeer startPeer = o.getFromPeer();
+            NetworkPeer endPeer = o.getToPeer();
+            if(startPeer.getAddress() == null || endPeer.getAddress() == null || startPeer.getAddress().equals(endPeer.getAddress())) {
+                LOG.info("Peers of ack observation without addresses or the same; skipping.");
+                continue;
+            }
+            startPeer.setLocal(true); // Start is always local
+            boolean known = relIndex.contains(startPeer.getAddress(), P2PRelationship.RelType.Known, endPeer.getAddress());
+            if(!known && o.getLatencies().isEmpty()) {
+                continue;
+            }
+            saving.add(o);
+            relating.add(!known && newlyKnown.add(o.getKey()));
+        }
+
+        List<AckObservation> promotedReliable = new ArrayList<>();
+        if(saving.isEmpty()) {
+            return promotedReliable;
+        }
+        // Taken first so that making room can not drop them from the cold tier
+        Map<String,ColdPeers.ColdPeer> cold = new HashMap<>();
+        for(int i = 0; i < saving.size(); i++) {
+            if(!relating.get(i)) continue;
+            ColdPeers.ColdPeer c = coldPeers.take(saving.get(i).getToPeer().getAddress());
+            if(c != null) cold.put(saving.get(i).getKey(), c);
+        }
+        makeRoom(newlyKnown.size());
+        List<AppliedEvents> applied = new ArrayList<>(saving.size());
+        List<Map<P2PRelationship.RelType,Boolean>> changes = new ArrayList<>(saving.size());
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            for(int i = 0; i < saving.size(); i++) {
+                AckObservation o = saving.get(i);
+                NetworkPeer startPeer = o.getFromPeer();
+                NetworkPeer endPeer = o.getToPeer();
+                Node spn = db.getGraphDb().findNode(PEER_LABEL, "address", startPeer.getAddress());
+                Node epn = db.getGraphDb().findNode(PEER_LABEL, "address", endPeer.getAddress());
+                Relationship r = spn == null || epn == null ? null : findRelationship(spn, epn, P2PRelationship.RelType.Known);
+                if(r == null && relating.get(i) && spn != null && epn != null) {
+                    r = createRelationship(spn, epn, P2PRelationship.RelType.Known);
+                    restoreCold(r, cold.get(o.getKey()), endPeer.getAddress());
+                }
+                if(r == null) {
+                    LOG.warning("Known relationship not found in graph: "+startPeer.getAddress()+"->"+endPeer.getAddress());
+                    applied.add(null);
+                    changes.add(null);
+                    continue;
+                }
+                // Update stats
+                P2PRelationship.RelType from = relating.get(i) ? P2PRelationship.RelType.Known
+                        : currentTier(relIndex, startPeer.getAddress(), endPeer.getAddress());
+                AppliedEvents events = new AppliedEvents(initP2PRel(r), o.getLastAckTime(), relating.get(i), from);
+                o.replay(events);
+                if(events.acks > 0) {
+                    events.knownRel.setLastAckTime(o.getLastAckTime());
+                }
+                updateP2PRel(events.knownRel, r);
+                // Update relationship
+                Map<P2PRelationship.RelType,Boolean> c = tierChanges(from, events.tier);
+                changeTier(spn, epn, c);
+                applied.add(events);
+                changes.add(c);
+            }
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning("Unable to save "+saving.size()+" ack observations: "+e.getLocalizedMessage());
+            throw new IllegalStateException(e);
+        }
+
+        for(int i = 0; i < saving.size(); i++) {
+            AppliedEvents events = applied.get(i);
+            if(events == null) continue;
+            NetworkPeer startPeer = saving.get(i).getFromPeer();
+            NetworkPeer endPeer = saving.get(i).getToPeer();
+            if(relating.get(i)) {
+                indexRelationship(startPeer.getAddress(), P2PRelationship.RelType.Known, endPeer.getAddress());
+                LOG.info("New known peer: "+endPeer);
+            }
+            P2PRelationship knownRel = events.knownRel;
+            if(events.acks > 0) {
+                router.updateEdge(startPeer.getAddress(), endPeer.getAddress(), knownRel.getAvgAckLatencyMS());
+            }
+            // Tracked as of the last event observed
+            if(events.failures > 0 && !events.failedLast) {
+                evictionFailed(startPeer.getAddress(), endPeer.getAddress(), knownRel.getReliabilityScore());
+            }
+            if(events.acks > 0) {
+                evictionAcked(startPeer.getAddress(), endPeer.getAddress(), knownRel.getReliabilityScore());
+            }
+            if(events.failedLast) {
+                evictionFailed(startPeer.getAddress(), endPeer.getAddress(), knownRel.getReliabilityScore());
+            }
+            LOG.info("Peer status times: {\n" +
+                    "\tacks received by local peer: "+events.acks+"\n"+
+                    "\trequests not acknowledged: "+events.failures+"\n"+
+                    "\ttotal acks: "+knownRel.getTotalAcks()+"\n"+
+                    "\tavg round trip latency: "+knownRel.getAvgAckLatencyMS()+"ms\n"+
+                    "\tround trip latencies: "+knownRel.getAckLatencies()+"\n"+
+                    "\treliability score: "+knownRel.getReliabilityScore()+"\n} of remote peer "+endPeer+" with start peer "+startPeer);
+            indexTierChanges(startPeer, endPeer, changes.get(i));
+            if(Boolean.TRUE.equals(changes.get(i).get(P2PRelationship.RelType.Reliable))) {
+                promotedReliable.add(saving.get(i));
+            }
+        }
+        return promotedReliable;
+    }
+
+    /**
+     * Record a request from the start peer that the end peer never acknowledged,
+     * demoting the end peer if its reliability score falls far enough.
+     * @return false if the end peer is not Known or the failure could not be saved
+     */
+    @Override
+    public Boolean savePeerStatusFailure(NetworkPeer startPeer, NetworkPeer endPeer, Long timeSent) {
+        if(!relIndex.contains(startPeer.getAddress(), P2PRelationship.RelType.Known, endPeer.getAddress())) {
+            return false;
+        }
+        try {
+            savePeerStatusTimes(Collections.singletonList(AckObservation.failure(startPeer, endPeer, timeSent)));
+        } catch (IllegalStateException e) {
+            return false;
+        }
+        LOG.info("Request to "+endPeer+" sent at "+timeSent+" not acknowledged.");
+        return true;
+    }
+
+    /**
+     * Remove the local peer's P2P relationships to the peer keeping its Known relationship stats in the cold tier.
+     * The peer stays in the graph until dropped from the cold tier.
+     */
+    @Override
+    protected boolean evictPeer(String address) {
+        String localAddress = getLocalPeer().getAddress();
+        Map<String,Object> known = null;
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            Node lpn = db.getGraphDb().findNode(PEER_LABEL, "address", localAddress);
+            Node n = db.getGraphDb().findNode(PEER_LABEL, "address", address);
+            if(lpn != null && n != null) {
+                for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+                    Relationship r = findRelationship(lpn, n, relType);
+                    if(r == null) continue;
+                    if(relType == P2PRelationship.RelType.Known) {
+                        known = toMap(r);
+                    }
+                    r.delete();
+                }
+            }
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning(e.getLocalizedMessage());
+            return false;
+        }
+        for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+            unindexRelationship(localAddress, relType, address);
+        }
+        String dropped = coldPeers.put(address, known);
+        if(dropped != null && !relIndex.contains(localAddress, P2PRelationship.RelType.Known, dropped)) {
+            deletePeer(dropped);
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean saveBan(NetworkPeer peer) {
+        String localAddress = getLocalPeer().getAddress();
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            Node lpn = db.getGraphDb().findNode(PEER_LABEL, "address", localAddress);
+            if(lpn == null) {
+                LOG.warning("Local peer not saved; ban not persisted.");
+                return false;
+            }
+            mergeRelationship(lpn, mergePeerNode(peer), P2PRelationship.RelType.Banned);
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning(e.getLocalizedMessage());
+            return false;
+        }
+        indexRelationship(localAddress, P2PRelationship.RelType.Banned, peer.getAddress());
+        return true;
+    }
+
+    /**
+     * Delete the peer and all of its relationships from the graph.
+     */
+    private void deletePeer(String address) {
+        List<String[]> removed = new ArrayList<>();
+        Set<String> addresses = new HashSet<>();
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            Node n = db.getGraphDb().findNode(PEER_LABEL, "address", address);
+            if(n == null) {
                 tx.success();
-            } catch (Exception e) {
-                LOG.warning(e.getLocalizedMessage());
+                return;
+            }
+            for(Relationship r : n.getRelationships()) {
+                Object start = r.getStartNode().getProperty("address", null);
+                Object end = r.getEndNode().getProperty("address", null);
+                if(start != null && end != null) {
+                    removed.add(new String[]{(String)start, r.getType().name(), (String)end});
+                }
+                r.delete();
+            }
+            for(String addressProperty : ADDRESS_PROPERTIES) {
+                Object a = n.getProperty(addressProperty, null);
+                if(a instanceof String) {
+                    addresses.add((String)a);
+                }
+            }
+            n.delete();
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning(e.getLocalizedMessage());
+            return;
+        }
+        for(String[] r : removed) {
+            P2PRelationship.RelType relType = RelationshipIndex.relType(r[1]);
+            if(relType != null) {
+                unindexRelationship(r[0], relType, r[2]);
             }
-            // Ensure total acks updated and persisted
-            cql = "MATCH (n {address: '" + startPeer.getAddress() + "'})-[r:" + P2PRelationship.RelType.Known.name() + "]->(e {address: '" + endPeer.getAddress() + "'})" +
-                    "return r;";
-            P2PRelationship k = new P2PRelationship();
+        }
+        for(String a : addresses) {
+            addressIndex.remove(a);
+        }
+        router.removePeer(address);
+        LOG.info("Peer removed: "+address);
+    }
+
+    /**
+     * Known relationships created before they were stamped are stamped now so they get a full horizon.
+     */
+    @Override
+    public List<NetworkPeer> prune(long staleBefore, long deadline) {
+        List<NetworkPeer> pruned = new ArrayList<>();
+        String localAddress = getLocalPeer().getAddress();
+        while(System.currentTimeMillis() < deadline) {
+            List<NetworkPeer> stale = new ArrayList<>();
+            String last = null;
+            Map<String,Object> params = new HashMap<>();
+            params.put("after", pruneCursor);
+            params.put("limit", PRUNE_BATCH);
             try (Transaction tx = db.getGraphDb().beginTx()) {
-                Result result = db.getGraphDb().execute(cql);
-                if (result.hasNext()) {
-                    Relationship r = (Relationship)result.next().get("r");
-                    k.fromMap(r.getAllProperties());
-                    totalAcks = k.getTotalAcks();
+                Result r = db.getGraphDb().execute("MATCH (p:"+PEER_LABEL.name()+") WHERE p.address > $after" +
+                        " RETURN p ORDER BY p.address LIMIT $limit", params);
+                while(r.hasNext()) {
+                    Node n = (Node)r.next().get("p");
+                    last = (String)n.getProperty("address");
+                    if(last.equals(localAddress) || banned.contains(last) || coldPeers.contains(last)) continue;
+                    if(lastSeen(n) < staleBefore) {
+                        stale.add(toPeer(n));
+                    }
                 }
+                r.close();
                 tx.success();
             } catch (Exception e) {
                 LOG.warning(e.getLocalizedMessage());
+                break;
+            }
+            for(NetworkPeer p : stale) {
+                deletePeer(p.getAddress());
+            }
+            pruned.addAll(stale);
+            if(last == null) {
+                // Pass complete; start over next time
+                pruneCursor = "";
+                break;
             }
+            pruneCursor = last;
+        }
+        return pruned;
+    }
 
-            // Update relationship
-            isReliable = hasRelationship(startPeer, endPeer, P2PRelationship.RelType.Reliable);
-            if(isReliable) {
-                isSuperReliable = hasRelationship(startPeer, endPeer, P2PRelationship.RelType.SuperReliable);
-                if(!isSuperReliable && knownRel.getTotalAcks() >= SensorsConfig.MinAckSRP) {
-                    relatePeers(startPeer, endPeer, P2PRelationship.RelType.SuperReliable);
-                    LOG.info("Now super reliable peer: "+endPeer);
-                }
-            } else if(knownRel.getTotalAcks() >= SensorsConfig.MinAckRP) {
-                // Reliable relationship
-                relatePeers(startPeer, endPeer, P2PRelationship.RelType.Reliable);
-                addedAsReliable = true;
-                LOG.info("Now reliable peer: "+endPeer);
+    /**
+     * @return latest time the peer was acked or related as Known by any peer
+     */
+    private long lastSeen(Node n) {
+        long seen = 0L;
+        for(Relationship r : n.getRelationships(P2PRelationship.RelType.Known, Direction.INCOMING)) {
+            Object created = r.getProperty(CREATED, null);
+            if(created == null) {
+                created = System.currentTimeMillis();
+                r.setProperty(CREATED, created);
             }
+            seen = Math.max(seen, Math.max((Long)created, (Long)r.getProperty("lastAckTime", 0L)));
+        }
+        return seen;
+    }
 
-            LOG.info("Peer status times: {\n" +
-                    "\tack received by local peer in: "+(timeAcknowledged-timeSent)+"ms\n"+
-                    "\ttotal acks: "+totalAcks+"\n"+
-                    "\tavg round trip latency: "+avgAckLatency+"ms\n} of remote peer "+endPeer+" with start peer "+startPeer);
+    /**
+     * Bring back the Known relationship stats of a cold peer on its new Known relationship.
+     */
+    private void restoreCold(Relationship r, ColdPeers.ColdPeer cold, String address) {
+        if(cold != null && cold.known != null) {
+            for(Map.Entry<String,Object> e : cold.known.entrySet()) {
+                r.setProperty(e.getKey(), e.getValue());
+            }
+            // Known again as of now
+            r.setProperty(CREATED, System.currentTimeMillis());
+            LOG.info("Cold peer is Known again with its history: "+address);
+        }
+    }
 
-        } else if(totalPeers(startPeer, P2PRelationship.RelType.Known) <= SensorsConfig.MaxPT) {
-            relatePeers(startPeer, endPeer, P2PRelationship.RelType.Known);
-            LOG.info("New known peer: "+endPeer);
-        } else {
-            LOG.info("Max peers tracked: "+ SensorsConfig.MaxPT);
+    private void mergeKnown(Node lpn, Node pn, ColdPeers.ColdPeer cold, String address) {
+        if(findRelationship(lpn, pn, P2PRelationship.RelType.Known) == null) {
+            restoreCold(createRelationship(lpn, pn, P2PRelationship.RelType.Known), cold, address);
+        }
+    }
+
+    private void changeTier(Node spn, Node epn, Map<P2PRelationship.RelType,Boolean> changes) {
+        for(Map.Entry<P2PRelationship.RelType,Boolean> change : changes.entrySet()) {
+            if(change.getValue()) {
+                spn.createRelationshipTo(epn, change.getKey());
+            } else {
+                Relationship r = findRelationship(spn, epn, change.getKey());
+                if(r != null) {
+                    r.delete();
+                }
+            }
+        }
+    }
+
+    private void indexTierChanges(NetworkPeer startPeer, NetworkPeer endPeer, Map<P2PRelationship.RelType,Boolean> changes) {
+        for(Map.Entry<P2PRelationship.RelType,Boolean> change : changes.entrySet()) {
+            if(change.getValue()) {
+                indexRelationship(startPeer.getAddress(), change.getKey(), endPeer.getAddress());
+                LOG.info("Now "+change.getKey().name()+" peer: "+endPeer);
+            } else {
+                unindexRelationship(startPeer.getAddress(), change.getKey(), endPeer.getAddress());
+                LOG.info("No longer "+change.getKey().name()+" peer: "+endPeer);
+            }
         }
-        return addedAsReliable;
     }
 
     public boolean hasRelationship(NetworkPeer startPeer, NetworkPeer endPeer, RelationshipType relType) {
+        P2PRelationship.RelType p2pRelType = RelationshipIndex.relType(relType.name());
+        if(p2pRelType == null) {
+            // Not a P2P relationship so not indexed
+            return hasRelationshipInGraph(startPeer, endPeer, relType);
+        }
+        boolean hasRel = relIndex.contains(startPeer.getAddress(), p2pRelType, endPeer.getAddress());
+        if(verifyRelIndex && hasRel != hasRelationshipInGraph(startPeer, endPeer, relType)) {
+            LOG.warning("Relationship index inconsistent with graph for "+startPeer.getAddress()+"-["+relType.name()+"]->"+endPeer.getAddress()+"; index has relationship: "+hasRel);
+        }
+        if(hasRel) {
+            LOG.info(endPeer + " is "+relType.name()+" peer to " + startPeer);
+        }
+        return hasRel;
+    }
+
+    private boolean hasRelationshipInGraph(NetworkPeer startPeer, NetworkPeer endPeer, RelationshipType relType) {
         boolean hasRel = false;
-        String cql = "MATCH (n {address: '" + startPeer.getAddress() + "'})-[r:" + relType.name() + "]->(e {address: '" + endPeer.getAddress() + "'})" +
-                " RETURN r;";
+        String cql = relationshipMatch(relType) + " RETURN r;";
         try (Transaction tx = db.getGraphDb().beginTx()) {
-            Result result = db.getGraphDb().execute(cql);
+            Result result = db.getGraphDb().execute(cql, relationshipParams(startPeer, endPeer));
             if (result.hasNext()) {
                 hasRel = true;
-                LOG.info(endPeer + " is "+relType.name()+" peer to " + startPeer);
             }
             tx.success();
         } catch (Exception e) {
@@ -607,6 +1184,124 @@ public class GraphPeerManager extends BasePeerManager {
         return hasRel;
     }
 
+    /**
+     * Write a snapshot of all peers, their P2P relationships, and Known relationship stats.
+     */
+    public boolean snapshot() {
+        if(snapshotFile == null) return false;
+        PeerSnapshot snapshot;
+        Map<Long,Integer> positions = new HashMap<>();
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            // Committed with the reads so the store is never of an earlier generation than its snapshot
+            Node marker = snapshotMarker();
+            long generation = (Long)marker.getProperty(SNAPSHOT_GENERATION, 0L) + 1;
+            marker.setProperty(SNAPSHOT_GENERATION, generation);
+            snapshot = new PeerSnapshot(generation);
+            ResourceIterator<Node> i = db.getGraphDb().findNodes(PEER_LABEL);
+            while(i.hasNext()) {
+                Node n = i.next();
+                positions.put(n.getId(), snapshot.addPeer(toMap(n)));
+            }
+            for(Map.Entry<Long,Integer> e : positions.entrySet()) {
+                for(Relationship r : db.getGraphDb().getNodeById(e.getKey()).getRelationships(Direction.OUTGOING)) {
+                    P2PRelationship.RelType relType = RelationshipIndex.relType(r.getType().name());
+                    Integer end = positions.get(r.getEndNode().getId());
+                    if(relType != null && end != null) {
+                        snapshot.addRelationship(e.getValue(), relType, end,
+                                relType == P2PRelationship.RelType.Known ? toMap(r) : null);
+                    }
+                }
+            }
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning(e.getLocalizedMessage());
+            return false;
+        }
+        try {
+            snapshot.write(snapshotFile);
+        } catch (IOException e) {
+            LOG.warning("Unable to write peer snapshot: "+e.getLocalizedMessage());
+            return false;
+        }
+        LOG.info("Snapshot of "+snapshot.getPeers().size()+" peers and "+snapshot.getRelationships().size()+" relationships written.");
+        return true;
+    }
+
+    /**
+     * Must be called within a transaction.
+     * @return the node holding the store's snapshot generation, created if the store has none
+     */
+    private Node snapshotMarker() {
+        ResourceIterator<Node> i = db.getGraphDb().findNodes(SNAPSHOT_LABEL);
+        return i.hasNext() ? i.next() : db.getGraphDb().createNode(SNAPSHOT_LABEL);
+    }
+
+    /**
+     * Merge the snapshot into the graph if it was taken at a later generation than the store's,
+     * always the case when the store was cleaned or lost since.
+     * A store written to after its last snapshot shares that snapshot's generation so is left as is.
+     * Ack stats are only taken from the snapshot when it has seen more acks.
+     */
+    private void restoreSnapshot() {
+        PeerSnapshot snapshot;
+        try {
+            snapshot = PeerSnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            LOG.warning("Unable to read peer snapshot: "+e.getLocalizedMessage());
+            return;
+        }
+        if(snapshot == null) {
+            return;
+        }
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            Node marker = snapshotMarker();
+            if(snapshot.getGeneration() <= (Long)marker.getProperty(SNAPSHOT_GENERATION, 0L)) {
+                return;
+            }
+            LOG.info("Restoring "+snapshot.getPeers().size()+" peers from snapshot...");
+            List<Node> nodes = new ArrayList<>(snapshot.getPeers().size());
+            for(Map<String,Object> m : snapshot.getPeers()) {
+                Object address = m.get("address");
+                Node n = address == null ? null : db.getGraphDb().findNode(PEER_LABEL, "address", address);
+                if(n == null && address != null) {
+                    n = db.getGraphDb().createNode(PEER_LABEL);
+                }
+                if(n != null) {
+                    GraphUtil.updateProperties(n, m);
+                }
+                nodes.add(n);
+            }
+            for(PeerSnapshot.Relationship sr : snapshot.getRelationships()) {
+                Node start = nodes.get(sr.start);
+                Node end = nodes.get(sr.end);
+                if(start == null || end == null) continue;
+                Relationship r = mergeRelationship(start, end, sr.relType);
+                if(sr.stats != null
+                        && (Long)sr.stats.getOrDefault("totalAcks", 0L) > (Long)r.getProperty("totalAcks", 0L)) {
+                    for(Map.Entry<String,Object> e : sr.stats.entrySet()) {
+                        r.setProperty(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            // Restored only once
+            marker.setProperty(SNAPSHOT_GENERATION, snapshot.getGeneration());
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning("Unable to restore peer snapshot: "+e.getLocalizedMessage());
+            return;
+        }
+        LOG.info("Peers restored from snapshot.");
+    }
+
+    @Override
+    public Boolean shutdown() {
+        snapshot();
+        if(counters != null) {
+            counters.close();
+        }
+        return true;
+    }
+
     @Override
     public void report(NetworkPeer networkPeer) {
         LOG.info("NetworkPeer reported: "+networkPeer);
@@ -619,6 +1314,43 @@ public class GraphPeerManager extends BasePeerManager {
         }
     }
 
+    @Override
+    public void reportPruned(List<NetworkPeer> networkPeers) {
+        prunedTotal += networkPeers.size();
+        StringBuilder sb = new StringBuilder();
+        for(NetworkPeer networkPeer : networkPeers) {
+            sb.append("\n\t").append(networkPeer.getAddress());
+        }
+        LOG.info("Pruned "+networkPeers.size()+" stale peers ("+prunedTotal+" in total):"+sb);
+    }
+
+    @Override
+    public LatencyHistogram getAckLatencies(NetworkPeer fromPeer, NetworkPeer toPeer) {
+        if(!relIndex.contains(fromPeer.getAddress(), P2PRelationship.RelType.Known, toPeer.getAddress())) {
+            return null;
+        }
+        LatencyHistogram h = null;
+        try (Transaction tx = db.getGraphDb().beginTx()) {
+            Node spn = db.getGraphDb().findNode(PEER_LABEL, "address", fromPeer.getAddress());
+            Node epn = db.getGraphDb().findNode(PEER_LABEL, "address", toPeer.getAddress());
+            Relationship r = spn == null || epn == null ? null : findRelationship(spn, epn, P2PRelationship.RelType.Known);
+            if(r != null) {
+                h = initP2PRel(r).getAckLatencies();
+            }
+            tx.success();
+        } catch (Exception e) {
+            LOG.warning(e.getLocalizedMessage());
+        }
+        return h;
+    }
+
+    /**
+     * Graph the peers are stored in, for benchmarks running queries against it directly.
+     */
+    GraphDatabaseService getGraphDb() {
+        return db.getGraphDb();
+    }
+
     private Map<String,Object> toMap(PropertyContainer n) {
         return GraphUtil.getAttributes(n);
     }
@@ -635,8 +1367,9 @@ public class GraphPeerManager extends BasePeerManager {
         return p;
     }
 
-    private void toNode(NetworkPeer p, PropertyContainer n) {
+    private void toNode(NetworkPeer p, Node n) {
         GraphUtil.updateProperties(n, p.toMap());
+        indexAddresses(n);
     }
 
     private P2PRelationship initP2PRel(Relationship r) {
@@ -644,4 +1377,67 @@ public class GraphPeerManager extends BasePeerManager {
         p2PR.fromMap(toMap(r));
         return p2PR;
     }
+
+    private void updateP2PRel(P2PRelationship p2PR, Relationship r) {
+        for(Map.Entry<String,Object> e : p2PR.toMap().entrySet()) {
+            r.setProperty(e.getKey(), e.getValue());
+        }
+    }
+
+    private void indexRelationship(String startAddress, P2PRelationship.RelType relType, String endAddress) {
+        if(relIndex.add(startAddress, relType, endAddress)) {
+            counters.increment(startAddress, relType);
+            knownChanged(startAddress, relType, endAddress, true);
+            if(relType == P2PRelationship.RelType.Known) {
+                router.setEdge(startAddress, endAddress, LatencyRouter.UNMEASURED_LATENCY_MS);
+            }
+        }
+    }
+
+    private void unindexRelationship(String startAddress, P2PRelationship.RelType relType, String endAddress) {
+        if(relIndex.remove(startAddress, relType, endAddress)) {
+            counters.decrement(startAddress, relType);
+            knownChanged(startAddress, relType, endAddress, false);
+            if(relType == P2PRelationship.RelType.Known) {
+                router.removeEdge(startAddress, endAddress);
+            }
+        }
+    }
+
+    private Node mergePeerNode(NetworkPeer p) {
+        Node n = db.getGraphDb().findNode(PEER_LABEL, "address", p.getAddress());
+        if(n == null) {
+            n = db.getGraphDb().createNode(PEER_LABEL);
+        }
+        toNode(p, n);
+        return n;
+    }
+
+    private Relationship mergeRelationship(Node startNode, Node endNode, RelationshipType relType) {
+        Relationship r = findRelationship(startNode, endNode, relType);
+        if(r == null) {
+            r = createRelationship(startNode, endNode, relType);
+        }
+        return r;
+    }
+
+    /**
+     * Known relationships are stamped with when they were created so peers never acked can be pruned.
+     */
+    private Relationship createRelationship(Node startNode, Node endNode, RelationshipType relType) {
+        Relationship r = startNode.createRelationshipTo(endNode, relType);
+        if(relType == P2PRelationship.RelType.Known) {
+            r.setProperty(CREATED, System.currentTimeMillis());
+        }
+        return r;
+    }
+
+    private Relationship findRelationship(Node startNode, Node endNode, RelationshipType relType) {
+        for(Relationship r : startNode.getRelationships(relType, Direction.OUTGOING)) {
+            if(r.getEndNode().equals(endNode)) {
+                return r;
+            }
+        }
+        return null;
+    }
 }
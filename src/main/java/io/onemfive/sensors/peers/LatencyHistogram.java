@@ -0,0 +1,127 @@
+package io.onemfive.sensors.peers;
+
+/**
+ * Log-bucketed histogram of latencies in milliseconds.
+ *
+ * Each power of two is split into SUB_BUCKETS linear buckets so any recorded value
+ * is reported within 1/SUB_BUCKETS (12.5%) of its actual value while the whole
+ * range up to 2^MAX_EXPONENT ms fits in a few hundred counters. Recording is
+ * allocation-free and histograms merge by adding counts.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    // Persisted entries pack the bucket index above the count
+    private static final int COUNT_BITS = 48;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0L;
+    private long max = 0L;
+
+    public void record(long latencyMS) {
+        if(latencyMS < 0) return;
+        counts[bucket(latencyMS)]++;
+        total++;
+        if(latencyMS > max) max = latencyMS;
+    }
+
+    public void merge(LatencyHistogram other) {
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile within (0,100]
+     * @return upper bound of the bucket holding the percentile, capped at the max recorded; 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        if(total == 0) return 0L;
+        long rank = (long)Math.ceil(percentile / 100.0 * total);
+        long seen = 0L;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= Math.max(1, rank)) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getP50() {
+        return getPercentile(50.0);
+    }
+
+    public long getP90() {
+        return getPercentile(90.0);
+    }
+
+    public long getP99() {
+        return getPercentile(99.0);
+    }
+
+    /**
+     * @return non-empty buckets each packed as index and count followed by the max
+     */
+    public long[] toArray() {
+        int used = 0;
+        for(long c : counts) {
+            if(c > 0) used++;
+        }
+        long[] a = new long[used + 1];
+        int j = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            if(counts[i] > 0) a[j++] = ((long)i << COUNT_BITS) | counts[i];
+        }
+        a[j] = max;
+        return a;
+    }
+
+    public static LatencyHistogram fromArray(long[] a) {
+        LatencyHistogram h = new LatencyHistogram();
+        if(a == null || a.length == 0) return h;
+        for(int j = 0; j < a.length - 1; j++) {
+            int i = (int)(a[j] >>> COUNT_BITS);
+            long c = a[j] & ((1L << COUNT_BITS) - 1);
+            if(i < BUCKETS) {
+                h.counts[i] += c;
+                h.total += c;
+            }
+        }
+        h.max = a[a.length - 1];
+        return h;
+    }
+
+    private static int bucket(long v) {
+        if(v < SUB_BUCKETS) return (int)v;
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        if(exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)((v >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int bucket) {
+        if(bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long base = (long)(bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return base + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "{count: "+total+", p50: "+getP50()+"ms, p90: "+getP90()+"ms, p99: "+getP99()+"ms, max: "+max+"ms}";
+    }
+}
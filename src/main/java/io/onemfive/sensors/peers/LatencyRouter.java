@@ -0,0 +1,277 @@
+package io.onemfive.sensors.peers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Maintains the lowest-latency paths from a source peer to every reachable peer
+ * over directed peer-to-peer edges weighted by average ack latency.
+ *
+ * The shortest path tree is kept up to date incrementally as edges change:
+ * a cheaper edge is relaxed outward from its end peer while a more expensive
+ * tree edge only invalidates and rebuilds the subtree hanging off of it.
+ */
+public class LatencyRouter {
+
+    // Weight given to edges whose latency has not yet been measured
+    public static final long UNMEASURED_LATENCY_MS = 10 * 1000L;
+
+    private static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private final Map<String, Map<String, Long>> out = new HashMap<>();
+    private final Map<String, Set<String>> in = new HashMap<>();
+
+    private String source;
+    private final Map<String, Long> dist = new HashMap<>();
+    private final Map<String, String> parent = new HashMap<>();
+    private final Map<String, Set<String>> children = new HashMap<>();
+
+    /**
+     * Set the peer paths are computed from, recomputing all paths if it changed.
+     */
+    public synchronized void setSource(String source) {
+        if(source == null || source.equals(this.source)) return;
+        this.source = source;
+        dist.clear();
+        parent.clear();
+        children.clear();
+        dist.put(source, 0L);
+        relaxFrom(Collections.singleton(source));
+    }
+
+    /**
+     * Add an edge or change its weight.
+     * @param latencyMS edge weight; values less than 1 are treated as unmeasured
+     */
+    public synchronized void setEdge(String from, String to, long latencyMS) {
+        if(from == null || to == null || from.equals(to)) return;
+        long weight = latencyMS > 0 ? latencyMS : UNMEASURED_LATENCY_MS;
+        Long old = out.computeIfAbsent(from, k -> new HashMap<>()).put(to, weight);
+        in.computeIfAbsent(to, k -> new HashSet<>()).add(from);
+        if(source == null || (old != null && old == weight)) return;
+        if(old == null || weight < old) {
+            long d = distance(from);
+            if(d != UNREACHABLE && d + weight < distance(to)) {
+                setParent(to, from, d + weight);
+                relaxFrom(Collections.singleton(to));
+            }
+        } else if(from.equals(parent.get(to))) {
+            rebuildSubtree(to);
+        }
+    }
+
+    /**
+     * Set the weight of an existing edge only; unknown edges are ignored.
+     */
+    public synchronized void updateEdge(String from, String to, long latencyMS) {
+        Map<String, Long> edges = out.get(from);
+        if(edges != null && edges.containsKey(to)) {
+            setEdge(from, to, latencyMS);
+        }
+    }
+
+    public synchronized void removeEdge(String from, String to) {
+        Map<String, Long> edges = out.get(from);
+        if(edges == null || edges.remove(to) == null) return;
+        Set<String> sources = in.get(to);
+        if(sources != null) sources.remove(from);
+        if(source != null && from.equals(parent.get(to))) {
+            rebuildSubtree(to);
+        }
+    }
+
+    /**
+     * Remove a peer and all of its edges.
+     */
+    public synchronized void removePeer(String peer) {
+        Map<String, Long> edges = out.get(peer);
+        for(String to : edges == null ? Collections.<String>emptyList() : new ArrayList<>(edges.keySet())) {
+            removeEdge(peer, to);
+        }
+        Set<String> sources = in.get(peer);
+        for(String from : sources == null ? Collections.<String>emptyList() : new ArrayList<>(sources)) {
+            removeEdge(from, peer);
+        }
+        out.remove(peer);
+        in.remove(peer);
+    }
+
+    /**
+     * @return total latency of the lowest-latency path from the source to the peer or -1 if unreachable
+     */
+    public synchronized long latency(String to) {
+        long d = distance(to);
+        return d == UNREACHABLE ? -1 : d;
+    }
+
+    /**
+     * Lowest-latency path from the source to the supplied peer using no more than maxHops edges.
+     * The maintained shortest path tree answers directly when its path is within the bound;
+     * otherwise a hop-bounded search is run for this request.
+     *
+     * @return peers on the path after the source ending with the supplied peer; empty if unreachable within maxHops
+     */
+    public synchronized List<String> path(String to, int maxHops) {
+        if(source == null || to == null || to.equals(source) || distance(to) == UNREACHABLE) {
+            return Collections.emptyList();
+        }
+        LinkedList<String> path = new LinkedList<>();
+        for(String p = to; p != null && !p.equals(source); p = parent.get(p)) {
+            path.addFirst(p);
+        }
+        if(path.size() <= maxHops) {
+            return path;
+        }
+        return boundedPath(to, maxHops);
+    }
+
+    public synchronized void clear() {
+        out.clear();
+        in.clear();
+        dist.clear();
+        parent.clear();
+        children.clear();
+        if(source != null) dist.put(source, 0L);
+    }
+
+    private long distance(String peer) {
+        Long d = dist.get(peer);
+        return d == null ? UNREACHABLE : d;
+    }
+
+    private void setParent(String peer, String newParent, long d) {
+        String oldParent = parent.put(peer, newParent);
+        if(oldParent != null) {
+            Set<String> siblings = children.get(oldParent);
+            if(siblings != null) siblings.remove(peer);
+        }
+        children.computeIfAbsent(newParent, k -> new HashSet<>()).add(peer);
+        dist.put(peer, d);
+    }
+
+    /**
+     * Dijkstra seeded with peers whose distances just decreased.
+     */
+    private void relaxFrom(Set<String> seeds) {
+        PriorityQueue<Entry> queue = new PriorityQueue<>();
+        for(String seed : seeds) {
+            queue.add(new Entry(seed, distance(seed)));
+        }
+        while(!queue.isEmpty()) {
+            Entry e = queue.poll();
+            if(e.dist != distance(e.peer)) continue; // stale
+            Map<String, Long> edges = out.get(e.peer);
+            if(edges == null) continue;
+            for(Map.Entry<String, Long> edge : edges.entrySet()) {
+                long d = e.dist + edge.getValue();
+                if(d < distance(edge.getKey())) {
+                    setParent(edge.getKey(), e.peer, d);
+                    queue.add(new Entry(edge.getKey(), d));
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidate the subtree rooted at the supplied peer then reattach its peers
+     * through their best edges from outside of it.
+     */
+    private void rebuildSubtree(String root) {
+        Set<String> subtree = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(root);
+        while(!pending.isEmpty()) {
+            String p = pending.poll();
+            if(!subtree.add(p)) continue;
+            Set<String> c = children.remove(p);
+            if(c != null) pending.addAll(c);
+        }
+        for(String p : subtree) {
+            String oldParent = parent.remove(p);
+            if(oldParent != null && !subtree.contains(oldParent)) {
+                Set<String> siblings = children.get(oldParent);
+                if(siblings != null) siblings.remove(p);
+            }
+            dist.remove(p);
+        }
+        Set<String> seeds = new HashSet<>();
+        for(String p : subtree) {
+            Set<String> sources = in.get(p);
+            if(sources == null) continue;
+            for(String from : sources) {
+                long d = distance(from);
+                if(subtree.contains(from) || d == UNREACHABLE) continue;
+                long candidate = d + out.get(from).get(p);
+                if(candidate < distance(p)) {
+                    setParent(p, from, candidate);
+                    seeds.add(p);
+                }
+            }
+        }
+        relaxFrom(seeds);
+    }
+
+    /**
+     * Bellman-Ford limited to maxHops rounds.
+     */
+    private List<String> boundedPath(String to, int maxHops) {
+        Map<String, Long> best = new HashMap<>();
+        List<Map<String, String>> parents = new ArrayList<>();
+        best.put(source, 0L);
+        for(int hop = 0; hop < maxHops; hop++) {
+            Map<String, Long> next = new HashMap<>(best);
+            Map<String, String> hopParents = new HashMap<>();
+            for(Map.Entry<String, Long> b : best.entrySet()) {
+                Map<String, Long> edges = out.get(b.getKey());
+                if(edges == null) continue;
+                for(Map.Entry<String, Long> edge : edges.entrySet()) {
+                    long d = b.getValue() + edge.getValue();
+                    Long current = next.get(edge.getKey());
+                    if(current == null || d < current) {
+                        next.put(edge.getKey(), d);
+                        hopParents.put(edge.getKey(), b.getKey());
+                    }
+                }
+            }
+            parents.add(hopParents);
+            best = next;
+        }
+        if(!best.containsKey(to)) {
+            return Collections.emptyList();
+        }
+        // Walk back through the round each peer was last improved in
+        LinkedList<String> path = new LinkedList<>();
+        String p = to;
+        for(int hop = maxHops - 1; hop >= 0 && !p.equals(source); hop--) {
+            String prev = parents.get(hop).get(p);
+            if(prev == null) continue;
+            path.addFirst(p);
+            p = prev;
+        }
+        return p.equals(source) ? path : Collections.<String>emptyList();
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final String peer;
+        private final long dist;
+
+        private Entry(String peer, long dist) {
+            this.peer = peer;
+            this.dist = dist;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Long.compare(dist, o.dist);
+        }
+    }
+}
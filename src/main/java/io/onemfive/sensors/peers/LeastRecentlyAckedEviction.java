@@ -0,0 +1,54 @@
+package io.onemfive.sensors.peers;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Evicts the peer acked least recently, peers never acked counting from when they were added.
+ * Kept in ack order so every operation is O(1).
+ */
+public class LeastRecentlyAckedEviction implements EvictionPolicy {
+
+    private final LinkedHashSet<String> peers = new LinkedHashSet<>();
+
+    @Override
+    public synchronized void add(String address) {
+        peers.add(address);
+    }
+
+    @Override
+    public synchronized void acked(String address, double reliabilityScore) {
+        if(peers.remove(address)) {
+            peers.add(address);
+        }
+    }
+
+    @Override
+    public void failed(String address, double reliabilityScore) {
+        // Not an ack
+    }
+
+    @Override
+    public synchronized void remove(String address) {
+        peers.remove(address);
+    }
+
+    @Override
+    public synchronized String evict() {
+        Iterator<String> i = peers.iterator();
+        if(!i.hasNext()) return null;
+        String address = i.next();
+        i.remove();
+        return address;
+    }
+
+    @Override
+    public synchronized int size() {
+        return peers.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        peers.clear();
+    }
+}
@@ -0,0 +1,838 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.core.util.tasks.TaskRunner;
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.sensors.SensorsConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Peer Manager keeping peers and their relationships in memory, persisted to a
+ * memory-mapped append log of int peer ids rather than an embedded graph database.
+ *
+ * The log is replayed at startup and compacted when superseded records dominate it,
+ * checked at startup, every so many records appended, and after each prune.
+ * Select with: io.onemfive.sensors.peers.PeerManager=io.onemfive.sensors.peers.MappedPeerManager
+ */
+public class MappedPeerManager extends BasePeerManager {
+
+    private static final Logger LOG = Logger.getLogger(MappedPeerManager.class.getName());
+
+    public static final String DBNAME = "imspm";
+
+    // Compact once the log holds this many times the live records
+    private static final int COMPACT_RATIO = 2;
+    private static final int COMPACT_MIN_RECORDS = 1024;
+    // Records appended between checks as counting the live records walks every relationship
+    private static final int COMPACT_CHECK_RECORDS = 4096;
+    // Peers examined per lock while pruning
+    private static final int PRUNE_BATCH = 100;
+
+    private PeerLog log;
+    // Peer properties by id; null once removed
+    private final List<Map<String,Object>> peers = new ArrayList<>();
+    // Primary address to id ordered for keyset paging
+    private final ConcurrentSkipListMap<String,Integer> ids = new ConcurrentSkipListMap<>();
+    private final Map<Long,P2PRelationship> stats = new ConcurrentHashMap<>();
+    private final AddressIndex addressIndex = new AddressIndex(1000);
+    private final LatencyRouter router = new LatencyRouter();
+    // Latest time each peer was acked or related as Known by any peer; those Known when loaded count from then
+    private final Map<String,Long> lastSeen = new ConcurrentHashMap<>();
+    // Address the next prune batch starts after
+    private String pruneCursor = "";
+    private long prunedTotal = 0L;
+    // Records the log was compacted to, as a reopened log only counts those appended since
+    private long compactedRecords = 0L;
+    // Log records when compaction was last checked
+    private long checkedAtRecords = 0L;
+    private long compactions = 0L;
+
+    public MappedPeerManager() { }
+
+    public MappedPeerManager(TaskRunner runner) {
+        super(runner);
+    }
+
+    public Boolean init(Properties properties) {
+        if(!super.init(properties)) {
+            LOG.warning("Problem starting SensorManagerBase...exiting...");
+            return false;
+        }
+        String baseDir = null;
+        try {
+            baseDir = getDirectory().getCanonicalPath();
+        } catch (IOException e) {
+            LOG.warning("IOException caught retrieving SensorsService's service directory.");
+            return false;
+        }
+        File file = new File(baseDir, DBNAME + ".log");
+        String cleanDB = properties.getProperty("onemfive.sensors.db.cleanOnRestart");
+        if (Boolean.parseBoolean(cleanDB)) {
+            file.delete();
+            LOG.info("Cleaned " + DBNAME);
+        }
+        log = new PeerLog(file);
+        try {
+            log.open();
+            load();
+            loadBanned();
+            compactIfSuperseded();
+        } catch (IOException e) {
+            LOG.warning("Unable to load " + DBNAME + ": " + e.getLocalizedMessage());
+            return false;
+        }
+        LOG.info("Loaded "+ids.size()+" peers from "+DBNAME+".");
+        if(SensorsConfig.PruneH > 0) {
+            taskRunner.addTask(new PeerPruneTask(PeerPruneTask.class.getSimpleName(), taskRunner, properties, this));
+        }
+        return true;
+    }
+
+    @Override
+    public List<NetworkPeer> findLowestLatencyPath(NetworkPeer toPeer, int maxHops) {
+        List<NetworkPeer> path = new ArrayList<>();
+        if(!isLocalReady() || toPeer == null) {
+            return path;
+        }
+        router.setSource(getLocalPeer().getAddress());
+        for(String address : router.path(toPeer.getAddress(), maxHops)) {
+            NetworkPeer p = findPeerByAddress(address);
+            if(p == null) {
+                LOG.warning("Peer on lowest latency path not found: "+address);
+                return new ArrayList<>();
+            }
+            path.add(p);
+        }
+        LOG.info("Lowest latency path to "+toPeer.getAddress()+" has "+path.size()+" hops.");
+        return path;
+    }
+
+    @Override
+    public Boolean savePeer(NetworkPeer p, Boolean autocreate) {
+        LOG.info("Saving NetworkPeer...");
+        if(!hasAddress(p)) {
+            LOG.info("NetworkPeer to save has no Address. Skipping.");
+            return false;
+        }
+        if(isBanned(p)) {
+            LOG.info("NetworkPeer to save is banned. Skipping.");
+            return false;
+        }
+        if(ids.containsKey(p.getAddress())) {
+            if(!putPeer(p)) return false;
+        } else if(autocreate) {
+            if(putPeer(p)) LOG.info("NetworkPeer saved.");
+        } else {
+            LOG.info("New Peer but autocreate is false, unable to save peer.");
+        }
+        if(isLocalReady()
+                && isRemoteReady(p)
+                && !isRemoteLocal(p)
+                && !relIndex.contains(getLocalPeer().getAddress(), P2PRelationship.RelType.Known, p.getAddress())) {
+            LOG.info("Peer not known: relating as known.");
+            relatePeers(getLocalPeer(), p, P2PRelationship.RelType.Known);
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean verifyPeer(NetworkPeer peer) {
+        if(isBanned(peer)) {
+            return false;
+        }
+        if(findPeerByNetworkedAddress(peer.getNetwork(), peer.getAddress())==null) {
+            return savePeer(peer, true);
+        }
+        return true;
+    }
+
+    /**
+     * Upserts the remote peer and the peers it knows, relating all of them as Known
+     * to the local peer and the supplied peers as Known to the remote peer.
+     */
+    @Override
+    public Boolean savePeers(NetworkPeer remotePeer, List<NetworkPeer> peers) {
+        if(!isRemoteReady(remotePeer) || isRemoteLocal(remotePeer)) {
+            return false;
+        }
+        String localAddress = getLocalPeer().getAddress();
+        boolean local = localAddress != null && ids.containsKey(localAddress);
+        if(!putPeer(remotePeer)) return false;
+        // Listed peers new to the local peer, less those there is room for
+        Set<String> refused = new LinkedHashSet<>();
+        if(local) {
+            for(NetworkPeer p : peers) {
+                if(hasAddress(p)
+                        && !p.getAddress().equals(localAddress)
+                        && !p.getAddress().equals(remotePeer.getAddress())
+                        && !relIndex.contains(localAddress, P2PRelationship.RelType.Known, p.getAddress())) {
+                    refused.add(p.getAddress());
+                }
+            }
+            boolean remoteNew = !relIndex.contains(localAddress, P2PRelationship.RelType.Known, remotePeer.getAddress());
+            int room = roomForListed(remoteNew ? 1 : 0, refused.size());
+            // Listed peers beyond the room are only related as Known to the remote peer
+            Iterator<String> i = refused.iterator();
+            for(int n = 0; n < room && i.hasNext(); n++) {
+                i.next();
+                i.remove();
+            }
+            relate(localAddress, P2PRelationship.RelType.Known, remotePeer.getAddress());
+        }
+        for(NetworkPeer p : peers) {
+            if(!hasAddress(p)
+                    || p.getAddress().equals(localAddress)
+                    || p.getAddress().equals(remotePeer.getAddress())) {
+                continue;
+            }
+            if(!putPeer(p)) return false;
+            if(local && !refused.contains(p.getAddress())) {
+                relate(localAddress, P2PRelationship.RelType.Known, p.getAddress());
+            }
+            relate(remotePeer.getAddress(), P2PRelationship.RelType.Known, p.getAddress());
+        }
+        return true;
+    }
+
+    /**
+     * @param fromPeer peer whose Known peers to list or null for all peers
+     */
+    @Override
+    public List<NetworkPeer> getAllPeers(NetworkPeer fromPeer, int pageSize, int beginIndex) {
+        List<NetworkPeer> list = new ArrayList<>();
+        int skipped = 0;
+        for(String address : addresses(fromPeer, P2PRelationship.RelType.Known, "")) {
+            if(list.size() == pageSize) break;
+            if(skipped++ < beginIndex) continue;
+            NetworkPeer p = findPeerByAddress(address);
+            if(p != null) list.add(p);
+        }
+        return list;
+    }
+
+    /**
+     * Keyset pagination ordered by address.
+     * @param fromPeer peer whose related peers to list or null for all peers
+     */
+    @Override
+    public PeerPage getPeers(NetworkPeer fromPeer, P2PRelationship.RelType relType, int pageSize, String continuation) {
+        List<NetworkPeer> list = new ArrayList<>(pageSize);
+        boolean more = false;
+        for(String address : addresses(fromPeer, relType, PeerPage.keyOf(continuation))) {
+            if(list.size() == pageSize) {
+                more = true;
+                break;
+            }
+            NetworkPeer p = findPeerByAddress(address);
+            if(p != null) list.add(p);
+        }
+        String next = more ? PeerPage.continuationAfter(list.get(list.size()-1).getAddress()) : null;
+        return new PeerPage(list, next);
+    }
+
+    /**
+     * Addresses after the supplied one in order. Small relationship sets are sorted directly;
+     * large ones are filtered while walking the ordered address map.
+     */
+    private Iterable<String> addresses(NetworkPeer fromPeer, P2PRelationship.RelType relType, String after) {
+        Set<String> tail = ids.tailMap(after, false).keySet();
+        if(fromPeer == null) {
+            return tail;
+        }
+        String from = fromPeer.getAddress();
+        if(relIndex.count(from, relType) * 4 < ids.size()) {
+            List<String> related = relIndex.related(from, relType);
+            Collections.sort(related);
+            int begin = Collections.binarySearch(related, after);
+            begin = begin < 0 ? -begin - 1 : begin + 1;
+            return related.subList(begin, related.size());
+        }
+        List<String> related = new ArrayList<>();
+        for(String address : tail) {
+            if(relIndex.contains(from, relType, address)) related.add(address);
+        }
+        return related;
+    }
+
+    @Override
+    public NetworkPeer getRandomPeer(NetworkPeer p) {
+        return findPeerByAddress(relIndex.random(p.getAddress(), P2PRelationship.RelType.Known));
+    }
+
+    @Override
+    public List<NetworkPeer> getRandomPeers(NetworkPeer p, P2PRelationship.RelType relType, int k) {
+        List<NetworkPeer> list = new ArrayList<>();
+        for(String address : relIndex.sample(p.getAddress(), relType, k)) {
+            NetworkPeer peer = findPeerByAddress(address);
+            if(peer != null) list.add(peer);
+        }
+        return list;
+    }
+
+    @Override
+    public Long totalPeers(NetworkPeer p, P2PRelationship.RelType relType) {
+        return (long)relIndex.count(p.getAddress(), relType);
+    }
+
+    @Override
+    public List<NetworkPeer> getReliablesToShare(NetworkPeer p, NetworkPeer toPeer) {
+        List<NetworkPeer> list = new ArrayList<>();
+        for(String address : reliablesToShare(p.getAddress(), toPeer == null ? null : toPeer.getAddress())) {
+            NetworkPeer peer = findPeerByAddress(address);
+            if(peer != null) list.add(peer);
+        }
+        return list;
+    }
+
+    /**
+     * Saves Peer Request status results, moving the end peer between the Known, Reliable,
+     * and SuperReliable tiers as its reliability score changes.
+     */
+    @Override
+    public Boolean savePeerStatusTimes(NetworkPeer startPeer, NetworkPeer endPeer, Long timeSent, Long timeAcknowledged) {
+        startPeer.setLocal(true); // Start is always local
+        if(!relIndex.contains(startPeer.getAddress(), P2PRelationship.RelType.Known, endPeer.getAddress())) {
+            if(relatePeers(startPeer, endPeer, P2PRelationship.RelType.Known) != null) {
+                LOG.info("New known peer: "+endPeer);
+            }
+            return false;
+        }
+        Map<P2PRelationship.RelType,Boolean> changes = updateStats(startPeer, endPeer, rel -> {
+            rel.advanceTotalAcks();
+            rel.setLastAckTime(timeAcknowledged);
+            rel.addAckTimeTracked(timeAcknowledged - timeSent);
+            rel.recordAck(timeAcknowledged);
+        });
+        if(changes != null) {
+            seen(endPeer.getAddress(), timeAcknowledged);
+            evictionAcked(startPeer.getAddress(), endPeer.getAddress(), reliabilityScore(startPeer.getAddress(), endPeer.getAddress()));
+        }
+        return changes != null && Boolean.TRUE.equals(changes.get(P2PRelationship.RelType.Reliable));
+    }
+
+    /**
+     * Record a request from the start peer that the end peer never acknowledged,
+     * demoting the end peer if its reliability score falls far enough.
+     */
+    @Override
+    public Boolean savePeerStatusFailure(NetworkPeer startPeer, NetworkPeer endPeer, Long timeSent) {
+        if(!relIndex.contains(startPeer.getAddress(), P2PRelationship.RelType.Known, endPeer.getAddress())) {
+            return false;
+        }
+        if(updateStats(startPeer, endPeer, rel -> rel.recordFailure(System.currentTimeMillis())) == null) {
+            return false;
+        }
+        evictionFailed(startPeer.getAddress(), endPeer.getAddress(), reliabilityScore(startPeer.getAddress(), endPeer.getAddress()));
+        return true;
+    }
+
+    private synchronized double reliabilityScore(String start, String end) {
+        Integer startId = ids.get(start);
+        Integer endId = ids.get(end);
+        P2PRelationship rel = startId == null || endId == null ? null : stats.get(key(startId, endId));
+        return rel == null ? 0.0 : rel.getReliabilityScore();
+    }
+
+    /**
+     * Apply the update to the Known relationship's stats then move the end peer to the tier of its new score.
+     * @return relationships added or removed or null if the update could not be saved
+     */
+    private Map<P2PRelationship.RelType,Boolean> updateStats(NetworkPeer startPeer, NetworkPeer endPeer, Consumer<P2PRelationship> update) {
+        String start = startPeer.getAddress();
+        String end = endPeer.getAddress();
+        P2PRelationship knownRel;
+        Map<P2PRelationship.RelType,Boolean> changes;
+        synchronized (this) {
+            compactIfDue();
+            Integer startId = ids.get(start);
+            Integer endId = ids.get(end);
+            if(startId == null || endId == null) return null;
+            knownRel = stats.computeIfAbsent(key(startId, endId), k -> new P2PRelationship());
+            update.accept(knownRel);
+            try {
+                log.appendStats(startId, endId, knownRel.toMap());
+            } catch (IOException e) {
+                LOG.warning(e.getLocalizedMessage());
+                return null;
+            }
+            P2PRelationship.RelType from = currentTier(relIndex, start, end);
+            changes = tierChanges(from, tier(from, knownRel.getReliabilityScore()));
+            for(Map.Entry<P2PRelationship.RelType,Boolean> change : changes.entrySet()) {
+                if(change.getValue() ? relate(start, change.getKey(), end) : unrelate(start, change.getKey(), end)) {
+                    LOG.info((change.getValue() ? "Now " : "No longer ")+change.getKey().name()+" peer: "+endPeer);
+                }
+            }
+        }
+        router.updateEdge(start, end, knownRel.getAvgAckLatencyMS());
+        return changes;
+    }
+
+    public NetworkPeer findPeerByAddress(String address) {
+        if(address == null) return null;
+        Integer id = ids.get(address);
+        return id == null ? null : toPeer(id);
+    }
+
+    public NetworkPeer findPeerByNetworkedAddress(String network, String address) {
+        if(address == null || network == null) return null;
+        NetworkPeer p = findPeerByAddressAllNetworks(address);
+        return p != null && address.equals(p.toMap().get(network.toLowerCase()+"Address")) ? p : null;
+    }
+
+    /**
+     * Find a peer by its address on any network.
+     */
+    public NetworkPeer findPeerByAddressAllNetworks(String address) {
+        if(address == null) return null;
+        Long id = addressIndex.get(address);
+        return id == null ? null : toPeer(id.intValue());
+    }
+
+    public boolean isKnown(String address) {
+        return findPeerByAddressAllNetworks(address) != null;
+    }
+
+    public P2PRelationship relatePeers(NetworkPeer leftPeer, NetworkPeer rightPeer, P2PRelationship.RelType relType) {
+        if(!hasAddress(leftPeer) || !hasAddress(rightPeer) || leftPeer.getAddress().equals(rightPeer.getAddress())) {
+            LOG.info("Peers to relate not provided, without addresses, or the same; skipping.");
+            return null;
+        }
+        if(!relate(leftPeer.getAddress(), relType, rightPeer.getAddress())) {
+            return null;
+        }
+        Integer startId = ids.get(leftPeer.getAddress());
+        Integer endId = ids.get(rightPeer.getAddress());
+        // Either may have been removed since being related
+        P2PRelationship rt = startId == null || endId == null ? null : stats.get(key(startId, endId));
+        return rt == null ? new P2PRelationship() : rt;
+    }
+
+    public boolean removeRelationship(NetworkPeer startPeer, NetworkPeer endPeer, P2PRelationship.RelType relType) {
+        if(!unrelate(startPeer.getAddress(), relType, endPeer.getAddress())) {
+            return false;
+        }
+        LOG.info(relType.name() + " relationship of "+endPeer+" removed from "+startPeer);
+        return true;
+    }
+
+    @Override
+    public Boolean shutdown() {
+        if(log != null) {
+            log.close();
+        }
+        return true;
+    }
+
+    @Override
+    public void report(NetworkPeer networkPeer) {
+        LOG.info("NetworkPeer reported: "+networkPeer);
+    }
+
+    @Override
+    public void report(List<NetworkPeer> networkPeers) {
+        for(NetworkPeer networkPeer : networkPeers){
+            report(networkPeer);
+        }
+    }
+
+    @Override
+    public void reportPruned(List<NetworkPeer> networkPeers) {
+        prunedTotal += networkPeers.size();
+        StringBuilder sb = new StringBuilder();
+        for(NetworkPeer networkPeer : networkPeers) {
+            sb.append("\n\t").append(networkPeer.getAddress());
+        }
+        LOG.info("Pruned "+networkPeers.size()+" stale peers ("+prunedTotal+" in total):"+sb);
+    }
+
+    @Override
+    public LatencyHistogram getAckLatencies(NetworkPeer fromPeer, NetworkPeer toPeer) {
+        if(!relIndex.contains(fromPeer.getAddress(), P2PRelationship.RelType.Known, toPeer.getAddress())) {
+            return null;
+        }
+        Integer fromId = ids.get(fromPeer.getAddress());
+        Integer toId = ids.get(toPeer.getAddress());
+        if(fromId == null || toId == null) {
+            // Removed since checked
+            return null;
+        }
+        P2PRelationship rel = stats.get(key(fromId, toId));
+        LatencyHistogram h = new LatencyHistogram();
+        if(rel != null) {
+            synchronized (this) {
+                h.merge(rel.getAckLatencies());
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Insert or update the peer's properties.
+     */
+    private synchronized boolean putPeer(NetworkPeer p) {
+        compactIfDue();
+        Integer id = ids.get(p.getAddress());
+        Map<String,Object> m = id == null ? new HashMap<>() : new HashMap<>(peers.get(id));
+        m.putAll(p.toMap());
+        if(id == null) id = peers.size();
+        try {
+            log.appendPeer(id, m);
+        } catch (IOException e) {
+            LOG.warning(e.getLocalizedMessage());
+            return false;
+        }
+        setPeer(id, m);
+        return true;
+    }
+
+    /**
+     * Relate two saved peers if not already related.
+     * @return false if either peer is not saved or the relationship could not be written
+     */
+    private synchronized boolean relate(String startAddress, P2PRelationship.RelType relType, String endAddress) {
+        if(relIndex.contains(startAddress, relType, endAddress)) return true;
+        Integer startId = ids.get(startAddress);
+        Integer endId = ids.get(endAddress);
+        if(startId == null || endId == null) return false;
+        ColdPeers.ColdPeer cold = null;
+        if(relType == P2PRelationship.RelType.Known && startAddress.equals(getLocalPeer().getAddress())) {
+            // Taken first so that making room can not drop it from the cold tier
+            cold = coldPeers.take(endAddress);
+            makeRoom(1);
+        }
+        try {
+            log.appendRelationship(startId, relType, endId, true);
+            restoreCold(startId, endId, cold, endAddress);
+        } catch (IOException e) {
+            LOG.warning(e.getLocalizedMessage());
+            return false;
+        }
+        relIndex.add(startAddress, relType, endAddress);
+        if(relType == P2PRelationship.RelType.Known) {
+            router.setEdge(startAddress, endAddress, LatencyRouter.UNMEASURED_LATENCY_MS);
+            seen(endAddress, System.currentTimeMillis());
+        }
+        knownChanged(startAddress, relType, endAddress, true);
+        return true;
+    }
+
+    /**
+     * Remove a relationship if present.
+     * @return false if the removal could not be written
+     */
+    private synchronized boolean unrelate(String startAddress, P2PRelationship.RelType relType, String endAddress) {
+        Integer startId = ids.get(startAddress);
+        Integer endId = ids.get(endAddress);
+        if(startId == null || endId == null || !relIndex.contains(startAddress, relType, endAddress)) {
+            return true;
+        }
+        try {
+            log.appendRelationship(startId, relType, endId, false);
+        } catch (IOException e) {
+            LOG.warning(e.getLocalizedMessage());
+            return false;
+        }
+        relIndex.remove(startAddress, relType, endAddress);
+        if(relType == P2PRelationship.RelType.Known) {
+            router.removeEdge(startAddress, endAddress);
+        }
+        knownChanged(startAddress, relType, endAddress, false);
+        return true;
+    }
+
+    /**
+     * Remove the local peer's relationships to the peer keeping its Known relationship stats in the cold tier.
+     * The peer stays saved until dropped from the cold tier.
+     */
+    @Override
+    protected synchronized boolean evictPeer(String address) {
+        String localAddress = getLocalPeer().getAddress();
+        Integer startId = ids.get(localAddress);
+        Integer endId = ids.get(address);
+        for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+            if(!unrelate(localAddress, relType, address)) return false;
+        }
+        P2PRelationship known = startId == null || endId == null ? null : stats.remove(key(startId, endId));
+        String dropped = coldPeers.put(address, known == null ? null : known.toMap());
+        if(dropped != null && !relIndex.contains(localAddress, P2PRelationship.RelType.Known, dropped)) {
+            removePeer(dropped);
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean saveBan(NetworkPeer peer) {
+        return putPeer(peer) && relate(getLocalPeer().getAddress(), P2PRelationship.RelType.Banned, peer.getAddress());
+    }
+
+    /**
+     * Remove the peer, its relationships, and their stats.
+     */
+    private synchronized void removePeer(String address) {
+        Integer id = ids.get(address);
+        if(id == null) return;
+        for(String start : new ArrayList<>(relIndex.startAddresses())) {
+            for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+                unrelate(start, relType, address);
+                if(start.equals(address)) {
+                    for(String end : relIndex.related(address, relType)) {
+                        unrelate(address, relType, end);
+                    }
+                }
+            }
+        }
+        try {
+            log.appendPeerRemoved(id);
+        } catch (IOException e) {
+            LOG.warning(e.getLocalizedMessage());
+            return;
+        }
+        stats.keySet().removeIf(k -> (int)(k >>> 32) == id || (int)(long)k == id);
+        unindexAddresses(peers.set(id, null));
+        router.removePeer(address);
+        lastSeen.remove(address);
+        LOG.info("Peer removed: "+address);
+    }
+
+    private void seen(String address, long time) {
+        lastSeen.merge(address, time, Math::max);
+    }
+
+    @Override
+    public List<NetworkPeer> prune(long staleBefore, long deadline) {
+        List<NetworkPeer> pruned = new ArrayList<>();
+        String localAddress = getLocalPeer().getAddress();
+        while(System.currentTimeMillis() < deadline) {
+            String last = null;
+            synchronized (this) {
+                int examined = 0;
+                for(String address : ids.tailMap(pruneCursor, false).keySet()) {
+                    if(examined++ == PRUNE_BATCH) break;
+                    last = address;
+                    if(address.equals(localAddress) || banned.contains(address) || coldPeers.contains(address)) continue;
+                    Long seen = lastSeen.get(address);
+                    if(seen == null || seen < staleBefore) {
+                        NetworkPeer p = findPeerByAddress(address);
+                        removePeer(address);
+                        if(p != null) pruned.add(p);
+                    }
+                }
+            }
+            if(last == null) {
+                // Pass complete; start over next time
+                pruneCursor = "";
+                break;
+            }
+            pruneCursor = last;
+        }
+        if(!pruned.isEmpty()) {
+            synchronized (this) {
+                try {
+                    compactIfSuperseded();
+                } catch (IOException e) {
+                    LOG.warning("Unable to compact " + DBNAME + ": " + e.getLocalizedMessage());
+                }
+            }
+        }
+        return pruned;
+    }
+
+    /**
+     * Bring back the Known relationship stats of a cold peer.
+     */
+    private void restoreCold(int startId, int endId, ColdPeers.ColdPeer cold, String address) throws IOException {
+        if(cold != null && cold.known != null) {
+            P2PRelationship rel = new P2PRelationship();
+            rel.fromMap(new HashMap<>(cold.known));
+            log.appendStats(startId, endId, rel.toMap());
+            stats.put(key(startId, endId), rel);
+            LOG.info("Cold peer is Known again with its history: "+address);
+        }
+    }
+
+    private void setPeer(int id, Map<String,Object> m) {
+        while(peers.size() <= id) peers.add(null);
+        Map<String,Object> old = peers.set(id, m);
+        if(old != null) {
+            unindexAddresses(old);
+        }
+        ids.put((String)m.get("address"), id);
+        for(String addressProperty : ADDRESS_PROPERTIES) {
+            Object address = m.get(addressProperty);
+            if(address instanceof String) {
+                addressIndex.put((String)address, (long)id);
+            }
+        }
+    }
+
+    private void unindexAddresses(Map<String,Object> m) {
+        ids.remove((String)m.get("address"));
+        for(String addressProperty : ADDRESS_PROPERTIES) {
+            Object address = m.get(addressProperty);
+            if(address instanceof String) {
+                addressIndex.remove((String)address);
+            }
+        }
+    }
+
+    private synchronized NetworkPeer toPeer(int id) {
+        Map<String,Object> m = id < peers.size() ? peers.get(id) : null;
+        if(m == null) return null;
+        NetworkPeer p = new NetworkPeer();
+        p.fromMap(new HashMap<>(m));
+        return p;
+    }
+
+    private synchronized String address(int id) {
+        Map<String,Object> m = id < peers.size() ? peers.get(id) : null;
+        return m == null ? null : (String)m.get("address");
+    }
+
+    /**
+     * Replay the log into memory then load the latency router from the Known relationships.
+     */
+    private synchronized void load() throws IOException {
+        log.replay(new PeerLog.Replay() {
+            @Override
+            public void peer(int id, Map<String, Object> peer) {
+                setPeer(id, peer);
+            }
+
+            @Override
+            public void peerRemoved(int id) {
+                if(id < peers.size() && peers.get(id) != null) {
+                    unindexAddresses(peers.set(id, null));
+                }
+            }
+
+            @Override
+            public void relationship(int fromId, P2PRelationship.RelType relType, int toId, boolean added) {
+                if(added) {
+                    relIndex.add(address(fromId), relType, address(toId));
+                } else {
+                    relIndex.remove(address(fromId), relType, address(toId));
+                }
+            }
+
+            @Override
+            public void stats(int fromId, int toId, Map<String, Object> m) {
+                P2PRelationship rel = new P2PRelationship();
+                rel.fromMap(m);
+                stats.put(key(fromId, toId), rel);
+            }
+        });
+        // Stats of removed peers
+        stats.keySet().removeIf(k -> address((int)(k >>> 32)) == null || address((int)(long)k) == null);
+        router.clear();
+        lastSeen.clear();
+        long now = System.currentTimeMillis();
+        for(String start : relIndex.startAddresses()) {
+            for(String end : relIndex.related(start, P2PRelationship.RelType.Known)) {
+                P2PRelationship rel = stats.get(key(ids.get(start), ids.get(end)));
+                router.setEdge(start, end, rel == null ? 0L : rel.getAvgAckLatencyMS());
+                // When related is not logged so each gets a full horizon from now
+                seen(end, now);
+            }
+        }
+    }
+
+    /**
+     * Check whether to compact once enough records have been appended since the last check.
+     * Only called before a change is begun so the indexes and the log agree.
+     */
+    private synchronized void compactIfDue() {
+        if(logRecords() - checkedAtRecords < COMPACT_CHECK_RECORDS) return;
+        try {
+            compactIfSuperseded();
+        } catch (IOException e) {
+            LOG.warning("Unable to compact " + DBNAME + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    private synchronized void compactIfSuperseded() throws IOException {
+        long records = logRecords();
+        checkedAtRecords = records;
+        if(records > COMPACT_MIN_RECORDS && records > liveRecords() * COMPACT_RATIO) {
+            compact();
+            checkedAtRecords = logRecords();
+        }
+    }
+
+    private long logRecords() {
+        return compactedRecords + log.getRecords();
+    }
+
+    /**
+     * @return times the log has been compacted since started
+     */
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    private synchronized long liveRecords() {
+        long live = ids.size() + stats.size();
+        for(String start : relIndex.startAddresses()) {
+            for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+                live += relIndex.count(start, relType);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Rewrite the log with only live records then swap it in.
+     */
+    private synchronized void compact() throws IOException {
+        LOG.info("Compacting "+DBNAME+" from "+logRecords()+" records...");
+        File file = log.getFile();
+        File compacted = new File(file.getParentFile(), file.getName() + ".compact");
+        compacted.delete();
+        PeerLog c = new PeerLog(compacted);
+        c.open();
+        for(int id = 0; id < peers.size(); id++) {
+            if(peers.get(id) != null) c.appendPeer(id, peers.get(id));
+        }
+        for(String start : relIndex.startAddresses()) {
+            for(P2PRelationship.RelType relType : P2PRelationship.RelType.values()) {
+                for(String end : relIndex.related(start, relType)) {
+                    c.appendRelationship(ids.get(start), relType, ids.get(end), true);
+                }
+            }
+        }
+        for(Map.Entry<Long,P2PRelationship> e : stats.entrySet()) {
+            c.appendStats((int)(e.getKey() >>> 32), (int)(long)e.getKey(), e.getValue().toMap());
+        }
+        long records = c.getRecords();
+        c.close();
+        log.close();
+        try {
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            compactedRecords = records;
+        } catch (IOException e) {
+            compactedRecords = logRecords();
+            throw e;
+        } finally {
+            // Carry on with the uncompacted log if it could not be replaced
+            log = new PeerLog(file);
+            log.open();
+        }
+        compactions++;
+        LOG.info(DBNAME+" compacted to "+records+" records.");
+    }
+
+    private static boolean hasAddress(NetworkPeer p) {
+        return p != null && p.getAddress() != null && !p.getAddress().isEmpty() && !p.getAddress().equals("null");
+    }
+
+    private static long key(int fromId, int toId) {
+        return ((long)fromId << 32) | (toId & 0xFFFFFFFFL);
+    }
+}
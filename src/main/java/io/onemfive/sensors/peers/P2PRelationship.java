@@ -4,6 +4,7 @@ import io.onemfive.data.JSONSerializable;
 import io.onemfive.sensors.SensorsConfig;
 import org.neo4j.graphdb.RelationshipType;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,10 +22,28 @@ public class P2PRelationship implements JSONSerializable {
         Banned
     }
 
+    // Weight of the latest ack in the exponentially weighted moving average latency
+    public static final double EWMA_ALPHA = 0.125;
+    // p99 of the ack latencies tracked at which the reliability score is halved
+    public static final long SCORE_LATENCY_MS = 10 * 1000L;
+
     private Long totalAcks = 0L;
     private Long lastAckTime = 0L;
     private Long avgAckLatencyMS = 0L;
-    private String ackTimesTracked;
+    // Ring buffer of the last MaxAT ack latencies with running sum
+    private long[] ackTimes;
+    private int ackTimesHead = 0;
+    private int ackTimesCount = 0;
+    private long ackTimesSum = 0L;
+    private double ewmaAckLatencyMS = 0.0;
+    // p99 of the ack latencies tracked or -1 until next scored
+    private long trackedP99 = -1L;
+    // All ack latencies recorded for reporting; never decays so not scored
+    private LatencyHistogram ackLatencies;
+    // Acks and failures decayed with a half-life of RelHL hours as of decayedAt
+    private double decayedAcks = 0.0;
+    private double decayedFailures = 0.0;
+    private long decayedAt = 0L;
 
     public Long advanceTotalAcks() {
         totalAcks++;
@@ -39,41 +58,62 @@ public class P2PRelationship implements JSONSerializable {
         return totalAcks;
     }
 
+    /**
+     * Track an ack latency in O(1) without allocating, dropping the oldest once MaxAT are tracked.
+     */
     public void addAckTimeTracked(long t) {
         if(t <= 0) return; // not an ack
-        if(ackTimesTracked ==null || ackTimesTracked.isEmpty()) {
-            ackTimesTracked = String.valueOf(t);
-        } else {
-            ackTimesTracked += "," + String.valueOf(t);
+        getAckLatencies().record(t);
+        track(t);
+    }
+
+    private void track(long t) {
+        if(ackTimes == null) {
+            ackTimes = new long[Math.max(1, SensorsConfig.MaxAT)];
         }
-        int currNumberAcksTracked = ackTimesTracked.split(",").length;
-        while(currNumberAcksTracked > SensorsConfig.MaxAT) {
-            ackTimesTracked = ackTimesTracked.substring(ackTimesTracked.indexOf(",")+1);
-            currNumberAcksTracked--;
+        if(ackTimesCount == ackTimes.length) {
+            ackTimesSum -= ackTimes[ackTimesHead];
+        } else {
+            ackTimesCount++;
         }
+        ackTimes[ackTimesHead] = t;
+        ackTimesHead = (ackTimesHead + 1) % ackTimes.length;
+        ackTimesSum += t;
+        trackedP99 = -1L;
+        avgAckLatencyMS = ackTimesSum / ackTimesCount;
+        ewmaAckLatencyMS = ackTimesCount == 1 ? t : ewmaAckLatencyMS + EWMA_ALPHA * (t - ewmaAckLatencyMS);
     }
 
-    public String getAckTimesTracked() {
-        return ackTimesTracked;
+    /**
+     * @return tracked ack latencies oldest first
+     */
+    public long[] getAckTimesTracked() {
+        long[] times = new long[ackTimesCount];
+        int oldest = ackTimesCount == 0 ? 0 : (ackTimesHead - ackTimesCount + ackTimes.length) % ackTimes.length;
+        for(int i = 0; i < ackTimesCount; i++) {
+            times[i] = ackTimes[(oldest + i) % ackTimes.length];
+        }
+        return times;
     }
 
-    public void setAckTimesTracked(String ackTimes) {
-        this.ackTimesTracked = ackTimes;
+    /**
+     * @param ackTimes ack latencies oldest first; only the latest MaxAT are kept
+     */
+    public void setAckTimesTracked(long[] ackTimes) {
+        this.ackTimes = null;
+        ackTimesHead = 0;
+        ackTimesCount = 0;
+        ackTimesSum = 0L;
+        trackedP99 = -1L;
+        avgAckLatencyMS = 0L;
+        double ewma = ewmaAckLatencyMS;
+        for(int i = Math.max(0, ackTimes.length - SensorsConfig.MaxAT); i < ackTimes.length; i++) {
+            if(ackTimes[i] > 0) track(ackTimes[i]);
+        }
+        if(ewma > 0) ewmaAckLatencyMS = ewma;
     }
 
     public Long getAvgAckLatencyMS() {
-        if(ackTimesTracked !=null) {
-            String[] times = ackTimesTracked.split(",");
-            long sum = 0L;
-            long t;
-            for (String ts : times) {
-                t = Long.parseLong(ts);
-                sum += t;
-            }
-            avgAckLatencyMS = sum / times.length;
-        } else {
-            avgAckLatencyMS = 0L;
-        }
         return avgAckLatencyMS;
     }
 
@@ -81,6 +121,59 @@ public class P2PRelationship implements JSONSerializable {
         this.avgAckLatencyMS = avgAckLatencyMS;
     }
 
+    public double getEwmaAckLatencyMS() {
+        return ewmaAckLatencyMS;
+    }
+
+    public void recordAck(long time) {
+        decayTo(time);
+        decayedAcks += 1.0;
+    }
+
+    public void recordFailure(long time) {
+        decayTo(time);
+        decayedFailures += 1.0;
+    }
+
+    private void decayTo(long time) {
+        if(decayedAt > 0 && time > decayedAt) {
+            double factor = Math.pow(0.5, (time - decayedAt) / (SensorsConfig.RelHL * 60 * 60 * 1000.0));
+            decayedAcks *= factor;
+            decayedFailures *= factor;
+        }
+        decayedAt = Math.max(decayedAt, time);
+    }
+
+    /**
+     * Time-decayed acks weighted by the ack success ratio and discounted by the p99 of the last
+     * MaxAT ack latencies, making it comparable to MinAckRP and MinAckSRP.
+     * Only recent latencies are scored so a peer is neither held back nor carried by its history.
+     */
+    public double getReliabilityScore() {
+        double attempts = decayedAcks + decayedFailures;
+        if(attempts == 0.0) return 0.0;
+        return decayedAcks * (decayedAcks / attempts) * SCORE_LATENCY_MS / (SCORE_LATENCY_MS + getTrackedP99());
+    }
+
+    /**
+     * @return p99 of the ack latencies tracked; 0 if none
+     */
+    public long getTrackedP99() {
+        if(trackedP99 < 0) {
+            long[] times = getAckTimesTracked();
+            Arrays.sort(times);
+            trackedP99 = times.length == 0 ? 0L : times[(int)Math.ceil(0.99 * times.length) - 1];
+        }
+        return trackedP99;
+    }
+
+    public LatencyHistogram getAckLatencies() {
+        if(ackLatencies == null) {
+            ackLatencies = new LatencyHistogram();
+        }
+        return ackLatencies;
+    }
+
     public Long getLastAckTime() {
         return lastAckTime;
     }
@@ -95,7 +188,18 @@ public class P2PRelationship implements JSONSerializable {
         if(totalAcks !=null) m.put("totalAcks", totalAcks);
         if(avgAckLatencyMS !=null) m.put("avgAckLatencyMS", avgAckLatencyMS);
         if(lastAckTime!=null) m.put("lastAckTime", lastAckTime);
-        if(ackTimesTracked !=null) m.put("ackTimesTracked", ackTimesTracked);
+        if(ackTimesCount > 0) {
+            m.put("ackTimesTracked", getAckTimesTracked());
+            m.put("ewmaAckLatencyMS", ewmaAckLatencyMS);
+        }
+        if(decayedAt > 0) {
+            m.put("decayedAcks", decayedAcks);
+            m.put("decayedFailures", decayedFailures);
+            m.put("decayedAt", decayedAt);
+        }
+        if(ackLatencies != null && ackLatencies.getCount() > 0) {
+            m.put("ackLatencyHistogram", ackLatencies.toArray());
+        }
         return m;
     }
 
@@ -104,12 +208,42 @@ public class P2PRelationship implements JSONSerializable {
         if(m!=null) {
             if(m.get("totalAcks")!=null)
                 totalAcks = (Long)m.get("totalAcks");
-            if(m.get("avgAckLatencyMS")!=null)
-                avgAckLatencyMS = (Long)m.get("avgAckLatencyMS");
             if(m.get("lastAckTime")!=null)
                 lastAckTime = (Long)m.get("lastAckTime");
-            if(m.get("ackTimesTracked")!=null)
-                ackTimesTracked = (String)m.get("ackTimesTracked");
+            if(m.get("ewmaAckLatencyMS")!=null)
+                ewmaAckLatencyMS = (Double)m.get("ewmaAckLatencyMS");
+            Object times = m.get("ackTimesTracked");
+            if(times instanceof long[]) {
+                setAckTimesTracked((long[])times);
+            } else if(times instanceof String && !((String)times).isEmpty()) {
+                // Migrate comma-delimited latencies; rewritten as a long array on next save
+                String[] ts = ((String)times).split(",");
+                long[] migrated = new long[ts.length];
+                for(int i = 0; i < ts.length; i++) {
+                    migrated[i] = Long.parseLong(ts[i].trim());
+                }
+                setAckTimesTracked(migrated);
+            } else if(m.get("avgAckLatencyMS")!=null) {
+                avgAckLatencyMS = (Long)m.get("avgAckLatencyMS");
+            }
+            if(m.get("decayedAt")!=null) {
+                decayedAcks = (Double)m.get("decayedAcks");
+                decayedFailures = (Double)m.get("decayedFailures");
+                decayedAt = (Long)m.get("decayedAt");
+            } else if(totalAcks > 0) {
+                // Scored before decay was tracked; start decaying all acks from the last one
+                decayedAcks = totalAcks;
+                decayedAt = lastAckTime;
+            }
+            if(m.get("ackLatencyHistogram") instanceof long[]) {
+                ackLatencies = LatencyHistogram.fromArray((long[])m.get("ackLatencyHistogram"));
+            } else if(ackTimesCount > 0) {
+                // Seed from the latencies still tracked
+                ackLatencies = new LatencyHistogram();
+                for(long t : getAckTimesTracked()) {
+                    ackLatencies.record(t);
+                }
+            }
         }
     }
 }
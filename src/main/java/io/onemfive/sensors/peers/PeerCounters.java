@@ -0,0 +1,201 @@
+package io.onemfive.sensors.peers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * Per-peer, per-relationship type counters persisted in a small memory-mapped file.
+ *
+ * The file is an open-addressed hash table keyed by a 64-bit hash of the peer's address:
+ * a header of [magic][version][capacity][clean] followed by capacity slots of
+ * [address hash][count for each RelType].
+ * The clean flag is cleared while open and set on close so an unclean shutdown can be detected.
+ */
+public class PeerCounters {
+
+    private static final Logger LOG = Logger.getLogger(PeerCounters.class.getName());
+
+    private static final int MAGIC = 0x314D3543;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int CLEAN_OFFSET = 12;
+    private static final int REL_TYPES = P2PRelationship.RelType.values().length;
+    private static final int SLOT_SIZE = 8 + 8 * REL_TYPES;
+    private static final int MIN_CAPACITY = 1024;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int used;
+
+    public PeerCounters(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open or create the counter file sized for at least the supplied number of peers.
+     * @return true if an existing file of this layout was found that had been closed cleanly
+     */
+    public synchronized boolean open(int expectedPeers) throws IOException {
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        raf = new RandomAccessFile(file, "rw");
+        boolean clean = false;
+        if(exists) {
+            raf.seek(0);
+            int magic = raf.readInt();
+            int version = raf.readInt();
+            int cap = raf.readInt();
+            int cleanFlag = raf.readInt();
+            if(magic == MAGIC && version == VERSION && Integer.bitCount(cap) == 1
+                    && file.length() == HEADER_SIZE + (long)cap * SLOT_SIZE) {
+                map(cap);
+                for(int slot = 0; slot < cap; slot++) {
+                    if(buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE) != 0) used++;
+                }
+                clean = cleanFlag == 1;
+            } else {
+                LOG.warning("Peer counter file layout not recognized; recreating.");
+                exists = false;
+            }
+        }
+        if(!exists) {
+            map(tableSize(expectedPeers));
+        }
+        buffer.putInt(CLEAN_OFFSET, 0);
+        return clean;
+    }
+
+    public synchronized long get(String address, P2PRelationship.RelType relType) {
+        int slot = find(hash(address), false);
+        return slot < 0 ? 0 : buffer.getLong(countOffset(slot, relType));
+    }
+
+    public synchronized void set(String address, P2PRelationship.RelType relType, long count) {
+        int slot = find(hash(address), true);
+        buffer.putLong(countOffset(slot, relType), count);
+    }
+
+    public synchronized void increment(String address, P2PRelationship.RelType relType) {
+        int offset = countOffset(find(hash(address), true), relType);
+        buffer.putLong(offset, buffer.getLong(offset) + 1);
+    }
+
+    public synchronized void decrement(String address, P2PRelationship.RelType relType) {
+        int slot = find(hash(address), false);
+        if(slot < 0) return;
+        int offset = countOffset(slot, relType);
+        long count = buffer.getLong(offset);
+        if(count > 0) buffer.putLong(offset, count - 1);
+    }
+
+    /**
+     * @return the sum of all counts of the relationship type across all peers
+     */
+    public synchronized long total(P2PRelationship.RelType relType) {
+        long total = 0;
+        for(int slot = 0; slot < capacity; slot++) {
+            total += buffer.getLong(countOffset(slot, relType));
+        }
+        return total;
+    }
+
+    public synchronized void clear() {
+        used = 0;
+        for(int i = HEADER_SIZE; i < HEADER_SIZE + capacity * SLOT_SIZE; i += 8) {
+            buffer.putLong(i, 0L);
+        }
+    }
+
+    public synchronized void close() {
+        if(buffer == null) return;
+        buffer.putInt(CLEAN_OFFSET, 1);
+        buffer.force();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LOG.warning(e.getLocalizedMessage());
+        }
+        buffer = null;
+    }
+
+    private void map(int cap) throws IOException {
+        capacity = cap;
+        raf.setLength(HEADER_SIZE + (long)cap * SLOT_SIZE);
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)cap * SLOT_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, cap);
+    }
+
+    private int find(long hash, boolean create) {
+        int mask = capacity - 1;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        for(int probes = 0; probes < capacity; probes++) {
+            long key = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+            if(key == hash) return slot;
+            if(key == 0) {
+                if(!create) return -1;
+                if((used + 1) * 4 > capacity * 3) {
+                    // keep probe sequences short
+                    grow();
+                    return find(hash, true);
+                }
+                buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE, hash);
+                used++;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void grow() {
+        int oldCapacity = capacity;
+        long[] slots = new long[oldCapacity * (1 + REL_TYPES)];
+        for(int i = 0; i < slots.length; i++) {
+            slots[i] = buffer.getLong(HEADER_SIZE + i * 8);
+        }
+        try {
+            map(oldCapacity * 2);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to grow peer counter file: "+e.getLocalizedMessage(), e);
+        }
+        clear();
+        for(int s = 0; s < oldCapacity; s++) {
+            long key = slots[s * (1 + REL_TYPES)];
+            if(key == 0) continue;
+            int slot = find(key, true);
+            for(int t = 0; t < REL_TYPES; t++) {
+                buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE + 8 + t * 8, slots[s * (1 + REL_TYPES) + 1 + t]);
+            }
+        }
+        LOG.info("Peer counter file grown to "+capacity+" peers.");
+    }
+
+    private static int countOffset(int slot, P2PRelationship.RelType relType) {
+        return HEADER_SIZE + slot * SLOT_SIZE + 8 + relType.ordinal() * 8;
+    }
+
+    private static int tableSize(int expectedPeers) {
+        int cap = MIN_CAPACITY;
+        while(cap < expectedPeers * 2 && cap < (1 << 24)) cap <<= 1;
+        return cap;
+    }
+
+    /**
+     * FNV-1a over the address characters; zero is reserved for empty slots.
+     */
+    private static long hash(String address) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < address.length(); i++) {
+            h ^= address.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+}
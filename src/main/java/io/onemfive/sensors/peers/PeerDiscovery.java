@@ -59,16 +59,26 @@ public  class PeerDiscovery extends SensorTask {
                 LOG.warning("No seeds available! Please provide at least one seed!");
                 return false;
             }
-        } else if(totalKnown < SensorsConfig.MaxPT) {
-            LOG.info(totalKnown+" known peers less than Maximum Peers Tracked of "+ SensorsConfig.MaxPT+"; continuing peer discovery...");
+        } else if(totalKnown < SensorsConfig.MinPT) {
+            LOG.info(totalKnown+" known peers less than Minimum Peers Tracked of "+ SensorsConfig.MinPT+"; fanning out peer discovery...");
+            List<NetworkPeer> peers = service.getPeerManager().getRandomPeers(localPeer, P2PRelationship.RelType.Known, SensorsConfig.MaxPS);
+            for(NetworkPeer p : peers) {
+                service.pingOut(p);
+            }
+            LOG.info("Sent Peer Status Requests to "+peers.size()+" Known Peers.");
+        } else {
+            if(totalKnown < SensorsConfig.MaxPT) {
+                LOG.info(totalKnown+" known peers less than Maximum Peers Tracked of "+ SensorsConfig.MaxPT+"; continuing peer discovery...");
+            } else {
+                // Keep discovering so fresh peers can replace evicted ones
+                LOG.info("Maximum Peers Tracked of "+ SensorsConfig.MaxPT+" reached; continuing peer discovery with eviction...");
+            }
             NetworkPeer p = service.getPeerManager().getRandomPeer(localPeer);
             if(p != null) {
                 LOG.info("Sending Peer Status Request to Known Peer...");
                 service.pingOut(p);
                 LOG.info("Sent Peer Status Request to Known Peer.");
             }
-        } else {
-            LOG.info("Maximum Peers Tracked of "+ SensorsConfig.MaxPT+" reached. No need to look for more.");
         }
         firstRun = false;
         return true;
@@ -0,0 +1,413 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.sensors.PacketWire;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Reliable peer lists exchanged with each peer in PeerStatus requests and responses,
+ * sent as the changes since the list the peer last acknowledged holding.
+ *
+ * Each list carries the gossip attribute with the digest of the sender's full list and
+ * the digest of the list it holds from the receiver, which acknowledges the last list
+ * the receiver sent. Lists are digested as the sum of a 64 bit hash of each address
+ * so the digest does not depend on order. A delta's peers are only those added;
+ * removed peers are sent as the hashes of their addresses along with the digest of
+ * the list the delta applies to. A full list is sent when no list sent has been
+ * acknowledged, when the digests disagree, or when a delta would be no smaller.
+ *
+ * Peers without gossip send no attribute; their lists are taken as full and they
+ * are always sent full lists, which they read as before as the attribute is ignored.
+ *
+ * The full list held from each peer is kept, with the peers' records, as its reliables
+ * now that its packets may only carry the peers it added.
+ */
+public class PeerGossip {
+
+    private static final Logger LOG = Logger.getLogger(PeerGossip.class.getName());
+
+    // Attribute of PeerStatus packets describing the peer list they carry
+    public static final String ATTRIBUTE = "gossip";
+
+    private static final String FULL = "full";
+    private static final String DIGEST = "digest";
+    private static final String BASE = "base";
+    private static final String HELD = "held";
+    private static final String REMOVED = "removed";
+
+    // Lists sent to a peer kept awaiting its acknowledgement
+    private static final int MAX_UNACKED = 4;
+
+    /**
+     * Peer list to send a peer: its peers and the gossip attribute describing them.
+     */
+    public static class Outgoing {
+        private final List<NetworkPeer> peers;
+        private final Map<String, Object> attribute;
+        private final boolean full;
+
+        Outgoing(List<NetworkPeer> peers, Map<String, Object> attribute, boolean full) {
+            this.peers = peers;
+            this.attribute = attribute;
+            this.full = full;
+        }
+
+        public List<NetworkPeer> getPeers() {
+            return peers;
+        }
+
+        public Map<String, Object> getAttribute() {
+            return attribute;
+        }
+
+        public boolean isFull() {
+            return full;
+        }
+    }
+
+    /**
+     * Addresses of a peer list with their digest and, for lists held from a peer, their records.
+     */
+    private static class PeerSet {
+        final Set<String> addresses;
+        final long digest;
+        final Map<String, NetworkPeer> peers;
+
+        PeerSet(Set<String> addresses) {
+            this(addresses, null);
+        }
+
+        PeerSet(Map<String, NetworkPeer> peers) {
+            this(peers.keySet(), peers);
+        }
+
+        private PeerSet(Set<String> addresses, Map<String, NetworkPeer> peers) {
+            this.addresses = addresses;
+            this.peers = peers;
+            long d = 0;
+            for(String a : addresses) {
+                d += hash(a);
+            }
+            this.digest = d;
+        }
+    }
+
+    /**
+     * Lists exchanged with one peer.
+     */
+    private static class State {
+        // List the peer acknowledged holding from this node; null to send it a full list
+        PeerSet acked;
+        // Lists sent to the peer not yet acknowledged, by digest
+        final Map<Long, PeerSet> unacked = new LinkedHashMap<Long, PeerSet>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, PeerSet> eldest) {
+                return size() > MAX_UNACKED;
+            }
+        };
+        // List held from the peer; null when out of step with it
+        PeerSet held;
+    }
+
+    private final int maxTracked;
+    private final Map<String, State> states;
+
+    private final AtomicLong fullSent = new AtomicLong();
+    private final AtomicLong deltasSent = new AtomicLong();
+    private final AtomicLong peersSent = new AtomicLong();
+    private final AtomicLong peersReceived = new AtomicLong();
+    private final AtomicLong outOfStep = new AtomicLong();
+
+    /**
+     * @param maxTracked peers whose lists are tracked; the least recently exchanged with are forgotten
+     */
+    public PeerGossip(int maxTracked) {
+        this.maxTracked = maxTracked;
+        this.states = new LinkedHashMap<String, State>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, State> eldest) {
+                return size() > PeerGossip.this.maxTracked;
+            }
+        };
+    }
+
+    /**
+     * Build the list to send the peer from the reliables this node shares,
+     * remembering it until the peer acknowledges holding it.
+     */
+    public synchronized Outgoing toSend(NetworkPeer to, List<NetworkPeer> reliables) {
+        State s = state(to);
+        PeerSet current = new PeerSet(addresses(reliables));
+        Map<String, Object> attribute = new HashMap<>();
+        attribute.put(DIGEST, hex(current.digest));
+        if(s == null) return full(reliables, attribute);
+        if(s.held != null) {
+            attribute.put(HELD, hex(s.held.digest));
+        }
+        s.unacked.put(current.digest, current);
+        if(s.acked != null) {
+            List<NetworkPeer> added = new ArrayList<>();
+            for(NetworkPeer p : reliables) {
+                if(p.getAddress() != null && !s.acked.addresses.contains(p.getAddress())) added.add(p);
+            }
+            List<String> removed = new ArrayList<>();
+            for(String a : s.acked.addresses) {
+                if(!current.addresses.contains(a)) removed.add(hex(hash(a)));
+            }
+            if(added.size() + removed.size() < current.addresses.size()) {
+                attribute.put(BASE, hex(s.acked.digest));
+                if(!removed.isEmpty()) attribute.put(REMOVED, removed);
+                deltasSent.incrementAndGet();
+                peersSent.addAndGet(added.size());
+                return new Outgoing(added, attribute, false);
+            }
+        }
+        return full(reliables, attribute);
+    }
+
+    private Outgoing full(List<NetworkPeer> reliables, Map<String, Object> attribute) {
+        attribute.put(FULL, true);
+        fullSent.incrementAndGet();
+        peersSent.addAndGet(reliables.size());
+        return new Outgoing(reliables, attribute, true);
+    }
+
+    /**
+     * Take note of a list received from the peer: the list of this node's it acknowledges
+     * holding and the changes to its own list.
+     * @param peers the peers the list carried: the peer's full list or those it added
+     * @param attribute the list's gossip attribute or null if the peer sent none
+     */
+    public synchronized void received(NetworkPeer from, List<NetworkPeer> peers, Map<String, Object> attribute) {
+        State s = state(from);
+        if(s == null) return;
+        if(peers == null) peers = new ArrayList<>();
+        if(attribute == null) {
+            // Without gossip lists are always full and never acknowledged
+            s.held = new PeerSet(records(peers));
+            s.acked = null;
+            s.unacked.clear();
+            return;
+        }
+        acknowledged(s, digest(attribute.get(HELD)));
+        Long target = digest(attribute.get(DIGEST));
+        Long base = digest(attribute.get(BASE));
+        if(Boolean.TRUE.equals(attribute.get(FULL))) {
+            s.held = new PeerSet(records(peers));
+        } else if(s.held != null && target != null && s.held.digest == target) {
+            // A list already applied, sent again
+            return;
+        } else if(s.held != null && base != null && s.held.digest == base) {
+            Map<String, NetworkPeer> applied = new LinkedHashMap<>(s.held.peers);
+            Object removed = attribute.get(REMOVED);
+            if(removed instanceof List) {
+                Set<String> removedHashes = new HashSet<>();
+                for(Object h : (List<?>)removed) {
+                    removedHashes.add(String.valueOf(h));
+                }
+                applied.keySet().removeIf(a -> removedHashes.contains(hex(hash(a))));
+            }
+            applied.putAll(records(peers));
+            s.held = new PeerSet(applied);
+        } else {
+            s.held = null;
+        }
+        if(s.held == null || target == null || s.held.digest != target) {
+            // Leaving held unset asks the peer for its full list
+            LOG.info("Peer list from "+from.getAddress()+" out of step; asking for the full list.");
+            outOfStep.incrementAndGet();
+            s.held = null;
+            return;
+        }
+        peersReceived.addAndGet(peers.size());
+    }
+
+    private void acknowledged(State s, Long held) {
+        if(held == null) {
+            s.acked = null;
+            return;
+        }
+        PeerSet acked = s.unacked.get(held);
+        if(acked != null) {
+            s.acked = acked;
+            s.unacked.clear();
+        } else if(s.acked != null && s.acked.digest != held) {
+            s.acked = null;
+        }
+    }
+
+    /**
+     * @return the peer's full list as last applied, whether it came full or as changes,
+     * or null if none is held as when out of step with the peer
+     */
+    public synchronized List<NetworkPeer> held(NetworkPeer peer) {
+        if(peer == null || peer.getAddress() == null) return null;
+        State s = states.get(peer.getAddress());
+        if(s == null || s.held == null) return null;
+        return new ArrayList<>(s.held.peers.values());
+    }
+
+    /**
+     * Forget the lists exchanged with a peer so it is next sent a full list.
+     */
+    public synchronized void forget(NetworkPeer peer) {
+        if(peer != null && peer.getAddress() != null) {
+            states.remove(peer.getAddress());
+        }
+    }
+
+    private State state(NetworkPeer peer) {
+        if(peer == null || peer.getAddress() == null) return null;
+        return states.computeIfAbsent(peer.getAddress(), a -> new State());
+    }
+
+    private static Map<String, NetworkPeer> records(List<NetworkPeer> peers) {
+        Map<String, NetworkPeer> records = new LinkedHashMap<>();
+        for(NetworkPeer p : peers) {
+            if(p.getAddress() != null) records.put(p.getAddress(), p);
+        }
+        return records;
+    }
+
+    private static Set<String> addresses(List<NetworkPeer> peers) {
+        Set<String> addresses = new HashSet<>();
+        for(NetworkPeer p : peers) {
+            if(p.getAddress() != null) addresses.add(p.getAddress());
+        }
+        return addresses;
+    }
+
+    /**
+     * FNV-1a over the address's UTF-8 bytes finished with the SplitMix64 mix
+     * so digests of lists differing in a peer are unlikely to collide.
+     */
+    static long hash(String address) {
+        long h = 0xcbf29ce484222325L;
+        for(byte b : address.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    // Digests go as hex strings as JSON numbers may not keep all 64 bits
+    private static String hex(long digest) {
+        return Long.toHexString(digest);
+    }
+
+    private static Long digest(Object hex) {
+        if(!(hex instanceof String)) return null;
+        try {
+            return Long.parseUnsignedLong((String)hex, 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static final int BINARY_FULL = 1;
+    private static final int BINARY_DIGEST = 2;
+    private static final int BINARY_HELD = 4;
+    private static final int BINARY_BASE = 8;
+    private static final int BINARY_REMOVED = 16;
+
+    /**
+     * Write a gossip attribute for the binary wire format: a byte of flags telling which
+     * attributes follow, the digests as 8 bytes each, then the count and hashes of removed peers.
+     */
+    public static void writeAttribute(ByteBuffer buf, Map<String, Object> attribute) {
+        Long digest = digest(attribute.get(DIGEST));
+        Long held = digest(attribute.get(HELD));
+        Long base = digest(attribute.get(BASE));
+        List<Long> removed = new ArrayList<>();
+        if(attribute.get(REMOVED) instanceof List) {
+            for(Object h : (List<?>)attribute.get(REMOVED)) {
+                Long r = digest(h);
+                if(r != null) removed.add(r);
+            }
+        }
+        int flags = 0;
+        if(Boolean.TRUE.equals(attribute.get(FULL))) flags |= BINARY_FULL;
+        if(digest != null) flags |= BINARY_DIGEST;
+        if(held != null) flags |= BINARY_HELD;
+        if(base != null) flags |= BINARY_BASE;
+        if(!removed.isEmpty()) flags |= BINARY_REMOVED;
+        buf.put((byte)flags);
+        if(digest != null) buf.putLong(digest);
+        if(held != null) buf.putLong(held);
+        if(base != null) buf.putLong(base);
+        if(!removed.isEmpty()) {
+            PacketWire.writeVarint(buf, removed.size());
+            for(long r : removed) {
+                buf.putLong(r);
+            }
+        }
+    }
+
+    /**
+     * Read a gossip attribute written by writeAttribute back into the map sent as JSON.
+     */
+    public static Map<String, Object> readAttribute(ByteBuffer buf) {
+        int flags = buf.get();
+        Map<String, Object> attribute = new HashMap<>();
+        if((flags & BINARY_FULL) != 0) attribute.put(FULL, true);
+        if((flags & BINARY_DIGEST) != 0) attribute.put(DIGEST, hex(buf.getLong()));
+        if((flags & BINARY_HELD) != 0) attribute.put(HELD, hex(buf.getLong()));
+        if((flags & BINARY_BASE) != 0) attribute.put(BASE, hex(buf.getLong()));
+        if((flags & BINARY_REMOVED) != 0) {
+            long n = PacketWire.readVarint(buf);
+            if(n < 0 || n > buf.remaining() / 8) throw new IllegalArgumentException("More removed peers than bytes");
+            List<String> removed = new ArrayList<>((int)n);
+            for(long i = 0; i < n; i++) {
+                removed.add(hex(buf.getLong()));
+            }
+            attribute.put(REMOVED, removed);
+        }
+        return attribute;
+    }
+
+    public synchronized int getTracked() {
+        return states.size();
+    }
+
+    public long getFullSent() {
+        return fullSent.get();
+    }
+
+    public long getDeltasSent() {
+        return deltasSent.get();
+    }
+
+    /**
+     * @return peer records sent in full lists and deltas
+     */
+    public long getPeersSent() {
+        return peersSent.get();
+    }
+
+    /**
+     * @return peer records received in lists applied
+     */
+    public long getPeersReceived() {
+        return peersReceived.get();
+    }
+
+    /**
+     * @return lists received that could not be applied or whose digest disagreed
+     */
+    public long getOutOfStep() {
+        return outOfStep.get();
+    }
+}
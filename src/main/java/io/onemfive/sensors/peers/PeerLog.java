@@ -0,0 +1,189 @@
+package io.onemfive.sensors.peers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Memory-mapped append-only log of peers, typed relationships, and relationship stats
+ * referencing peers by primitive int ids.
+ *
+ * Layout: a header of [magic][version][end offset] followed by records of
+ * [type][payload length][payload]. The end offset is advanced only after a record
+ * is fully written so a torn trailing record is ignored on replay.
+ */
+public class PeerLog {
+
+    private static final Logger LOG = Logger.getLogger(PeerLog.class.getName());
+
+    public static final byte PEER = 1;
+    public static final byte REL_ADD = 2;
+    public static final byte REL_REMOVE = 3;
+    public static final byte REL_STATS = 4;
+    public static final byte PEER_REMOVE = 5;
+
+    private static final int MAGIC = 0x314D354C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int END_OFFSET = 8;
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final int MIN_SIZE = 64 * 1024;
+
+    /**
+     * Receives records in the order they were appended.
+     */
+    public interface Replay {
+        void peer(int id, Map<String, Object> peer);
+        void peerRemoved(int id);
+        void relationship(int fromId, P2PRelationship.RelType relType, int toId, boolean added);
+        void stats(int fromId, int toId, Map<String, Object> stats);
+    }
+
+    private final File file;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int end;
+    private long records;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    public PeerLog(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized void open() throws IOException {
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        raf = new RandomAccessFile(file, "rw");
+        if(exists) {
+            map((int)Math.max(file.length(), MIN_SIZE));
+            if(buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+                end = (int)buffer.getLong(END_OFFSET);
+                return;
+            }
+            LOG.warning("Peer log "+file.getName()+" not recognized; starting new log.");
+        } else {
+            map(MIN_SIZE);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        setEnd(HEADER_SIZE);
+    }
+
+    public synchronized void replay(Replay replay) throws IOException {
+        int position = HEADER_SIZE;
+        records = 0;
+        while(position + RECORD_HEADER_SIZE <= end) {
+            byte type = buffer.get(position);
+            int length = buffer.getInt(position + 1);
+            byte[] payload = new byte[length];
+            for(int i = 0; i < length; i++) payload[i] = buffer.get(position + RECORD_HEADER_SIZE + i);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            switch (type) {
+                case PEER: replay.peer(in.readInt(), PropertyCodec.readMap(in)); break;
+                case PEER_REMOVE: replay.peerRemoved(in.readInt()); break;
+                case REL_ADD:
+                case REL_REMOVE: {
+                    int fromId = in.readInt();
+                    P2PRelationship.RelType relType = P2PRelationship.RelType.values()[in.readByte()];
+                    replay.relationship(fromId, relType, in.readInt(), type == REL_ADD);
+                    break;
+                }
+                case REL_STATS: replay.stats(in.readInt(), in.readInt(), PropertyCodec.readMap(in)); break;
+                default: throw new IOException("Unknown peer log record type "+type+" at "+position);
+            }
+            records++;
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    public synchronized void appendPeer(int id, Map<String, Object> peer) throws IOException {
+        bytes.reset();
+        out.writeInt(id);
+        PropertyCodec.writeMap(out, peer);
+        append(PEER);
+    }
+
+    public synchronized void appendPeerRemoved(int id) throws IOException {
+        bytes.reset();
+        out.writeInt(id);
+        append(PEER_REMOVE);
+    }
+
+    public synchronized void appendRelationship(int fromId, P2PRelationship.RelType relType, int toId, boolean added) throws IOException {
+        bytes.reset();
+        out.writeInt(fromId);
+        out.writeByte(relType.ordinal());
+        out.writeInt(toId);
+        append(added ? REL_ADD : REL_REMOVE);
+    }
+
+    public synchronized void appendStats(int fromId, int toId, Map<String, Object> stats) throws IOException {
+        bytes.reset();
+        out.writeInt(fromId);
+        out.writeInt(toId);
+        PropertyCodec.writeMap(out, stats);
+        append(REL_STATS);
+    }
+
+    /**
+     * @return number of records appended or replayed since opened
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    public synchronized void force() {
+        if(buffer != null) buffer.force();
+    }
+
+    public synchronized void close() {
+        if(buffer == null) return;
+        buffer.force();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LOG.warning(e.getLocalizedMessage());
+        }
+        buffer = null;
+    }
+
+    private void append(byte type) throws IOException {
+        out.flush();
+        int length = bytes.size();
+        int required = end + RECORD_HEADER_SIZE + length;
+        if(required > buffer.capacity()) {
+            long size = buffer.capacity();
+            while(size < required) size *= 2;
+            if(size > Integer.MAX_VALUE) throw new IOException("Peer log full; compaction required.");
+            map((int)size);
+        }
+        byte[] payload = bytes.toByteArray();
+        buffer.put(end, type);
+        buffer.putInt(end + 1, length);
+        for(int i = 0; i < length; i++) buffer.put(end + RECORD_HEADER_SIZE + i, payload[i]);
+        setEnd(required);
+        records++;
+    }
+
+    private void setEnd(int end) {
+        this.end = end;
+        buffer.putLong(END_OFFSET, end);
+    }
+
+    private void map(int size) throws IOException {
+        if(raf.length() < size) raf.setLength(size);
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+}
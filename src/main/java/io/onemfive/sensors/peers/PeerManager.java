@@ -4,20 +4,33 @@ import io.onemfive.core.keyring.AuthNRequest;
 import io.onemfive.data.DID;
 import io.onemfive.data.NetworkPeer;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 
 public interface PeerManager extends Runnable {
     Boolean init(Properties properties);
+    Boolean shutdown();
     void updateLocalPeer(AuthNRequest request);
     void updateLocalPeer(DID did);
     NetworkPeer getLocalPeer();
     Boolean verifyPeer(NetworkPeer peer);
     Boolean savePeer(NetworkPeer peer, Boolean autocreate);
+    Boolean savePeers(NetworkPeer remotePeer, List<NetworkPeer> peers);
     List<NetworkPeer> getAllPeers(NetworkPeer fromPeer, int pageSize, int beginIndex);
+    PeerPage getPeers(NetworkPeer fromPeer, P2PRelationship.RelType relType, int pageSize, String continuation);
+    Iterator<NetworkPeer> iteratePeers(NetworkPeer fromPeer, P2PRelationship.RelType relType, int pageSize);
     Long totalPeers(NetworkPeer fromPeer, P2PRelationship.RelType relType);
     NetworkPeer getRandomPeer(NetworkPeer fromPeer);
+    List<NetworkPeer> getRandomPeers(NetworkPeer fromPeer, P2PRelationship.RelType relType, int k);
     List<NetworkPeer> getReliablesToShare(NetworkPeer fromPeer);
+    List<NetworkPeer> getReliablesToShare(NetworkPeer fromPeer, NetworkPeer toPeer);
+    List<NetworkPeer> findLowestLatencyPath(NetworkPeer toPeer, int maxHops);
     void reliablesFromRemotePeer(NetworkPeer remotePeer, List<NetworkPeer> reliables);
     Boolean savePeerStatusTimes(NetworkPeer fromPeer, NetworkPeer toPeer, Long sent, Long acknowledged);
+    List<AckObservation> savePeerStatusTimes(List<AckObservation> observations);
+    Boolean savePeerStatusFailure(NetworkPeer fromPeer, NetworkPeer toPeer, Long timeSent);
+    boolean isBanned(NetworkPeer peer);
+    boolean isBanned(String address);
+    Boolean banPeer(NetworkPeer peer);
 }
@@ -0,0 +1,52 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.data.NetworkPeer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A page of peers in stable address order with an opaque continuation token
+ * to request the page following it.
+ */
+public class PeerPage {
+
+    private final List<NetworkPeer> peers;
+    private final String continuation;
+
+    public PeerPage(List<NetworkPeer> peers, String continuation) {
+        this.peers = peers;
+        this.continuation = continuation;
+    }
+
+    public List<NetworkPeer> getPeers() {
+        return peers;
+    }
+
+    /**
+     * @return token to supply for the next page or null if this is the last page
+     */
+    public String getContinuation() {
+        return continuation;
+    }
+
+    public boolean hasMore() {
+        return continuation != null;
+    }
+
+    /**
+     * @return opaque continuation token resuming after the supplied key
+     */
+    public static String continuationAfter(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the key to resume after for the supplied continuation token; empty if starting from the beginning
+     */
+    public static String keyOf(String continuation) {
+        if(continuation == null || continuation.isEmpty()) return "";
+        return new String(Base64.getUrlDecoder().decode(continuation), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,37 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.core.util.tasks.TaskRunner;
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.sensors.SensorTask;
+import io.onemfive.sensors.SensorsConfig;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Periodically prune peers not acked within the prune horizon from the peer store.
+ * Each run is time boxed and picks up where the last one stopped so it never holds up discovery.
+ */
+public class PeerPruneTask extends SensorTask {
+
+    private static final Logger LOG = Logger.getLogger(PeerPruneTask.class.getName());
+
+    private final BasePeerManager peerManager;
+
+    public PeerPruneTask(String taskName, TaskRunner taskRunner, Properties properties, BasePeerManager peerManager) {
+        super(taskName, taskRunner, properties, SensorsConfig.PruneI * 1000L);
+        this.peerManager = peerManager;
+    }
+
+    @Override
+    public Boolean execute() {
+        long now = System.currentTimeMillis();
+        List<NetworkPeer> pruned = peerManager.prune(now - SensorsConfig.PruneH * 60 * 60 * 1000L, now + SensorsConfig.PruneTB);
+        LOG.info("Pruned "+pruned.size()+" stale peers in "+(System.currentTimeMillis() - now)+"ms.");
+        if(!pruned.isEmpty()) {
+            peerManager.reportPruned(pruned);
+        }
+        return true;
+    }
+}
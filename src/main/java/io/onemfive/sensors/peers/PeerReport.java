@@ -7,4 +7,14 @@ import java.util.List;
 public interface PeerReport {
     void report(NetworkPeer networkPeer);
     void report(List<NetworkPeer> networkPeers);
+
+    /**
+     * Peers removed from the peer store for going unacked beyond the prune horizon.
+     */
+    void reportPruned(List<NetworkPeer> networkPeers);
+
+    /**
+     * @return ack round trip latencies of requests from one peer to a Known peer or null if not Known
+     */
+    LatencyHistogram getAckLatencies(NetworkPeer fromPeer, NetworkPeer toPeer);
 }
@@ -0,0 +1,127 @@
+package io.onemfive.sensors.peers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of peers, their P2P relationships, and Known relationship ack stats
+ * used to warm-start a Peer Manager without waiting on Peer Discovery.
+ *
+ * Relationships reference peers by their position in the snapshot's peer list.
+ * Each snapshot carries the generation the store was marked with when it was taken,
+ * so a store can tell whether it has lost what a snapshot holds without relying on file times.
+ */
+public class PeerSnapshot {
+
+    private static final int MAGIC = 0x314D3553;
+    private static final int VERSION = 2;
+
+    public static class Relationship {
+        public final int start;
+        public final P2PRelationship.RelType relType;
+        public final int end;
+        // Relationship properties or null if none
+        public final Map<String, Object> stats;
+
+        public Relationship(int start, P2PRelationship.RelType relType, int end, Map<String, Object> stats) {
+            this.start = start;
+            this.relType = relType;
+            this.end = end;
+            this.stats = stats;
+        }
+    }
+
+    private final long generation;
+    private final List<Map<String, Object>> peers = new ArrayList<>();
+    private final List<Relationship> relationships = new ArrayList<>();
+
+    public PeerSnapshot(long generation) {
+        this.generation = generation;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return position of the peer for relating it
+     */
+    public int addPeer(Map<String, Object> peer) {
+        peers.add(peer);
+        return peers.size() - 1;
+    }
+
+    public void addRelationship(int start, P2PRelationship.RelType relType, int end, Map<String, Object> stats) {
+        relationships.add(new Relationship(start, relType, end, stats));
+    }
+
+    public List<Map<String, Object>> getPeers() {
+        return peers;
+    }
+
+    public List<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * Write to a temporary file then move it over the supplied file so a crash
+     * mid-write never replaces the last good snapshot.
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(peers.size());
+            for(Map<String, Object> p : peers) {
+                PropertyCodec.writeMap(out, p);
+            }
+            out.writeInt(relationships.size());
+            for(Relationship r : relationships) {
+                out.writeInt(r.start);
+                out.writeByte(r.relType.ordinal());
+                out.writeInt(r.end);
+                out.writeBoolean(r.stats != null);
+                if(r.stats != null) PropertyCodec.writeMap(out, r.stats);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the snapshot or null if the file does not exist
+     */
+    public static PeerSnapshot read(File file) throws IOException {
+        if(!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unrecognized peer snapshot: "+file.getName());
+            }
+            PeerSnapshot s = new PeerSnapshot(in.readLong());
+            int numberPeers = in.readInt();
+            for(int i = 0; i < numberPeers; i++) {
+                s.addPeer(PropertyCodec.readMap(in));
+            }
+            int numberRelationships = in.readInt();
+            for(int i = 0; i < numberRelationships; i++) {
+                int start = in.readInt();
+                P2PRelationship.RelType relType = P2PRelationship.RelType.values()[in.readByte()];
+                int end = in.readInt();
+                s.addRelationship(start, relType, end, in.readBoolean() ? PropertyCodec.readMap(in) : null);
+            }
+            return s;
+        }
+    }
+}
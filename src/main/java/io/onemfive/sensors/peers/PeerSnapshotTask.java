@@ -0,0 +1,29 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.core.util.tasks.TaskRunner;
+import io.onemfive.sensors.SensorTask;
+import io.onemfive.sensors.SensorsConfig;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Periodically snapshot the peer graph so a restart can warm-start from it.
+ */
+public class PeerSnapshotTask extends SensorTask {
+
+    private static final Logger LOG = Logger.getLogger(PeerSnapshotTask.class.getName());
+
+    private final GraphPeerManager peerManager;
+
+    public PeerSnapshotTask(String taskName, TaskRunner taskRunner, Properties properties, GraphPeerManager peerManager) {
+        super(taskName, taskRunner, properties, SensorsConfig.SI * 1000L);
+        this.peerManager = peerManager;
+    }
+
+    @Override
+    public Boolean execute() {
+        LOG.info("Snapshotting peers...");
+        return peerManager.snapshot();
+    }
+}
@@ -0,0 +1,294 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.core.util.AppThread;
+import io.onemfive.data.NetworkPeer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Requests sent to peers awaiting a response, keyed by request id.
+ *
+ * Round trip times are measured locally with the monotonic clock and each peer's retransmission
+ * timeout (RTO) is derived from them TCP style (RFC 6298): a smoothed RTT and RTT variance
+ * with RTO = SRTT + 4 * RTTVAR, bounded by the min and max RTO. Only responses to requests
+ * sent once are sampled as a response to a retransmitted request is ambiguous (Karn's algorithm).
+ *
+ * Expiry runs on a hashed timer wheel so tracking and acknowledging are O(1).
+ * Each timeout is handed to the ack pipeline as a failure of the peer, doubles the peer's RTO,
+ * and retransmits the request until the max retransmissions have been sent after which it is
+ * given up on. Estimators are kept for the peers most recently sampled up to the max tracked.
+ */
+public class PendingRequests<R> {
+
+    private static final Logger LOG = Logger.getLogger(PendingRequests.class.getName());
+
+    private static final long TICK_MS = 100;
+    private static final int SLOTS = 512;
+    // Clock granularity (G) in RFC 6298
+    private static final long GRANULARITY_MS = TICK_MS;
+
+    /**
+     * Sends a request again after it timed out.
+     */
+    public interface Retransmitter<R> {
+        void retransmit(R request);
+    }
+
+    /**
+     * Smoothed RTT and RTT variance of a peer in milliseconds.
+     */
+    private static class RttEstimator {
+        double srtt = -1;
+        double rttvar;
+        long rto;
+
+        RttEstimator(long initialRTO) {
+            rto = initialRTO;
+        }
+    }
+
+    private class Pending {
+        final String id;
+        final NetworkPeer fromPeer;
+        final NetworkPeer toPeer;
+        final R request;
+        final long firstSentAt = System.currentTimeMillis();
+        volatile long sentNanos = System.nanoTime();
+        volatile int retransmits = 0;
+        long expiryTick;
+
+        Pending(String id, NetworkPeer fromPeer, NetworkPeer toPeer, R request) {
+            this.id = id;
+            this.fromPeer = fromPeer;
+            this.toPeer = toPeer;
+            this.request = request;
+        }
+    }
+
+    private final AckPipeline ackPipeline;
+    private final Retransmitter<R> retransmitter;
+    private final long initialRTO;
+    private final long minRTO;
+    private final long maxRTO;
+    private final int maxRetransmits;
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final Map<String, RttEstimator> estimators;
+    @SuppressWarnings("unchecked")
+    private final List<Pending>[] wheel = new List[SLOTS];
+    private long tick = 0;
+    private volatile boolean running = false;
+    private AppThread ticker;
+
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong retransmitted = new AtomicLong();
+    private final AtomicLong givenUp = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+
+    /**
+     * @param maxTracked peers whose RTT estimators are kept; the least recently used are forgotten
+     */
+    public PendingRequests(AckPipeline ackPipeline, Retransmitter<R> retransmitter, long initialRTO, long minRTO, long maxRTO, int maxRetransmits, int maxTracked) {
+        this.ackPipeline = ackPipeline;
+        this.retransmitter = retransmitter;
+        this.estimators = Collections.synchronizedMap(new LinkedHashMap<String, RttEstimator>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RttEstimator> eldest) {
+                return size() > maxTracked;
+            }
+        });
+        this.initialRTO = initialRTO;
+        this.minRTO = minRTO;
+        this.maxRTO = maxRTO;
+        this.maxRetransmits = maxRetransmits;
+        for(int i = 0; i < SLOTS; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    public void start() {
+        running = true;
+        ticker = new AppThread(this::run);
+        ticker.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        if(ticker != null) {
+            try {
+                ticker.join(TICK_MS * 4);
+            } catch (InterruptedException e) {
+                LOG.warning("Interrupted waiting on pending request timer to stop.");
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Start the request's timer just before it is sent.
+     */
+    public void track(String id, NetworkPeer fromPeer, NetworkPeer toPeer, R request) {
+        if(id == null || toPeer == null || toPeer.getAddress() == null) return;
+        Pending p = new Pending(id, fromPeer, toPeer, request);
+        pending.put(id, p);
+        schedule(p, rto(toPeer.getAddress()));
+    }
+
+    /**
+     * Stop the request's timer on its response.
+     * @return round trip time in milliseconds or -1 if not pending or retransmitted
+     * as then it is not known which transmission was responded to
+     */
+    public long acknowledged(String id) {
+        Pending p = id == null ? null : pending.remove(id);
+        if(p == null) return -1;
+        acknowledged.incrementAndGet();
+        if(p.retransmits > 0) return -1;
+        long rtt = (System.nanoTime() - p.sentNanos) / 1000000L;
+        sample(p.toPeer.getAddress(), rtt);
+        return rtt;
+    }
+
+    private void sample(String address, long rtt) {
+        RttEstimator e = estimators.computeIfAbsent(address, a -> new RttEstimator(initialRTO));
+        synchronized (e) {
+            if(e.srtt < 0) {
+                e.srtt = rtt;
+                e.rttvar = rtt / 2.0;
+            } else {
+                e.rttvar = 0.75 * e.rttvar + 0.25 * Math.abs(e.srtt - rtt);
+                e.srtt = 0.875 * e.srtt + 0.125 * rtt;
+            }
+            e.rto = bound((long)(e.srtt + Math.max(GRANULARITY_MS, 4 * e.rttvar)));
+        }
+    }
+
+    private long backOff(String address) {
+        RttEstimator e = estimators.computeIfAbsent(address, a -> new RttEstimator(initialRTO));
+        synchronized (e) {
+            e.rto = bound(e.rto * 2);
+            return e.rto;
+        }
+    }
+
+    private long bound(long rto) {
+        return Math.max(minRTO, Math.min(maxRTO, rto));
+    }
+
+    private void schedule(Pending p, long delayMS) {
+        synchronized (wheel) {
+            // Round up so a request never expires early
+            p.expiryTick = tick + Math.max(1, (delayMS + TICK_MS - 1) / TICK_MS);
+            wheel[(int)(p.expiryTick % SLOTS)].add(p);
+        }
+    }
+
+    private void run() {
+        long next = System.nanoTime() + TICK_MS * 1000000L;
+        while(running) {
+            long sleep = (next - System.nanoTime()) / 1000000L;
+            if(sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    LOG.info("Pending request timer interrupted.");
+                    return;
+                }
+            }
+            next += TICK_MS * 1000000L;
+            List<Pending> expired = new ArrayList<>();
+            synchronized (wheel) {
+                tick++;
+                Iterator<Pending> i = wheel[(int)(tick % SLOTS)].iterator();
+                while(i.hasNext()) {
+                    Pending p = i.next();
+                    if(p.expiryTick > tick) continue;
+                    i.remove();
+                    // Acknowledged requests are left on the wheel and skipped here
+                    if(pending.get(p.id) == p) {
+                        expired.add(p);
+                    }
+                }
+            }
+            for(Pending p : expired) {
+                try {
+                    timedOut(p);
+                } catch (Exception e) {
+                    LOG.warning("Handling timed out request failed: "+e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    private void timedOut(Pending p) {
+        timeouts.incrementAndGet();
+        String address = p.toPeer.getAddress();
+        long rto = backOff(address);
+        LOG.info("Request "+p.id+" to "+address+" timed out; RTO now "+rto+" ms.");
+        // Saved by the ack writer so the timer is never held up on the peer store
+        ackPipeline.offer(AckObservation.failure(p.fromPeer, p.toPeer, p.firstSentAt));
+        if(p.retransmits >= maxRetransmits) {
+            pending.remove(p.id, p);
+            givenUp.incrementAndGet();
+            return;
+        }
+        p.retransmits++;
+        p.sentNanos = System.nanoTime();
+        retransmitted.incrementAndGet();
+        schedule(p, rto);
+        retransmitter.retransmit(p.request);
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * @return current retransmission timeout in milliseconds for the peer
+     */
+    public long rto(String address) {
+        RttEstimator e = estimators.get(address);
+        if(e == null) return initialRTO;
+        synchronized (e) {
+            return e.rto;
+        }
+    }
+
+    /**
+     * @return smoothed round trip time in milliseconds for the peer or -1 if not yet sampled
+     */
+    public long srtt(String address) {
+        RttEstimator e = estimators.get(address);
+        if(e == null) return -1;
+        synchronized (e) {
+            return (long)e.srtt;
+        }
+    }
+
+    public long getAcknowledged() {
+        return acknowledged.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getRetransmitted() {
+        return retransmitted.get();
+    }
+
+    /**
+     * @return requests that timed out after the max retransmissions
+     */
+    public long getGivenUp() {
+        return givenUp.get();
+    }
+}
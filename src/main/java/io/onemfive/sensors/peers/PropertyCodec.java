@@ -0,0 +1,113 @@
+package io.onemfive.sensors.peers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact tagged binary encoding of peer and relationship property maps
+ * for the peer stores that do not live in the graph.
+ *
+ * Supports the value types used by NetworkPeer and P2PRelationship maps:
+ * String, Long, Integer, Double, Boolean, long[], and nested Maps and Lists of them.
+ */
+public final class PropertyCodec {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte LONG = 2;
+    private static final byte INTEGER = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte LONG_ARRAY = 6;
+    private static final byte MAP = 7;
+    private static final byte LIST = 8;
+
+    private PropertyCodec() {}
+
+    public static void writeMap(DataOutput out, Map<String, Object> m) throws IOException {
+        out.writeInt(m.size());
+        for(Map.Entry<String, Object> e : m.entrySet()) {
+            out.writeUTF(e.getKey());
+            writeValue(out, e.getValue());
+        }
+    }
+
+    public static Map<String, Object> readMap(DataInput in) throws IOException {
+        int size = in.readInt();
+        Map<String, Object> m = new HashMap<>(size * 2);
+        for(int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            m.put(key, readValue(in));
+        }
+        return m;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(DataOutput out, Object v) throws IOException {
+        if(v == null) {
+            out.writeByte(NULL);
+        } else if(v instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String)v);
+        } else if(v instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long)v);
+        } else if(v instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)v);
+        } else if(v instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)v);
+        } else if(v instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean)v);
+        } else if(v instanceof long[]) {
+            long[] a = (long[])v;
+            out.writeByte(LONG_ARRAY);
+            out.writeInt(a.length);
+            for(long l : a) out.writeLong(l);
+        } else if(v instanceof Map) {
+            out.writeByte(MAP);
+            writeMap(out, (Map<String, Object>)v);
+        } else if(v instanceof List) {
+            List<Object> l = (List<Object>)v;
+            out.writeByte(LIST);
+            out.writeInt(l.size());
+            for(Object o : l) writeValue(out, o);
+        } else {
+            // Fall back to the value's string form as JSON serialization would
+            out.writeByte(STRING);
+            out.writeUTF(v.toString());
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL: return null;
+            case STRING: return in.readUTF();
+            case LONG: return in.readLong();
+            case INTEGER: return in.readInt();
+            case DOUBLE: return in.readDouble();
+            case BOOLEAN: return in.readBoolean();
+            case LONG_ARRAY: {
+                long[] a = new long[in.readInt()];
+                for(int i = 0; i < a.length; i++) a[i] = in.readLong();
+                return a;
+            }
+            case MAP: return readMap(in);
+            case LIST: {
+                int size = in.readInt();
+                List<Object> l = new ArrayList<>(size);
+                for(int i = 0; i < size; i++) l.add(readValue(in));
+                return l;
+            }
+            default: throw new IOException("Unknown property type: "+type);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.onemfive.sensors.peers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * In-memory adjacency index of peer relationships keyed by
+ * start address, relationship type, and end address.
+ *
+ * Written through by the Peer Manager whenever a relationship is
+ * created or removed so that relationship lookups, counts, and random
+ * peer selection never have to touch the underlying store.
+ */
+public class RelationshipIndex {
+
+    private final Map<String, Map<P2PRelationship.RelType, AddressSet>> index = new ConcurrentHashMap<>();
+
+    public boolean add(String startAddress, P2PRelationship.RelType relType, String endAddress) {
+        if(startAddress==null || relType==null || endAddress==null) return false;
+        return index.computeIfAbsent(startAddress, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(relType, k -> new AddressSet())
+                .add(endAddress);
+    }
+
+    public boolean remove(String startAddress, P2PRelationship.RelType relType, String endAddress) {
+        AddressSet ends = ends(startAddress, relType);
+        return ends != null && endAddress != null && ends.remove(endAddress);
+    }
+
+    public boolean contains(String startAddress, P2PRelationship.RelType relType, String endAddress) {
+        AddressSet ends = ends(startAddress, relType);
+        return ends != null && endAddress != null && ends.contains(endAddress);
+    }
+
+    public int count(String startAddress, P2PRelationship.RelType relType) {
+        AddressSet ends = ends(startAddress, relType);
+        return ends == null ? 0 : ends.size();
+    }
+
+    /**
+     * @return snapshot of the end addresses related to the start address by the relationship type
+     */
+    public List<String> related(String startAddress, P2PRelationship.RelType relType) {
+        AddressSet ends = ends(startAddress, relType);
+        return ends == null ? Collections.<String>emptyList() : ends.toList();
+    }
+
+    /**
+     * @return a uniformly selected related end address or null if none
+     */
+    public String random(String startAddress, P2PRelationship.RelType relType) {
+        AddressSet ends = ends(startAddress, relType);
+        return ends == null ? null : ends.random(ThreadLocalRandom.current());
+    }
+
+    /**
+     * @param weight weight of each end address within [0,1]
+     * @return a related end address selected in proportion to its weight or null if none
+     */
+    public String randomWeighted(String startAddress, P2PRelationship.RelType relType, ToDoubleFunction<String> weight) {
+        AddressSet ends = ends(startAddress, relType);
+        return ends == null ? null : ends.randomWeighted(ThreadLocalRandom.current(), weight);
+    }
+
+    /**
+     * @return up to k distinct uniformly selected related end addresses
+     */
+    public List<String> sample(String startAddress, P2PRelationship.RelType relType, int k) {
+        AddressSet ends = ends(startAddress, relType);
+        return ends == null ? Collections.<String>emptyList() : ends.sample(ThreadLocalRandom.current(), k);
+    }
+
+    public Set<String> startAddresses() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public void clear() {
+        index.clear();
+    }
+
+    private AddressSet ends(String startAddress, P2PRelationship.RelType relType) {
+        if(startAddress==null || relType==null) return null;
+        Map<P2PRelationship.RelType, AddressSet> byType = index.get(startAddress);
+        return byType == null ? null : byType.get(relType);
+    }
+
+    /**
+     * @return the P2P relationship type of the supplied name or null if it is not one (e.g. Alias)
+     */
+    public static P2PRelationship.RelType relType(String name) {
+        for(P2PRelationship.RelType t : P2PRelationship.RelType.values()) {
+            if(t.name().equals(name)) return t;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.sensors.SensorsConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Evicts the peer with the lowest reliability score among a small random sample, decaying
+ * each score from when it was last updated with the same half-life as the score itself.
+ * Peers added score as if just acked once so a new peer is not evicted ahead of one that has
+ * gone stale or keeps failing. Eviction costs O(SAMPLES).
+ */
+public class SampledScoreEviction implements EvictionPolicy {
+
+    private static final int SAMPLES = 5;
+    // Score of a single ack, decaying from when the peer was added until first scored
+    static final double ADDED_SCORE = 1.0;
+
+    private final AddressSet peers = new AddressSet();
+    private final Map<String, double[]> scores = new HashMap<>();
+
+    @Override
+    public synchronized void add(String address) {
+        peers.add(address);
+        scores.putIfAbsent(address, new double[]{ADDED_SCORE, System.currentTimeMillis()});
+    }
+
+    @Override
+    public void acked(String address, double reliabilityScore) {
+        score(address, reliabilityScore);
+    }
+
+    @Override
+    public void failed(String address, double reliabilityScore) {
+        score(address, reliabilityScore);
+    }
+
+    private synchronized void score(String address, double reliabilityScore) {
+        if(peers.contains(address)) {
+            scores.put(address, new double[]{reliabilityScore, System.currentTimeMillis()});
+        }
+    }
+
+    @Override
+    public synchronized void remove(String address) {
+        peers.remove(address);
+        scores.remove(address);
+    }
+
+    @Override
+    public synchronized String evict() {
+        long now = System.currentTimeMillis();
+        String victim = null;
+        double lowest = Double.MAX_VALUE;
+        for(String address : peers.sample(ThreadLocalRandom.current(), SAMPLES)) {
+            double[] s = scores.get(address);
+            double score = s == null ? 0.0 : s[0] * Math.pow(0.5, (now - s[1]) / (SensorsConfig.RelHL * 60 * 60 * 1000.0));
+            if(score < lowest) {
+                lowest = score;
+                victim = address;
+            }
+        }
+        if(victim != null) {
+            remove(victim);
+        }
+        return victim;
+    }
+
+    @Override
+    public synchronized int size() {
+        return peers.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        for(String address : peers.toList()) {
+            peers.remove(address);
+        }
+        scores.clear();
+    }
+}
@@ -0,0 +1,42 @@
+package io.onemfive.sensors;
+
+import io.onemfive.data.Envelope;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DispatchPipelineTest {
+
+    @Test
+    public void failedEnvelopeHandledAndCounted() {
+        Envelope bad = Envelope.documentFactory();
+        List<Envelope> sent = Collections.synchronizedList(new ArrayList<>());
+        List<Envelope> failed = Collections.synchronizedList(new ArrayList<>());
+        DispatchPipeline pipeline = new DispatchPipeline(
+                new String[] {"Verify", "Send"},
+                new DispatchPipeline.Stage[] {
+                        d -> {
+                            if(d.envelope == bad) throw new IllegalStateException("Malformed");
+                            return true;
+                        },
+                        d -> sent.add(d.envelope)},
+                1, 10, 100, (d, e) -> failed.add(d.envelope));
+        pipeline.start();
+        Envelope first = Envelope.documentFactory();
+        Envelope last = Envelope.documentFactory();
+        assertTrue(pipeline.submit(first, null, "peer"));
+        assertTrue(pipeline.submit(bad, null, "peer"));
+        assertTrue(pipeline.submit(last, null, "peer"));
+        pipeline.shutdown(1000);
+        // The worker carries on past the failed envelope keeping the rest in order
+        assertEquals(2, sent.size());
+        assertSame(first, sent.get(0));
+        assertSame(last, sent.get(1));
+        assertEquals(Collections.singletonList(bad), failed);
+        assertEquals(1L, pipeline.getFailed());
+    }
+}
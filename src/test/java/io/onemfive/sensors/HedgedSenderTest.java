@@ -0,0 +1,195 @@
+package io.onemfive.sensors;
+
+import io.onemfive.data.Envelope;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HedgedSenderTest {
+
+    private static final long BUDGET_MS = 50;
+
+    /**
+     * Envelope queued on a sensor awaiting the test to decide its outcome.
+     */
+    private static class Queued {
+        final Sensor sensor;
+        final Envelope envelope;
+        final SensorOutboundQueue.SendListener listener;
+
+        Queued(Sensor sensor, Envelope envelope, SensorOutboundQueue.SendListener listener) {
+            this.sensor = sensor;
+            this.envelope = envelope;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Listener recording the outcome reported to the caller.
+     */
+    private static class Outcome implements SensorOutboundQueue.SendListener {
+        final List<String> told = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void sent(Sensor sensor, Envelope envelope) {
+            told.add("sent");
+        }
+
+        @Override
+        public void failed(Sensor sensor, Envelope envelope) {
+            told.add("failed");
+        }
+    }
+
+    private final Sensor primary = sensor();
+    private final Sensor escalated = sensor();
+    private final BlockingQueue<Queued> primarySends = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Queued> escalatedSends = new LinkedBlockingQueue<>();
+    private final List<Envelope> cancelled = Collections.synchronizedList(new ArrayList<>());
+    private final SensorOutboundQueue primaryQueue = queue(primary);
+    private final SensorOutboundQueue escalatedQueue = queue(escalated);
+    private HedgedSender sender;
+
+    private static Sensor sensor() {
+        return (Sensor)Proxy.newProxyInstance(Sensor.class.getClassLoader(), new Class<?>[]{Sensor.class}, (proxy, method, args) -> {
+            if("getStatus".equals(method.getName())) return SensorStatus.NETWORK_CONNECTED;
+            if("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+            if("equals".equals(method.getName())) return proxy == args[0];
+            return null;
+        });
+    }
+
+    /**
+     * Never started so its p95 stays 0 and the minimum budget applies; records envelopes withdrawn.
+     */
+    private SensorOutboundQueue queue(Sensor sensor) {
+        return new SensorOutboundQueue(sensor, 16, 1, 500, 1) {
+            @Override
+            public boolean cancel(Envelope envelope) {
+                cancelled.add(envelope);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Sensor manager queuing envelopes for the test to confirm or fail and escalating the primary sensor.
+     */
+    private SensorManager sensorManager() {
+        return (SensorManager)Proxy.newProxyInstance(SensorManager.class.getClassLoader(), new Class<?>[]{SensorManager.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "sendQueued": {
+                    Queued q = new Queued((Sensor)args[0], (Envelope)args[1], (SensorOutboundQueue.SendListener)args[2]);
+                    (q.sensor == primary ? primarySends : escalatedSends).add(q);
+                    return true;
+                }
+                case "getOutboundQueue": return args[0] == primary ? primaryQueue : escalatedQueue;
+                case "getEscalatedSensor": return args[0] == primary ? escalated : null;
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+                default: return null;
+            }
+        });
+    }
+
+    private void start(int hedgePercent) {
+        sender = new HedgedSender(sensorManager(), e -> Envelope.documentFactory(), hedgePercent, BUDGET_MS);
+        sender.start();
+    }
+
+    @After
+    public void tearDown() {
+        sender.shutdown();
+    }
+
+    /**
+     * @return the primary send and its hedge once the budget has run out
+     */
+    private Queued[] sendHedged(Outcome outcome) throws InterruptedException {
+        Envelope envelope = Envelope.documentFactory();
+        assertTrue(sender.send(primary, envelope, outcome));
+        Queued p = primarySends.poll(1, TimeUnit.SECONDS);
+        Queued h = escalatedSends.poll(1, TimeUnit.SECONDS);
+        assertNotNull(p);
+        assertNotNull(h);
+        assertSame(envelope, p.envelope);
+        assertNotSame(envelope, h.envelope);
+        return new Queued[]{p, h};
+    }
+
+    @Test
+    public void hedgeWins() throws Exception {
+        start(100);
+        Outcome outcome = new Outcome();
+        Queued[] sends = sendHedged(outcome);
+        sends[1].listener.sent(escalated, sends[1].envelope);
+        // Original withdrawn and a late confirmation of it not reported again
+        assertEquals(Collections.singletonList(sends[0].envelope), cancelled);
+        sends[0].listener.sent(primary, sends[0].envelope);
+        assertEquals(Collections.singletonList("sent"), outcome.told);
+        assertEquals(1L, sender.getHedged());
+        assertEquals(1L, sender.getHedgesWon());
+        assertEquals(0L, sender.getHedgesLost());
+    }
+
+    @Test
+    public void primaryWinsWithinBudget() throws Exception {
+        start(100);
+        Outcome outcome = new Outcome();
+        assertTrue(sender.send(primary, Envelope.documentFactory(), outcome));
+        Queued p = primarySends.poll(1, TimeUnit.SECONDS);
+        p.listener.sent(primary, p.envelope);
+        assertNull(escalatedSends.poll(BUDGET_MS * 4, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("sent"), outcome.told);
+        assertEquals(0L, sender.getHedged());
+    }
+
+    @Test
+    public void hedgeCancelledOnceOriginalConfirmed() throws Exception {
+        start(100);
+        Outcome outcome = new Outcome();
+        Queued[] sends = sendHedged(outcome);
+        sends[0].listener.sent(primary, sends[0].envelope);
+        assertEquals(Collections.singletonList(sends[1].envelope), cancelled);
+        sends[1].listener.sent(escalated, sends[1].envelope);
+        assertEquals(Collections.singletonList("sent"), outcome.told);
+        assertEquals(1L, sender.getHedgesLost());
+        assertEquals(0L, sender.getHedgesWon());
+    }
+
+    @Test
+    public void failedOnlyOnceBothFail() throws Exception {
+        start(100);
+        Outcome outcome = new Outcome();
+        Queued[] sends = sendHedged(outcome);
+        sends[0].listener.failed(primary, sends[0].envelope);
+        // The hedge may still deliver
+        assertTrue(outcome.told.isEmpty());
+        sends[1].listener.failed(escalated, sends[1].envelope);
+        assertEquals(Collections.singletonList("failed"), outcome.told);
+        assertTrue(cancelled.isEmpty());
+    }
+
+    @Test
+    public void hedgesCappedAtHedgePercent() throws Exception {
+        start(50);
+        // Half a hedge earned so the first late send is not hedged
+        assertTrue(sender.send(primary, Envelope.documentFactory(), new Outcome()));
+        assertNotNull(primarySends.poll(1, TimeUnit.SECONDS));
+        assertNull(escalatedSends.poll(BUDGET_MS * 4, TimeUnit.MILLISECONDS));
+        assertTrue(sender.getHedgesCapped() > 0);
+        // The second earns the rest
+        sendHedged(new Outcome());
+        assertNull(escalatedSends.poll(BUDGET_MS * 4, TimeUnit.MILLISECONDS));
+        assertEquals(1L, sender.getHedged());
+    }
+}
@@ -0,0 +1,93 @@
+package io.onemfive.sensors;
+
+import io.onemfive.data.Envelope;
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.data.util.JSONParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound packets decoded and dispatched per second through the packet registry against the
+ * reflection it replaced, which parsed every packet in full, looked its class up by name,
+ * instantiated it reflectively and picked its handler with a switch on the class name.
+ * Packets of an unknown type are also measured as the registry rejects them from a scan of
+ * the JSON's top-level keys while reflection parsed them first. Handlers read the from peer
+ * as the banned peer check does.
+ *
+ * Run with: mvn test-compile exec:exec@jmh -Djmh.include=PacketDispatchBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PacketDispatchBenchmark {
+
+    private static final String UNKNOWN = "io.onemfive.sensors.packet.Unknown";
+
+    @Param({"known", "unknown"})
+    public String type;
+
+    private PacketRegistry registry;
+    private String json;
+    private long handled = 0;
+    private long rejected = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new PacketRegistry();
+        registry.register(Packet.class.getName(), Packet::new, this::handle);
+        Packet p = new Packet().setId("1").setFromPeer(peer("from")).setToPeer(peer("to"))
+                .setOriginationPeer(peer("from")).setDestinationPeer(peer("to"));
+        p.setEnvelope(Envelope.documentFactory());
+        Map<String, Object> m = p.toMap();
+        m.put(PacketRegistry.TYPE, "known".equals(type) ? Packet.class.getName() : UNKNOWN);
+        json = JSONParser.toString(m);
+    }
+
+    private static NetworkPeer peer(String name) {
+        NetworkPeer peer = new NetworkPeer();
+        StringBuilder address = new StringBuilder(name);
+        // About the length of a Base64 I2P destination
+        while(address.length() < 516) address.append('A');
+        peer.setAddress(address.toString());
+        peer.setFingerprint(name);
+        return peer;
+    }
+
+    private void handle(Packet packet) {
+        if(packet.getFromPeer() != null) handled++;
+    }
+
+    @Benchmark
+    public long registry() {
+        PacketRegistry.Codec<? extends Packet> codec = registry.get(PacketRegistry.typeOf(json));
+        if(codec == null) return ++rejected;
+        Map<String, Object> mp = (Map<String, Object>)JSONParser.parse(json);
+        Packet packet = codec.create();
+        packet.fromMap(mp);
+        codec.handle(packet);
+        return handled;
+    }
+
+    @Benchmark
+    public long reflection() {
+        Map<String, Object> mp = (Map<String, Object>)JSONParser.parse(json);
+        String t = (String)mp.get(PacketRegistry.TYPE);
+        Packet packet;
+        try {
+            packet = (Packet)Class.forName(t).getConstructor().newInstance();
+        } catch (Exception e) {
+            return ++rejected;
+        }
+        packet.fromMap(mp);
+        switch(t) {
+            case "io.onemfive.sensors.Packet": handle(packet); break;
+            default: rejected++;
+        }
+        return handled;
+    }
+}
@@ -0,0 +1,218 @@
+package io.onemfive.sensors;
+
+import io.onemfive.core.*;
+import io.onemfive.data.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PacketFieldsTest {
+
+    private PacketRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new PacketRegistry();
+        registry.register(PeerStatusRequest.class.getName(), PeerStatusRequest::new, p -> {}, PacketFields.PEER_STATUS);
+        registry.register(ResponsePacket.class.getName(), ResponsePacket::new, p -> {}, PacketFields.response(registry));
+    }
+
+    static NetworkPeer peer(int seed) {
+        byte[] destination = new byte[387];
+        Arrays.fill(destination, (byte)seed);
+        byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte)(seed + 1));
+        NetworkPeer p = new NetworkPeer();
+        p.setAddress(Base64.getUrlEncoder().encodeToString(destination).replace('_', '~'));
+        p.setFingerprint(Base64.getEncoder().encodeToString(hash));
+        p.setI2PAddress(p.getAddress());
+        p.setI2PFingerprint(p.getFingerprint());
+        return p;
+    }
+
+    static PeerStatusRequest request(int reliables) {
+        PeerStatusRequest ps = new PeerStatusRequest(peer(1), peer(2));
+        ps.setId("ps-1");
+        ps.setTimeSent(1500000000000L);
+        List<NetworkPeer> peers = new ArrayList<>();
+        for(int i = 0; i < reliables; i++) {
+            peers.add(peer(10 + i));
+        }
+        ps.setReliablePeers(peers);
+        return ps;
+    }
+
+    private Packet roundTrip(Packet packet) {
+        String type = packet.getClass().getName();
+        PacketRegistry.Codec<? extends Packet> codec = registry.get(type);
+        assertTrue(codec.isBinaryEncodable(packet));
+        ByteBuffer buf = PacketWire.encode(codec, packet, type);
+        assertEquals(type, PacketWire.readType(buf));
+        Packet read = PacketWire.decode(registry.get(type), buf);
+        assertNotNull(read);
+        assertFalse(buf.hasRemaining());
+        return read;
+    }
+
+    private static void assertPeer(NetworkPeer expected, NetworkPeer actual) {
+        if(expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.getNetwork(), actual.getNetwork());
+        assertEquals(expected.getAddress(), actual.getAddress());
+        assertEquals(expected.getFingerprint(), actual.getFingerprint());
+        assertEquals(expected.getI2PAddress(), actual.getI2PAddress());
+        assertEquals(expected.getI2PFingerprint(), actual.getI2PFingerprint());
+        assertEquals(expected.toMap(), actual.toMap());
+    }
+
+    private static void assertPeers(List<NetworkPeer> expected, List<NetworkPeer> actual) {
+        if(expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++) {
+            assertPeer(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void peerStatusRoundTrip() {
+        PeerStatusRequest ps = request(5);
+        PeerStatusRequest read = (PeerStatusRequest)roundTrip(ps);
+        assertEquals(ps.getId(), read.getId());
+        assertPeer(ps.getFromPeer(), read.getFromPeer());
+        assertPeer(ps.getToPeer(), read.getToPeer());
+        assertNull(read.getOriginationPeer());
+        assertEquals(ps.getTimeSent(), read.getTimeSent());
+        assertPeers(ps.getReliablePeers(), read.getReliablePeers());
+    }
+
+    @Test
+    public void peerStatusWithoutReliablesRoundTrip() {
+        PeerStatusRequest ps = request(0);
+        assertTrue(((PeerStatusRequest)roundTrip(ps)).getReliablePeers().isEmpty());
+        ps.setReliablePeers(null);
+        assertNull(((PeerStatusRequest)roundTrip(ps)).getReliablePeers());
+    }
+
+    @Test
+    public void responseRoundTrip() {
+        PeerStatusRequest ps = request(3);
+        ps.setTimeAcknowledged(1500000000250L);
+        ResponsePacket res = new ResponsePacket(ps, ps.getToPeer(), ps.getFromPeer(), StatusCode.OK, ps.getId());
+        res.setTimeSent(1500000000200L);
+        ResponsePacket read = (ResponsePacket)roundTrip(res);
+        assertEquals(res.getId(), read.getId());
+        assertEquals(StatusCode.OK, read.getStatusCode());
+        assertPeer(res.getFromPeer(), read.getFromPeer());
+        assertPeer(res.getToPeer(), read.getToPeer());
+        assertEquals(res.getTimeSent(), read.getTimeSent());
+        PeerStatusRequest req = (PeerStatusRequest)read.getRequest();
+        assertEquals(ps.getId(), req.getId());
+        assertPeer(ps.getFromPeer(), req.getFromPeer());
+        assertPeer(ps.getToPeer(), req.getToPeer());
+        assertEquals(ps.getTimeSent(), req.getTimeSent());
+        assertEquals(ps.getTimeAcknowledged(), req.getTimeAcknowledged());
+        assertPeers(ps.getReliablePeers(), req.getReliablePeers());
+    }
+
+    @Test
+    public void responseToUnregisteredTypeSentAsJSON() {
+        PacketRegistry responsesOnly = new PacketRegistry();
+        responsesOnly.register(ResponsePacket.class.getName(), ResponsePacket::new, p -> {}, PacketFields.response(responsesOnly));
+        PeerStatusRequest ps = request(1);
+        ResponsePacket res = new ResponsePacket(ps, ps.getToPeer(), ps.getFromPeer(), StatusCode.OK, ps.getId());
+        assertFalse(responsesOnly.get(ResponsePacket.class.getName()).isBinaryEncodable(res));
+    }
+
+    @Test
+    public void peerAttributesRoundTrip() {
+        PeerStatusRequest ps = request(1);
+        NetworkPeer from = ps.getFromPeer();
+        Map<String, Object> m = from.toMap();
+        m.put("torAddress", "2gzyxa5ihm7nsggfxnu52rck2vv4rvmdlkiu3zzui5du4xyclen53wid.onion");
+        from.fromMap(m);
+        ps.setFromPeer(from);
+        PeerStatusRequest read = (PeerStatusRequest)roundTrip(ps);
+        assertPeer(from, read.getFromPeer());
+        assertPeer(ps.getToPeer(), read.getToPeer());
+    }
+
+    @Test
+    public void gossipRoundTrip() {
+        PeerStatusRequest ps = request(2);
+        String type = ps.getClass().getName();
+        Map<String, Object> gossip = new HashMap<>();
+        gossip.put("digest", "8f3e5a0c1d2b4e6f");
+        gossip.put("held", "1a");
+        gossip.put("base", "ffffffffffffffff");
+        gossip.put("removed", Arrays.asList("2b", "3c"));
+        ByteBuffer buf = PacketWire.encode(registry.get(type), ps, type, gossip);
+        assertEquals(type, PacketWire.readType(buf));
+        PeerStatusRequest read = (PeerStatusRequest)PacketWire.decode(registry.get(type), buf);
+        assertPeers(ps.getReliablePeers(), read.getReliablePeers());
+        assertEquals(gossip, PacketWire.readGossip(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void packetWithoutGossipHasNone() {
+        PeerStatusRequest ps = request(2);
+        String type = ps.getClass().getName();
+        ByteBuffer buf = PacketWire.encode(registry.get(type), ps, type);
+        PacketWire.readType(buf);
+        assertNotNull(PacketWire.decode(registry.get(type), buf));
+        assertNull(PacketWire.readGossip(buf));
+    }
+
+    @Test
+    public void unknownSectionSkipped() {
+        PeerStatusRequest ps = request(1);
+        String type = ps.getClass().getName();
+        ByteBuffer encoded = PacketWire.encode(registry.get(type), ps, type);
+        // A section from a later version ahead of no gossip
+        ByteBuffer buf = ByteBuffer.allocate(encoded.limit() + 4);
+        buf.put(encoded).put((byte)9).put((byte)2).put((byte)0).put((byte)0);
+        buf.putInt(3, buf.position() - 7);
+        buf.flip();
+        assertEquals(type, PacketWire.readType(buf));
+        assertNotNull(PacketWire.decode(registry.get(type), buf));
+        assertNull(PacketWire.readGossip(buf));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedGossipRejected() {
+        PeerStatusRequest ps = request(1);
+        String type = ps.getClass().getName();
+        Map<String, Object> gossip = new HashMap<>();
+        gossip.put("digest", "1a");
+        ByteBuffer buf = PacketWire.encode(registry.get(type), ps, type, gossip);
+        PacketWire.readType(buf);
+        PacketWire.decode(registry.get(type), buf);
+        buf.limit(buf.limit() - 1);
+        PacketWire.readGossip(buf);
+    }
+
+    @Test
+    public void truncatedPacketRejected() {
+        PeerStatusRequest ps = request(2);
+        String type = ps.getClass().getName();
+        ByteBuffer buf = PacketWire.encode(registry.get(type), ps, type);
+        assertEquals(type, PacketWire.readType(buf));
+        buf.limit(buf.limit() - 10);
+        assertNull(PacketWire.decode(registry.get(type), buf));
+    }
+}
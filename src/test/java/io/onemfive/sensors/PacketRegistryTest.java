@@ -0,0 +1,91 @@
+package io.onemfive.sensors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PacketRegistryTest {
+
+    private static final String TYPE = Packet.class.getName();
+
+    @Test
+    public void typeOfReadsTopLevelType() {
+        assertEquals(TYPE, PacketRegistry.typeOf("{\"id\":\"1\",\"type\":\""+TYPE+"\"}"));
+        assertEquals(TYPE, PacketRegistry.typeOf(" { \"type\" : \""+TYPE+"\" , \"id\" : \"1\" } "));
+    }
+
+    @Test
+    public void typeOfUnknownTypeReturnedForRegistryToReject() {
+        PacketRegistry registry = new PacketRegistry();
+        registry.register(TYPE, Packet::new, p -> {});
+        String type = PacketRegistry.typeOf("{\"type\":\"io.onemfive.sensors.Unknown\"}");
+        assertEquals("io.onemfive.sensors.Unknown", type);
+        assertFalse(registry.isRegistered(type));
+        assertNull(registry.get(type));
+    }
+
+    @Test
+    public void typeOfMissingType() {
+        assertNull(PacketRegistry.typeOf("{\"id\":\"1\"}"));
+        assertNull(PacketRegistry.typeOf("{}"));
+        assertNull(PacketRegistry.typeOf(""));
+        assertNull(PacketRegistry.typeOf("[\"type\",\""+TYPE+"\"]"));
+    }
+
+    @Test
+    public void typeOfSkipsNestedTypes() {
+        assertNull(PacketRegistry.typeOf("{\"data\":{\"type\":\""+TYPE+"\"}}"));
+        assertNull(PacketRegistry.typeOf("{\"peers\":[{\"type\":\""+TYPE+"\"}]}"));
+        assertEquals(TYPE, PacketRegistry.typeOf("{\"data\":{\"type\":\"nested\"},\"type\":\""+TYPE+"\"}"));
+        assertEquals(TYPE, PacketRegistry.typeOf("{\"peers\":[{\"type\":\"a\"},{\"type\":\"b\"}],\"type\":\""+TYPE+"\"}"));
+    }
+
+    @Test
+    public void typeOfSkipsTypeAsValue() {
+        assertNull(PacketRegistry.typeOf("{\"name\":\"type\"}"));
+        assertEquals(TYPE, PacketRegistry.typeOf("{\"name\":\"type\",\"type\":\""+TYPE+"\"}"));
+    }
+
+    @Test
+    public void typeOfSkipsEscapedQuotes() {
+        assertEquals(TYPE, PacketRegistry.typeOf("{\"note\":\"a \\\"type\\\": \\\"x\\\"\",\"type\":\""+TYPE+"\"}"));
+        assertEquals(TYPE, PacketRegistry.typeOf("{\"note\":\"ends in \\\\\",\"type\":\""+TYPE+"\"}"));
+    }
+
+    @Test
+    public void typeOfNotAString() {
+        assertNull(PacketRegistry.typeOf("{\"type\":1}"));
+        assertNull(PacketRegistry.typeOf("{\"type\":null}"));
+        assertNull(PacketRegistry.typeOf("{\"type\":{\"name\":\""+TYPE+"\"}}"));
+        assertNull(PacketRegistry.typeOf("{\"type\"}"));
+    }
+
+    @Test
+    public void typeOfEscapedOrUnterminated() {
+        // Left to the full parse
+        assertNull(PacketRegistry.typeOf("{\"type\":\"io.onemfive\\u002esensors.Packet\"}"));
+        assertNull(PacketRegistry.typeOf("{\"type\":\""+TYPE));
+        assertNull(PacketRegistry.typeOf("{\"id\":\"1"));
+    }
+
+    @Test
+    public void registeredTypeCreatedAndHandled() {
+        PacketRegistry registry = new PacketRegistry();
+        List<Packet> handled = new ArrayList<>();
+        assertTrue(registry.register(TYPE, Packet::new, handled::add));
+        assertFalse(registry.register(TYPE, Packet::new, p -> fail("Replaced the first registration")));
+        PacketRegistry.Codec<? extends Packet> codec = registry.get(PacketRegistry.typeOf("{\"type\":\""+TYPE+"\"}"));
+        assertNotNull(codec);
+        Packet p = codec.create();
+        codec.handle(p);
+        assertEquals(1, handled.size());
+        assertSame(p, handled.get(0));
+        assertTrue(registry.unregister(TYPE));
+        assertFalse(registry.isRegistered(TYPE));
+        assertFalse(registry.unregister(TYPE));
+        assertNull(registry.get(null));
+    }
+}
@@ -0,0 +1,142 @@
+package io.onemfive.sensors;
+
+import io.onemfive.data.Envelope;
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.data.util.JSONParser;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PacketTest {
+
+    /**
+     * Subclass adding a field of its own as packet types do.
+     */
+    public static class NotePacket extends Packet {
+        private String note;
+
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = super.toMap();
+            if(note != null) m.put("note", note);
+            return m;
+        }
+
+        @Override
+        public void fromMap(Map<String, Object> m) {
+            super.fromMap(m);
+            note = (String)m.get("note");
+        }
+    }
+
+    private static NotePacket packet() {
+        NotePacket p = new NotePacket();
+        p.setId("1");
+        p.setOriginationPeer(PacketFieldsTest.peer(1));
+        p.setFromPeer(PacketFieldsTest.peer(2));
+        p.setToPeer(PacketFieldsTest.peer(3));
+        p.setDestinationPeer(PacketFieldsTest.peer(4));
+        p.setEnvelope(Envelope.documentFactory());
+        p.note = "note";
+        return p;
+    }
+
+    private static void assertPeer(NetworkPeer expected, NetworkPeer actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getAddress(), actual.getAddress());
+        assertEquals(expected.getFingerprint(), actual.getFingerprint());
+    }
+
+    private static void assertDecoded(NotePacket expected, NotePacket p) {
+        assertEquals(expected.getId(), p.getId());
+        assertPeer(expected.getOriginationPeer(), p.getOriginationPeer());
+        assertPeer(expected.getFromPeer(), p.getFromPeer());
+        assertPeer(expected.getToPeer(), p.getToPeer());
+        assertPeer(expected.getDestinationPeer(), p.getDestinationPeer());
+        assertNotNull(p.getEnvelope());
+    }
+
+    @Test
+    public void subclassDecodedFromMap() {
+        NotePacket sent = packet();
+        NotePacket p = new NotePacket();
+        p.fromMap((Map<String, Object>)JSONParser.parse(JSONParser.toString(sent.toMap())));
+        assertEquals("note", p.note);
+        assertDecoded(sent, p);
+    }
+
+    @Test
+    public void subclassDecodedFromBinary() {
+        NotePacket sent = packet();
+        PacketRegistry registry = new PacketRegistry();
+        registry.register(NotePacket.class.getName(), NotePacket::new, n -> {}, new PacketRegistry.Fields<NotePacket>() {
+            @Override
+            public void write(NotePacket packet, ByteBuffer buf) {
+                PacketWire.writeString(buf, packet.note);
+            }
+
+            @Override
+            public NotePacket read(NotePacket packet, ByteBuffer buf) {
+                packet.note = PacketWire.readString(buf);
+                return packet;
+            }
+        });
+        String type = NotePacket.class.getName();
+        ByteBuffer buf = PacketWire.encode(registry.get(type), sent, type);
+        assertEquals(type, PacketWire.readType(buf));
+        NotePacket p = (NotePacket)PacketWire.decode(registry.get(type), buf);
+        assertEquals("note", p.note);
+        assertDecoded(sent, p);
+    }
+
+    private static void assertAddresses(NotePacket sent, NotePacket p) {
+        assertArrayEquals(new String[] {sent.getFromPeer().getAddress(), sent.getFromPeer().getI2PAddress()}, p.getFromAddresses());
+        assertArrayEquals(new String[] {sent.getOriginationPeer().getAddress(), sent.getOriginationPeer().getI2PAddress()}, p.getOriginationAddresses());
+        // Read as received and not decoded
+        assertNull(p.fromPeer);
+        assertNull(p.originationPeer);
+        assertPeer(sent.getFromPeer(), p.getFromPeer());
+        assertNotNull(p.fromPeer);
+        assertArrayEquals(new String[] {sent.getFromPeer().getAddress(), sent.getFromPeer().getI2PAddress()}, p.getFromAddresses());
+    }
+
+    @Test
+    public void addressesReadWithoutDecoding() {
+        NotePacket sent = packet();
+        NotePacket p = new NotePacket();
+        p.fromMap((Map<String, Object>)JSONParser.parse(JSONParser.toString(sent.toMap())));
+        assertAddresses(sent, p);
+        PacketRegistry registry = new PacketRegistry();
+        registry.register(NotePacket.class.getName(), NotePacket::new, n -> {}, new PacketRegistry.Fields<NotePacket>() {
+            @Override
+            public void write(NotePacket packet, ByteBuffer buf) {}
+
+            @Override
+            public NotePacket read(NotePacket packet, ByteBuffer buf) {
+                return packet;
+            }
+        });
+        String type = NotePacket.class.getName();
+        ByteBuffer buf = PacketWire.encode(registry.get(type), sent, type);
+        PacketWire.readType(buf);
+        assertAddresses(sent, (NotePacket)PacketWire.decode(registry.get(type), buf));
+        assertNull(new NotePacket().getFromAddresses());
+    }
+
+    @Test
+    public void undecodedFieldsPassedThrough() {
+        NotePacket sent = packet();
+        NotePacket p = new NotePacket();
+        p.fromMap(sent.toMap());
+        // Forwarded without being read
+        NotePacket forwarded = new NotePacket();
+        forwarded.fromMap((Map<String, Object>)JSONParser.parse(JSONParser.toString(p.toMap())));
+        assertDecoded(sent, forwarded);
+        p.setToPeer(PacketFieldsTest.peer(5));
+        assertPeer(PacketFieldsTest.peer(5), p.getToPeer());
+        assertPeer(sent.getFromPeer(), p.getFromPeer());
+    }
+}
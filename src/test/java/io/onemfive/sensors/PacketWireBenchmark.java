@@ -0,0 +1,83 @@
+package io.onemfive.sensors;
+
+import io.onemfive.core.*;
+import io.onemfive.data.*;
+import io.onemfive.data.util.JSONParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to encode and decode PeerStatus requests and their responses as JSON against the binary
+ * wire format, Base64 encoded as sensors carry it, each carrying MaxPS reliable peers with
+ * I2P destinations and hashes. Decoding reads the from peer and the reliable peers as
+ * dispatching does. The size of each encoding is printed at setup.
+ *
+ * Run with: mvn test-compile exec:exec@jmh -Djmh.include=PacketWireBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PacketWireBenchmark {
+
+    @Param({"request", "response"})
+    public String packet;
+
+    private PacketRegistry registry;
+    private PacketRegistry.Codec<? extends Packet> codec;
+    private CommunicationPacket p;
+    private String type;
+    private String json;
+    private String binary;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new PacketRegistry();
+        registry.register(PeerStatusRequest.class.getName(), PeerStatusRequest::new, r -> {}, PacketFields.PEER_STATUS);
+        registry.register(ResponsePacket.class.getName(), ResponsePacket::new, r -> {}, PacketFields.response(registry));
+        PeerStatusRequest ps = PacketFieldsTest.request(SensorsConfig.MaxPS);
+        p = "request".equals(packet) ? ps : new ResponsePacket(ps, ps.getToPeer(), ps.getFromPeer(), StatusCode.OK, ps.getId());
+        type = p.getClass().getName();
+        codec = registry.get(type);
+        json = jsonEncode();
+        binary = binaryEncode();
+        System.out.println(packet+" with "+SensorsConfig.MaxPS+" reliables: JSON "+json.length()+" B; binary "
+                +PacketWire.encode(codec, p, type).limit()+" B, "+binary.length()+" B Base64 encoded");
+    }
+
+    private static PeerStatusRequest peerStatus(Packet packet) {
+        return packet instanceof ResponsePacket ? (PeerStatusRequest)((ResponsePacket)packet).getRequest() : (PeerStatusRequest)packet;
+    }
+
+    @Benchmark
+    public String jsonEncode() {
+        return JSONParser.toString(p.toMap());
+    }
+
+    @Benchmark
+    public int jsonDecode() {
+        Packet read = codec.create();
+        read.fromMap((Map<String, Object>)JSONParser.parse(json));
+        return read.getFromPeer().hashCode() + peerStatus(read).getReliablePeers().size();
+    }
+
+    @Benchmark
+    public String binaryEncode() {
+        ByteBuffer buf = PacketWire.encode(codec, p, type);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(buf.array(), buf.limit()));
+    }
+
+    @Benchmark
+    public int binaryDecode() {
+        ByteBuffer buf = ByteBuffer.wrap(Base64.getDecoder().decode(binary));
+        Packet read = PacketWire.decode(registry.get(PacketWire.readType(buf)), buf);
+        return read.getFromPeer().hashCode() + peerStatus(read).getReliablePeers().size();
+    }
+}
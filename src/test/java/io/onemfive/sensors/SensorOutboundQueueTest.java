@@ -0,0 +1,98 @@
+package io.onemfive.sensors;
+
+import io.onemfive.data.Envelope;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SensorOutboundQueueTest {
+
+    private final Map<Envelope, String> destinations = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final List<Envelope> sent = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch release = new CountDownLatch(1);
+    private SensorOutboundQueue queue;
+
+    /**
+     * Sensor sending batches at once except those to the slow peer, which wait to be released.
+     */
+    private Sensor sensor() {
+        return (Sensor)Proxy.newProxyInstance(Sensor.class.getClassLoader(), new Class<?>[]{Sensor.class}, (proxy, method, args) -> {
+            if("sendBatch".equals(method.getName())) {
+                @SuppressWarnings("unchecked")
+                List<Envelope> batch = (List<Envelope>)args[0];
+                for(Envelope e : batch) {
+                    if("slow".equals(destinations.get(e))) release.await(5, TimeUnit.SECONDS);
+                    sent.add(e);
+                }
+                return new ArrayList<Envelope>();
+            }
+            if("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+            if("equals".equals(method.getName())) return proxy == args[0];
+            return null;
+        });
+    }
+
+    private Envelope envelope(String destination) {
+        Envelope e = Envelope.documentFactory();
+        destinations.put(e, destination);
+        return e;
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void slowPeerDoesNotHoldUpOthers() throws Exception {
+        // "slow" and "fast" hash to different stripes of four
+        queue = new SensorOutboundQueue(sensor(), 16, 4, 500, 4, destinations::get);
+        queue.start();
+        Envelope slow = envelope("slow");
+        assertTrue(queue.offer(slow, null));
+        CountDownLatch fastSent = new CountDownLatch(1);
+        Envelope fast = envelope("fast");
+        assertTrue(queue.offer(fast, new SensorOutboundQueue.SendListener() {
+            @Override
+            public void sent(Sensor sensor, Envelope envelope) {
+                fastSent.countDown();
+            }
+
+            @Override
+            public void failed(Sensor sensor, Envelope envelope) {}
+        }));
+        assertTrue(fastSent.await(2, TimeUnit.SECONDS));
+        assertFalse(sent.contains(slow));
+        release.countDown();
+        queue.shutdown(1000);
+        assertEquals(2, sent.size());
+        assertSame(slow, sent.get(1));
+    }
+
+    @Test
+    public void samePeerKeepsOrder() {
+        queue = new SensorOutboundQueue(sensor(), 128, 4, 500, 4, destinations::get);
+        List<Envelope> queued = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            queued.add(envelope("fast"));
+        }
+        queue.start();
+        for(Envelope e : queued) {
+            assertTrue(queue.offer(e, null));
+        }
+        queue.shutdown(1000);
+        assertEquals(queued, sent);
+        assertEquals(20L, queue.getSent());
+    }
+}
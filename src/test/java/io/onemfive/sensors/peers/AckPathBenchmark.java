@@ -0,0 +1,144 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.core.util.FileUtil;
+import io.onemfive.data.NetworkPeer;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acks saved per second by the batched single transaction ack path against the path it replaced,
+ * which read, wrote, and re-read each ack's Known relationship in separate transactions
+ * with Cypher built by concatenation.
+ *
+ * Run with: mvn test-compile exec:exec@jmh -Djmh.include=AckPathBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AckPathBenchmark {
+
+    @Param({"100"})
+    public int peers;
+
+    private File dir;
+    private GraphPeerManager peerManager;
+    private NetworkPeer local;
+    private List<NetworkPeer> remotes;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("ack-bench").toFile();
+        peerManager = new GraphPeerManager();
+        peerManager.setDirectory(dir);
+        peerManager.init(new Properties());
+        local = peerManager.getLocalPeer();
+        local.setAddress("local");
+        peerManager.savePeer(local, true);
+        remotes = new ArrayList<>(peers);
+        List<AckObservation> first = new ArrayList<>(peers);
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < peers; i++) {
+            NetworkPeer p = new NetworkPeer();
+            p.setAddress("peer" + i);
+            remotes.add(p);
+            first.add(new AckObservation(local, p, now - 100, now, null));
+        }
+        // Relate each as Known so every ack measured updates its stats
+        peerManager.savePeerStatusTimes(first);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        peerManager.shutdown();
+        peerManager.getGraphDb().shutdown();
+        FileUtil.rmdir(dir.getAbsolutePath(), false);
+    }
+
+    private NetworkPeer nextPeer() {
+        NetworkPeer p = remotes.get(next);
+        next = (next + 1) % remotes.size();
+        return p;
+    }
+
+    /**
+     * A flush of one ack from each peer as the ack pipeline saves them.
+     */
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public List<AckObservation> batched() {
+        List<AckObservation> batch = new ArrayList<>(100);
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < 100; i++) {
+            batch.add(new AckObservation(local, nextPeer(), now - 100, now, null));
+        }
+        return peerManager.savePeerStatusTimes(batch);
+    }
+
+    /**
+     * An ack saved as before batching.
+     */
+    @Benchmark
+    public boolean legacy() {
+        NetworkPeer endPeer = nextPeer();
+        long now = System.currentTimeMillis();
+        GraphDatabaseService graph = peerManager.getGraphDb();
+        if(!related(graph, endPeer, P2PRelationship.RelType.Known)) {
+            return false;
+        }
+        String match = match(endPeer, P2PRelationship.RelType.Known);
+        P2PRelationship knownRel = new P2PRelationship();
+        try (Transaction tx = graph.beginTx()) {
+            Result result = graph.execute(match + " return r;");
+            if(result.hasNext()) {
+                knownRel.fromMap(((Relationship)result.next().get("r")).getAllProperties());
+            }
+            tx.success();
+        }
+        knownRel.advanceTotalAcks();
+        knownRel.setLastAckTime(now);
+        knownRel.addAckTimeTracked(100);
+        try (Transaction tx = graph.beginTx()) {
+            graph.execute(match +
+                    " SET r.totalAcks = " + knownRel.getTotalAcks() + "," +
+                    " r.lastAckTime = " + knownRel.getLastAckTime() + "," +
+                    " r.avgAckLatencyMS = " + knownRel.getAvgAckLatencyMS() + ";");
+            tx.success();
+        }
+        P2PRelationship k = new P2PRelationship();
+        try (Transaction tx = graph.beginTx()) {
+            Result result = graph.execute(match + " return r;");
+            if(result.hasNext()) {
+                k.fromMap(((Relationship)result.next().get("r")).getAllProperties());
+            }
+            tx.success();
+        }
+        return related(graph, endPeer, P2PRelationship.RelType.Reliable);
+    }
+
+    private String match(NetworkPeer endPeer, P2PRelationship.RelType relType) {
+        return "MATCH (n {address: '" + local.getAddress() + "'})-[r:" + relType.name() + "]->(e {address: '" + endPeer.getAddress() + "'})";
+    }
+
+    // Relationships were looked up in the graph before being indexed
+    private boolean related(GraphDatabaseService graph, NetworkPeer endPeer, P2PRelationship.RelType relType) {
+        try (Transaction tx = graph.beginTx()) {
+            boolean related = graph.execute(match(endPeer, relType) + " RETURN r;").hasNext();
+            tx.success();
+            return related;
+        }
+    }
+}
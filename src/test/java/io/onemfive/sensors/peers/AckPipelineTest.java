@@ -0,0 +1,126 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.data.NetworkPeer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AckPipelineTest {
+
+    /**
+     * Peer manager failing to save the first batches offered to it.
+     */
+    private static class FailingPeerManager extends MappedPeerManager {
+        final AtomicInteger failures;
+        final AtomicInteger saves = new AtomicInteger();
+        final List<AckObservation> saved = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+
+        FailingPeerManager(int failures) {
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public List<AckObservation> savePeerStatusTimes(List<AckObservation> observations) {
+            saves.incrementAndGet();
+            if(failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Transaction failed");
+            }
+            saved.addAll(observations);
+            return new ArrayList<>();
+        }
+
+        @Override
+        public Boolean savePeerStatusFailure(NetworkPeer startPeer, NetworkPeer endPeer, Long timeSent) {
+            failed.add(endPeer.getAddress());
+            return true;
+        }
+    }
+
+    private static NetworkPeer peer(String address) {
+        NetworkPeer p = new NetworkPeer();
+        p.setAddress(address);
+        return p;
+    }
+
+    private static AckObservation ack(String to) {
+        long now = System.currentTimeMillis();
+        return new AckObservation(peer("local"), peer(to), now - 100, now, null);
+    }
+
+    /**
+     * Flush acks of two peers as one batch.
+     */
+    private static void drain(AckPipeline pipeline) {
+        assertTrue(pipeline.offer(ack("a")));
+        assertTrue(pipeline.offer(ack("b")));
+        pipeline.start();
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void failedFlushRetriedOnce() {
+        FailingPeerManager pm = new FailingPeerManager(1);
+        AckPipeline pipeline = new AckPipeline(pm, 10, 50, 10);
+        drain(pipeline);
+        assertEquals(2, pm.saves.get());
+        assertEquals(2, pm.saved.size());
+        assertEquals(0L, pipeline.getDropped());
+        assertEquals(2L, pipeline.getFlushed());
+    }
+
+    @Test
+    public void batchFailingTwiceCountedDropped() {
+        FailingPeerManager pm = new FailingPeerManager(2);
+        AckPipeline pipeline = new AckPipeline(pm, 10, 50, 10);
+        drain(pipeline);
+        assertEquals(2, pm.saves.get());
+        assertTrue(pm.saved.isEmpty());
+        assertEquals(2L, pipeline.getDropped());
+        assertEquals(0L, pipeline.getFlushed());
+    }
+
+    @Test
+    public void fullQueueCountedDropped() {
+        AckPipeline pipeline = new AckPipeline(new FailingPeerManager(0), 1, 50, 10);
+        assertTrue(pipeline.offer(ack("a")));
+        assertFalse(pipeline.offer(ack("b")));
+        assertEquals(1L, pipeline.getDropped());
+    }
+
+    @Test
+    public void acksAndFailuresSavedInOrderReceived() {
+        FailingPeerManager pm = new FailingPeerManager(0);
+        AckPipeline pipeline = new AckPipeline(pm, 10, 50, 10);
+        long now = System.currentTimeMillis();
+        assertTrue(pipeline.offer(AckObservation.failure(peer("local"), peer("a"), now)));
+        assertTrue(pipeline.offer(AckObservation.failure(peer("local"), peer("c"), now)));
+        assertTrue(pipeline.offer(new AckObservation(peer("local"), peer("a"), now - 50, now, null)));
+        assertTrue(pipeline.offer(AckObservation.failure(peer("local"), peer("a"), now + 1)));
+        drain(pipeline);
+        // Pairs only failed are saved with those acked
+        assertEquals(3, pm.saved.size());
+        List<String> events = new ArrayList<>();
+        pm.saved.get(0).replay(new AckObservation.Events() {
+            @Override
+            public void ack(long latencyMS) {
+                events.add("ack " + latencyMS);
+            }
+
+            @Override
+            public void failure(long timeSent) {
+                events.add("failure " + (timeSent - now));
+            }
+        });
+        assertEquals(Arrays.asList("failure 0", "ack 50", "failure 1", "ack 100"), events);
+        assertEquals("c", pm.saved.get(1).getToPeer().getAddress());
+        assertEquals("b", pm.saved.get(2).getToPeer().getAddress());
+        assertTrue(pm.failed.isEmpty());
+        assertEquals(0L, pipeline.getDropped());
+    }
+}
@@ -0,0 +1,105 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.sensors.SensorsConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acks recorded per second by the ring buffer of ack times against the comma separated
+ * string it replaced, which was split and reparsed on every ack and every average read.
+ * Each ack records its latency, reads the average and, as the ack path does, writes the
+ * relationship's properties and reads them back.
+ *
+ * Run with: mvn test-compile exec:exec@jmh -Djmh.include=AckTimesBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AckTimesBenchmark {
+
+    @Param({"20", "1000"})
+    public int maxAT;
+
+    private int defaultMaxAT;
+    private P2PRelationship rel;
+    private String legacy;
+    private long latency = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        defaultMaxAT = SensorsConfig.MaxAT;
+        SensorsConfig.MaxAT = maxAT;
+        rel = new P2PRelationship();
+        legacy = "";
+        // Start full so every ack measured evicts the oldest
+        for(int i = 0; i < maxAT; i++) {
+            rel.addAckTimeTracked(nextLatency());
+            legacy = legacyAdd(legacy, nextLatency());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SensorsConfig.MaxAT = defaultMaxAT;
+    }
+
+    private long nextLatency() {
+        latency = latency % 500 + 1;
+        return latency;
+    }
+
+    @Benchmark
+    public Long ring() {
+        rel.addAckTimeTracked(nextLatency());
+        return rel.getAvgAckLatencyMS();
+    }
+
+    @Benchmark
+    public Long legacyString() {
+        legacy = legacyAdd(legacy, nextLatency());
+        return legacyAvg(legacy);
+    }
+
+    @Benchmark
+    public Long ringSaved() {
+        rel.addAckTimeTracked(nextLatency());
+        Map<String, Object> props = rel.toMap();
+        rel = new P2PRelationship();
+        rel.fromMap(props);
+        return rel.getAvgAckLatencyMS();
+    }
+
+    @Benchmark
+    public Long legacyStringSaved() {
+        legacy = legacyAdd(legacy, nextLatency());
+        // Stored as is and read back as is
+        legacy = new String(legacy.toCharArray());
+        return legacyAvg(legacy);
+    }
+
+    // Ack times as tracked before the ring buffer
+    private static String legacyAdd(String ackTimesTracked, long t) {
+        if(ackTimesTracked == null || ackTimesTracked.isEmpty()) ackTimesTracked = String.valueOf(t);
+        else ackTimesTracked += "," + String.valueOf(t);
+        int curr = ackTimesTracked.split(",").length;
+        while(curr > SensorsConfig.MaxAT) {
+            ackTimesTracked = ackTimesTracked.substring(ackTimesTracked.indexOf(",")+1);
+            curr--;
+        }
+        return ackTimesTracked;
+    }
+
+    private static Long legacyAvg(String ackTimesTracked) {
+        String[] times = ackTimesTracked.split(",");
+        long sum = 0L;
+        for(String t : times) {
+            sum += Long.parseLong(t);
+        }
+        return sum / times.length;
+    }
+}
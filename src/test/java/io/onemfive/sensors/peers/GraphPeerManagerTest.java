@@ -0,0 +1,20 @@
+package io.onemfive.sensors.peers;
+
+public class GraphPeerManagerTest extends PeerManagerContractTest<GraphPeerManager> {
+
+    @Override
+    protected GraphPeerManager create() {
+        return new GraphPeerManager();
+    }
+
+    @Override
+    protected void stop(GraphPeerManager peerManager) {
+        peerManager.shutdown();
+        peerManager.getGraphDb().shutdown();
+    }
+
+    @Override
+    protected boolean snapshots() {
+        return true;
+    }
+}
@@ -0,0 +1,28 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.data.NetworkPeer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MappedPeerManagerTest extends PeerManagerContractTest<MappedPeerManager> {
+
+    @Override
+    protected MappedPeerManager create() {
+        return new MappedPeerManager();
+    }
+
+    @Test
+    public void logCompactedWhileRunning() {
+        NetworkPeer remote = saved("remote");
+        // Each ack supersedes the last record of the relationship's stats
+        int acks = 10000;
+        for(int i = 0; i < acks; i++) {
+            long now = System.currentTimeMillis();
+            peerManager.savePeerStatusTimes(local, remote, now - 10, now);
+        }
+        assertTrue(peerManager.getCompactions() > 0);
+        restart();
+        assertEquals(acks, peerManager.getAckLatencies(local, remote).getCount());
+    }
+}
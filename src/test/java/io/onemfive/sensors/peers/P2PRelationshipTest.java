@@ -0,0 +1,147 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.sensors.SensorsConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class P2PRelationshipTest {
+
+    private int maxAT;
+
+    @Before
+    public void setUp() {
+        maxAT = SensorsConfig.MaxAT;
+        SensorsConfig.MaxAT = 3;
+    }
+
+    @After
+    public void tearDown() {
+        SensorsConfig.MaxAT = maxAT;
+    }
+
+    @Test
+    public void ringKeepsLatestMaxATOldestFirst() {
+        P2PRelationship rel = new P2PRelationship();
+        assertArrayEquals(new long[0], rel.getAckTimesTracked());
+        rel.addAckTimeTracked(10);
+        rel.addAckTimeTracked(20);
+        assertArrayEquals(new long[]{10, 20}, rel.getAckTimesTracked());
+        assertEquals(15L, (long)rel.getAvgAckLatencyMS());
+        for(long t = 30; t <= 70; t += 10) {
+            rel.addAckTimeTracked(t);
+        }
+        // Wrapped around more than once
+        assertArrayEquals(new long[]{50, 60, 70}, rel.getAckTimesTracked());
+        assertEquals(60L, (long)rel.getAvgAckLatencyMS());
+        assertEquals(7L, rel.getAckLatencies().getCount());
+    }
+
+    @Test
+    public void nonPositiveLatenciesIgnored() {
+        P2PRelationship rel = new P2PRelationship();
+        rel.addAckTimeTracked(0);
+        rel.addAckTimeTracked(-5);
+        assertArrayEquals(new long[0], rel.getAckTimesTracked());
+        assertEquals(0L, (long)rel.getAvgAckLatencyMS());
+    }
+
+    @Test
+    public void ewmaWeightsLatestAck() {
+        P2PRelationship rel = new P2PRelationship();
+        rel.addAckTimeTracked(100);
+        assertEquals(100.0, rel.getEwmaAckLatencyMS(), 0.0);
+        rel.addAckTimeTracked(200);
+        assertEquals(100.0 + P2PRelationship.EWMA_ALPHA * 100, rel.getEwmaAckLatencyMS(), 1e-9);
+    }
+
+    @Test
+    public void setKeepsLatestMaxAT() {
+        P2PRelationship rel = new P2PRelationship();
+        rel.setAckTimesTracked(new long[]{1, 2, 3, 4, 5});
+        assertArrayEquals(new long[]{3, 4, 5}, rel.getAckTimesTracked());
+        assertEquals(4L, (long)rel.getAvgAckLatencyMS());
+        rel.addAckTimeTracked(6);
+        assertArrayEquals(new long[]{4, 5, 6}, rel.getAckTimesTracked());
+    }
+
+    @Test
+    public void mapRoundTripKeepsRing() {
+        P2PRelationship rel = new P2PRelationship();
+        for(long t = 10; t <= 50; t += 10) {
+            rel.advanceTotalAcks();
+            rel.addAckTimeTracked(t);
+            rel.recordAck(1000L + t);
+        }
+        rel.setLastAckTime(1050L);
+        P2PRelationship copy = new P2PRelationship();
+        copy.fromMap(rel.toMap());
+        assertArrayEquals(rel.getAckTimesTracked(), copy.getAckTimesTracked());
+        assertEquals(rel.getAvgAckLatencyMS(), copy.getAvgAckLatencyMS());
+        assertEquals(rel.getEwmaAckLatencyMS(), copy.getEwmaAckLatencyMS(), 0.0);
+        assertEquals(rel.getReliabilityScore(), copy.getReliabilityScore(), 1e-9);
+        assertEquals(5L, copy.getAckLatencies().getCount());
+    }
+
+    @Test
+    public void legacyStringMigrated() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("totalAcks", 5L);
+        m.put("lastAckTime", 1000L);
+        m.put("avgAckLatencyMS", 999L);
+        m.put("ackTimesTracked", "10, 20,30,40,50");
+        P2PRelationship rel = new P2PRelationship();
+        rel.fromMap(m);
+        assertArrayEquals(new long[]{30, 40, 50}, rel.getAckTimesTracked());
+        // Recomputed from the latencies kept rather than taken as stored
+        assertEquals(40L, (long)rel.getAvgAckLatencyMS());
+        // Histogram seeded from the latencies kept and all acks decayed from the last
+        assertEquals(3L, rel.getAckLatencies().getCount());
+        assertTrue(rel.getReliabilityScore() > 0.0);
+        // Written back as a long array
+        assertArrayEquals(new long[]{30, 40, 50}, (long[])rel.toMap().get("ackTimesTracked"));
+        rel.addAckTimeTracked(60);
+        assertArrayEquals(new long[]{40, 50, 60}, rel.getAckTimesTracked());
+    }
+
+    @Test
+    public void legacyAverageKeptWithoutLatencies() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("totalAcks", 2L);
+        m.put("lastAckTime", 1000L);
+        m.put("avgAckLatencyMS", 250L);
+        m.put("ackTimesTracked", "");
+        P2PRelationship rel = new P2PRelationship();
+        rel.fromMap(m);
+        assertArrayEquals(new long[0], rel.getAckTimesTracked());
+        assertEquals(250L, (long)rel.getAvgAckLatencyMS());
+    }
+
+    private static P2PRelationship acked(long... latencies) {
+        P2PRelationship rel = new P2PRelationship();
+        for(long t : latencies) {
+            rel.advanceTotalAcks();
+            rel.addAckTimeTracked(t);
+            rel.recordAck(1000L);
+        }
+        return rel;
+    }
+
+    @Test
+    public void scoreOnlyDiscountedByRecentLatencies() {
+        P2PRelationship recovered = acked(60000, 60000, 60000, 60000, 60000, 100, 100, 100);
+        P2PRelationship fast = acked(100, 100, 100, 100, 100, 100, 100, 100);
+        assertEquals(100L, recovered.getTrackedP99());
+        assertEquals(fast.getReliabilityScore(), recovered.getReliabilityScore(), 1e-9);
+        // Still reported
+        assertTrue(recovered.getAckLatencies().getP99() >= 60000L);
+        recovered.addAckTimeTracked(60000);
+        assertEquals(60000L, recovered.getTrackedP99());
+        assertTrue(recovered.getReliabilityScore() < fast.getReliabilityScore());
+    }
+}
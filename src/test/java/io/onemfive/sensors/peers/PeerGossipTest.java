@@ -0,0 +1,105 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.data.NetworkPeer;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PeerGossipTest {
+
+    private static final NetworkPeer A = peer("a");
+    private static final NetworkPeer B = peer("b");
+
+    private static NetworkPeer peer(String address) {
+        NetworkPeer p = new NetworkPeer();
+        p.setAddress(address);
+        return p;
+    }
+
+    private static List<NetworkPeer> peers(String... addresses) {
+        List<NetworkPeer> peers = new ArrayList<>();
+        for(String a : addresses) {
+            peers.add(peer(a));
+        }
+        return peers;
+    }
+
+    private static Set<String> addresses(List<NetworkPeer> peers) {
+        Set<String> addresses = new HashSet<>();
+        for(NetworkPeer p : peers) {
+            addresses.add(p.getAddress());
+        }
+        return addresses;
+    }
+
+    /**
+     * Send a's list to b then b's reply acknowledging it.
+     */
+    private static PeerGossip.Outgoing exchange(PeerGossip a, PeerGossip b, List<NetworkPeer> list) {
+        PeerGossip.Outgoing out = a.toSend(B, list);
+        b.received(A, out.getPeers(), out.getAttribute());
+        PeerGossip.Outgoing reply = b.toSend(A, peers("r"));
+        a.received(B, reply.getPeers(), reply.getAttribute());
+        return out;
+    }
+
+    @Test
+    public void heldIsFullListAfterDelta() {
+        PeerGossip a = new PeerGossip(10);
+        PeerGossip b = new PeerGossip(10);
+        assertTrue(exchange(a, b, peers("p1", "p2", "p3", "p4", "p5")).isFull());
+        assertEquals(addresses(peers("p1", "p2", "p3", "p4", "p5")), addresses(b.held(A)));
+        PeerGossip.Outgoing delta = exchange(a, b, peers("p1", "p2", "p3", "p4", "p6"));
+        assertFalse(delta.isFull());
+        // Only the peer added is carried yet the full list is held
+        assertEquals(addresses(peers("p6")), addresses(delta.getPeers()));
+        assertEquals(addresses(peers("p1", "p2", "p3", "p4", "p6")), addresses(b.held(A)));
+    }
+
+    @Test
+    public void nothingHeldOutOfStep() {
+        PeerGossip a = new PeerGossip(10);
+        PeerGossip b = new PeerGossip(10);
+        assertNull(b.held(A));
+        exchange(a, b, peers("p1", "p2", "p3", "p4", "p5"));
+        PeerGossip.Outgoing delta = a.toSend(B, peers("p1", "p2", "p3", "p4", "p6"));
+        Map<String, Object> attribute = new HashMap<>(delta.getAttribute());
+        attribute.put("base", "1");
+        b.received(A, delta.getPeers(), attribute);
+        assertNull(b.held(A));
+        assertEquals(1L, b.getOutOfStep());
+    }
+
+    @Test
+    public void peersWithoutGossipHeldAsSent() {
+        PeerGossip b = new PeerGossip(10);
+        b.received(A, peers("p1", "p2"), null);
+        assertEquals(addresses(peers("p1", "p2")), addresses(b.held(A)));
+    }
+
+    @Test
+    public void attributeBinaryRoundTrip() {
+        PeerGossip a = new PeerGossip(10);
+        PeerGossip b = new PeerGossip(10);
+        PeerGossip.Outgoing full = a.toSend(B, peers("p1", "p2", "p3", "p4", "p5"));
+        exchange(a, b, peers("p1", "p2", "p3", "p4", "p5"));
+        PeerGossip.Outgoing delta = a.toSend(B, peers("p1", "p2", "p3", "p6"));
+        assertTrue(delta.getAttribute().containsKey("removed"));
+        for(Map<String, Object> attribute : Arrays.asList(full.getAttribute(), delta.getAttribute())) {
+            ByteBuffer buf = ByteBuffer.allocate(256);
+            PeerGossip.writeAttribute(buf, attribute);
+            buf.flip();
+            assertEquals(attribute, PeerGossip.readAttribute(buf));
+            assertFalse(buf.hasRemaining());
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.core.util.FileUtil;
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.sensors.SensorsConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Graph and mapped peer manager backends compared by startup time over a populated store,
+ * heap retained once started, and operations per second on a started store.
+ *
+ * Run with: mvn test-compile exec:exec@jmh -Djmh.include=PeerManagerBenchmark
+ */
+public class PeerManagerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Store {
+
+        @Param({"graph", "mapped"})
+        public String backend;
+
+        @Param({"1000", "10000"})
+        public int peers;
+
+        File dir;
+        int maxPT;
+        BasePeerManager peerManager;
+        NetworkPeer local;
+        List<NetworkPeer> remotes;
+
+        BasePeerManager start() {
+            BasePeerManager pm = "graph".equals(backend) ? new GraphPeerManager() : new MappedPeerManager();
+            pm.setDirectory(dir);
+            pm.init(new Properties());
+            local = pm.getLocalPeer();
+            local.setAddress("local");
+            pm.savePeer(local, true);
+            return pm;
+        }
+
+        void stop(BasePeerManager pm) {
+            pm.shutdown();
+            if(pm instanceof GraphPeerManager) {
+                ((GraphPeerManager)pm).getGraphDb().shutdown();
+            }
+        }
+
+        /**
+         * Populate a store with the peers, each Known to the local peer and a tenth acked to Reliable.
+         */
+        @Setup(Level.Trial)
+        public void populate() throws Exception {
+            // Keep every peer Known rather than evicting beyond the default
+            maxPT = SensorsConfig.MaxPT;
+            SensorsConfig.MaxPT = peers;
+            dir = Files.createTempDirectory("peer-bench").toFile();
+            peerManager = start();
+            remotes = new ArrayList<>(peers);
+            List<NetworkPeer> batch = new ArrayList<>();
+            for(int i = 0; i < peers; i++) {
+                NetworkPeer p = new NetworkPeer();
+                p.setAddress("peer" + i);
+                remotes.add(p);
+                batch.add(p);
+                if(batch.size() == 100) {
+                    peerManager.savePeers(batch.remove(0), batch);
+                    batch.clear();
+                }
+            }
+            long now = System.currentTimeMillis();
+            List<AckObservation> acks = new ArrayList<>();
+            for(int i = 0; i < peers; i += 10) {
+                AckObservation o = new AckObservation(local, remotes.get(i), now - 100, now, null);
+                for(int a = 0; a < 25; a++) {
+                    o.merge(new AckObservation(local, remotes.get(i), now - 100, now, null));
+                }
+                acks.add(o);
+            }
+            peerManager.savePeerStatusTimes(acks);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            stop(peerManager);
+            FileUtil.rmdir(dir.getAbsolutePath(), false);
+            SensorsConfig.MaxPT = maxPT;
+        }
+    }
+
+    /**
+     * Time to open the populated store, printing the heap it retains once open.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    public BasePeerManager startup(Store store) {
+        store.stop(store.peerManager);
+        long before = usedHeap();
+        store.peerManager = store.start();
+        System.out.println(store.backend+" with "+store.peers+" peers retains "+(usedHeap() - before) / 1024+"KB");
+        return store.peerManager;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = 0;
+
+        NetworkPeer next(Store store) {
+            NetworkPeer p = store.remotes.get(next);
+            next = (next + 1) % store.remotes.size();
+            return p;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    @Fork(1)
+    public NetworkPeer findPeer(Store store, Cursor cursor) {
+        return store.peerManager instanceof GraphPeerManager
+                ? ((GraphPeerManager)store.peerManager).findPeerByAddress(cursor.next(store).getAddress())
+                : ((MappedPeerManager)store.peerManager).findPeerByAddress(cursor.next(store).getAddress());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    @Fork(1)
+    public PeerPage getPeersPage(Store store, Cursor cursor) {
+        return store.peerManager.getPeers(store.local, P2PRelationship.RelType.Known, 50,
+                PeerPage.continuationAfter(cursor.next(store).getAddress()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    @Fork(1)
+    public List<NetworkPeer> reliablesToShare(Store store) {
+        return store.peerManager.getReliablesToShare(store.local);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    @Fork(1)
+    public List<AckObservation> saveAck(Store store, Cursor cursor) {
+        long now = System.currentTimeMillis();
+        return store.peerManager.savePeerStatusTimes(Collections.singletonList(
+                new AckObservation(store.local, cursor.next(store), now - 100, now, null)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    @Fork(1)
+    public Boolean savePeers(Store store, Cursor cursor) {
+        NetworkPeer remote = cursor.next(store);
+        return store.peerManager.savePeers(remote, Collections.singletonList(cursor.next(store)));
+    }
+}
@@ -0,0 +1,356 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.sensors.SensorsConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Behavior every peer manager backend must share, run against each by a subclass.
+ */
+public abstract class PeerManagerContractTest<M extends BasePeerManager> {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected M peerManager;
+    protected NetworkPeer local;
+
+    private int maxPT;
+    private int maxLE;
+
+    /**
+     * @return a new, not yet initialized peer manager of the backend under test
+     */
+    protected abstract M create();
+
+    /**
+     * Release everything the peer manager holds on its directory so it can be reopened.
+     */
+    protected void stop(M peerManager) {
+        peerManager.shutdown();
+    }
+
+    /**
+     * @return true if the backend snapshots its peers at shutdown to warm-start a cleaned store
+     */
+    protected boolean snapshots() {
+        return false;
+    }
+
+    @Before
+    public void setUp() {
+        maxPT = SensorsConfig.MaxPT;
+        maxLE = SensorsConfig.MaxLE;
+        start();
+    }
+
+    @After
+    public void tearDown() {
+        stop(peerManager);
+        SensorsConfig.MaxPT = maxPT;
+        SensorsConfig.MaxLE = maxLE;
+    }
+
+    protected void start() {
+        start(new Properties());
+    }
+
+    protected void start(Properties properties) {
+        peerManager = create();
+        peerManager.setDirectory(folder.getRoot());
+        assertTrue(peerManager.init(properties));
+        local = peerManager.getLocalPeer();
+        local.setAddress("local");
+        assertTrue(peerManager.savePeer(local, true));
+    }
+
+    protected void restart() {
+        restart(new Properties());
+    }
+
+    protected void restart(Properties properties) {
+        stop(peerManager);
+        start(properties);
+    }
+
+    protected static NetworkPeer peer(String address) {
+        NetworkPeer p = new NetworkPeer();
+        p.setAddress(address);
+        return p;
+    }
+
+    /**
+     * @return the peer saved and so related as Known to the local peer
+     */
+    protected NetworkPeer saved(String address) {
+        NetworkPeer p = peer(address);
+        assertTrue(peerManager.savePeer(p, true));
+        return p;
+    }
+
+    /**
+     * Observation of the supplied number of acks of the peer each taking latencyMS.
+     */
+    protected AckObservation acks(NetworkPeer to, int count, long latencyMS) {
+        long now = System.currentTimeMillis();
+        AckObservation o = new AckObservation(local, to, now - latencyMS, now, null);
+        for(int i = 1; i < count; i++) {
+            o.merge(new AckObservation(local, to, now - latencyMS, now, null));
+        }
+        return o;
+    }
+
+    private long known() {
+        return peerManager.totalPeers(local, P2PRelationship.RelType.Known);
+    }
+
+    private long reliable() {
+        return peerManager.totalPeers(local, P2PRelationship.RelType.Reliable);
+    }
+
+    @Test
+    public void savePeerRelatesKnown() {
+        assertTrue(peerManager.savePeer(peer("a"), true));
+        assertEquals(1L, known());
+        assertEquals("a", peerManager.getRandomPeer(local).getAddress());
+    }
+
+    @Test
+    public void savePeersRelatesRemotesKnown() {
+        NetworkPeer remote = peer("remote");
+        assertTrue(peerManager.savePeers(remote, Arrays.asList(peer("a"), peer("b"), peer("local"))));
+        assertEquals(3L, known());
+        assertEquals(2L, (long)peerManager.totalPeers(remote, P2PRelationship.RelType.Known));
+    }
+
+    @Test
+    public void pagesVisitEachPeerOnceInOrder() {
+        for(int i = 0; i < 25; i++) {
+            peerManager.savePeer(peer(String.format("p%02d", i)), true);
+        }
+        List<String> visited = new ArrayList<>();
+        Iterator<NetworkPeer> it = peerManager.iteratePeers(local, P2PRelationship.RelType.Known, 10);
+        while(it.hasNext()) {
+            visited.add(it.next().getAddress());
+        }
+        List<String> sorted = new ArrayList<>(visited);
+        Collections.sort(sorted);
+        assertEquals(25, visited.size());
+        assertEquals(25, new HashSet<>(visited).size());
+        assertEquals(sorted, visited);
+        PeerPage first = peerManager.getPeers(local, P2PRelationship.RelType.Known, 10, null);
+        assertEquals(10, first.getPeers().size());
+        assertTrue(first.hasMore());
+    }
+
+    @Test
+    public void acksPromoteToReliable() {
+        NetworkPeer remote = saved("remote");
+        AckObservation o = acks(remote, SensorsConfig.MinAckRP + 3, 100);
+        assertEquals(Collections.singletonList(o), peerManager.savePeerStatusTimes(Collections.singletonList(o)));
+        assertEquals(1L, reliable());
+        assertEquals(SensorsConfig.MinAckRP + 3, peerManager.getAckLatencies(local, remote).getCount());
+        assertEquals(Collections.singletonList(remote.getAddress()), addresses(peerManager.getReliablesToShare(local)));
+    }
+
+    @Test
+    public void reliablesBeyondMaxPSGossipedAsDeltas() {
+        List<AckObservation> batch = new ArrayList<>();
+        for(int i = 0; i < SensorsConfig.MaxPS * 3; i++) {
+            batch.add(acks(saved("reliable" + i), SensorsConfig.MinAckRP + 3, 100));
+        }
+        peerManager.savePeerStatusTimes(batch);
+        assertEquals(SensorsConfig.MaxPS * 3L, reliable());
+        NetworkPeer a = peer("a");
+        List<String> toA = addresses(peerManager.getReliablesToShare(local, a));
+        assertEquals(SensorsConfig.MaxPS, toA.size());
+        assertEquals(toA, addresses(peerManager.getReliablesToShare(local, a)));
+        assertNotEquals(toA, addresses(peerManager.getReliablesToShare(local, peer("b"))));
+        // Each list after the first acknowledged is sent as a delta
+        PeerGossip sender = new PeerGossip(10);
+        PeerGossip receiver = new PeerGossip(10);
+        for(int i = 0; i < 3; i++) {
+            PeerGossip.Outgoing out = sender.toSend(a, peerManager.getReliablesToShare(local, a));
+            assertEquals(i == 0, out.isFull());
+            receiver.received(local, out.getPeers(), out.getAttribute());
+            assertEquals(new HashSet<>(toA), new HashSet<>(addresses(receiver.held(local))));
+            PeerGossip.Outgoing reply = receiver.toSend(local, Collections.singletonList(peer("r")));
+            sender.received(a, reply.getPeers(), reply.getAttribute());
+        }
+    }
+
+    @Test
+    public void batchMatchesAckByAck() {
+        List<AckObservation> batch = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            batch.add(acks(saved("batch" + i), 5, 50 + i * 10));
+        }
+        peerManager.savePeerStatusTimes(batch);
+        for(int i = 0; i < 10; i++) {
+            NetworkPeer p = saved("single" + i);
+            long now = System.currentTimeMillis();
+            for(int a = 0; a < 5; a++) {
+                peerManager.savePeerStatusTimes(local, p, now - (50 + i * 10), now);
+            }
+        }
+        for(int i = 0; i < 10; i++) {
+            LatencyHistogram batched = peerManager.getAckLatencies(local, peer("batch" + i));
+            LatencyHistogram single = peerManager.getAckLatencies(local, peer("single" + i));
+            assertEquals(single.getCount(), batched.getCount());
+            assertEquals(single.getP99(), batched.getP99());
+        }
+    }
+
+    @Test
+    public void failuresDemoteFromReliable() {
+        NetworkPeer remote = saved("remote");
+        peerManager.savePeerStatusTimes(Collections.singletonList(acks(remote, SensorsConfig.MinAckRP + 3, 100)));
+        assertEquals(1L, reliable());
+        for(int i = 0; i < SensorsConfig.MinAckRP; i++) {
+            assertTrue(peerManager.savePeerStatusFailure(local, remote, System.currentTimeMillis()));
+        }
+        assertEquals(0L, reliable());
+        assertEquals(1L, known());
+        assertFalse(peerManager.savePeerStatusFailure(local, peer("unknown"), System.currentTimeMillis()));
+    }
+
+    @Test
+    public void bansPersist() {
+        NetworkPeer remote = peer("remote");
+        peerManager.savePeer(remote, true);
+        assertTrue(peerManager.banPeer(remote));
+        assertTrue(peerManager.isBanned(remote));
+        assertEquals(0L, known());
+        assertFalse(peerManager.savePeer(remote, true));
+        restart();
+        assertTrue(peerManager.isBanned(remote));
+        assertEquals(0L, known());
+    }
+
+    @Test
+    public void knownPeersBoundedByMaxPT() {
+        SensorsConfig.MaxPT = 5;
+        for(int i = 0; i < 8; i++) {
+            peerManager.savePeer(peer("p" + i), true);
+        }
+        assertEquals(5L, known());
+    }
+
+    @Test
+    public void listedPeersEvictAtMostMaxLE() {
+        SensorsConfig.MaxPT = 5;
+        SensorsConfig.MaxLE = 2;
+        restart();
+        for(int i = 0; i < 5; i++) {
+            saved("p" + i);
+        }
+        List<NetworkPeer> listed = new ArrayList<>();
+        for(int i = 0; i < 6; i++) {
+            listed.add(peer("l" + i));
+        }
+        NetworkPeer remote = peer("remote");
+        assertTrue(peerManager.savePeers(remote, listed));
+        // The remote peer in contact is always made room for, its listed peers only evict MaxLE
+        assertEquals(5L, known());
+        assertEquals(4L, peerManager.getListedRefused());
+        assertEquals(6L, (long)peerManager.totalPeers(remote, P2PRelationship.RelType.Known));
+        Set<String> known = new HashSet<>(addresses(peerManager.getPeers(local, P2PRelationship.RelType.Known, 10, null).getPeers()));
+        assertTrue(known.containsAll(Arrays.asList("remote", "l0", "l1")));
+        // None left to evict this minute
+        assertTrue(peerManager.savePeers(remote, Arrays.asList(peer("l6"), peer("l7"))));
+        assertEquals(6L, peerManager.getListedRefused());
+        assertFalse(new HashSet<>(addresses(peerManager.getPeers(local, P2PRelationship.RelType.Known, 10, null).getPeers())).contains("l6"));
+    }
+
+    @Test
+    public void peersAndStatsSurviveRestart() {
+        NetworkPeer remote = peer("remote");
+        peerManager.savePeers(remote, Arrays.asList(peer("a"), peer("b")));
+        peerManager.savePeerStatusTimes(Collections.singletonList(acks(remote, SensorsConfig.MinAckRP + 3, 100)));
+        restart();
+        assertEquals(3L, known());
+        assertEquals(1L, reliable());
+        assertEquals(2L, (long)peerManager.totalPeers(remote, P2PRelationship.RelType.Known));
+        // Already Known so every ack counts
+        assertEquals(SensorsConfig.MinAckRP + 3, peerManager.getAckLatencies(local, remote).getCount());
+    }
+
+    @Test
+    public void cleanedStoreRestoredFromSnapshot() {
+        assumeTrue(snapshots());
+        NetworkPeer remote = peer("remote");
+        peerManager.savePeers(remote, Arrays.asList(peer("a"), peer("b")));
+        peerManager.savePeerStatusTimes(Collections.singletonList(acks(remote, SensorsConfig.MinAckRP + 3, 100)));
+        Properties clean = new Properties();
+        clean.setProperty("onemfive.sensors.db.cleanOnRestart", "true");
+        restart(clean);
+        assertEquals(3L, known());
+        assertEquals(1L, reliable());
+        assertEquals(2L, (long)peerManager.totalPeers(remote, P2PRelationship.RelType.Known));
+        assertEquals(SensorsConfig.MinAckRP + 3, peerManager.getAckLatencies(local, remote).getCount());
+        // Restored once so acks since are not overwritten by it on a later restart
+        peerManager.savePeerStatusTimes(Collections.singletonList(acks(remote, 2, 100)));
+        restart();
+        assertEquals(SensorsConfig.MinAckRP + 5, peerManager.getAckLatencies(local, remote).getCount());
+    }
+
+    @Test
+    public void pruneRemovesPeersNotSeenSince() {
+        peerManager.savePeers(peer("remote"), Arrays.asList(peer("a"), peer("b")));
+        NetworkPeer banned = peer("banned");
+        peerManager.savePeer(banned, true);
+        peerManager.banPeer(banned);
+        long deadline = System.currentTimeMillis() + 60 * 1000L;
+        assertTrue(peerManager.prune(System.currentTimeMillis() - 60 * 60 * 1000L, deadline).isEmpty());
+        Set<String> pruned = new HashSet<>(addresses(peerManager.prune(System.currentTimeMillis() + 1000L, deadline)));
+        assertEquals(new HashSet<>(Arrays.asList("remote", "a", "b")), pruned);
+        assertEquals(0L, known());
+        assertTrue(peerManager.isBanned(banned));
+    }
+
+    @Test
+    public void lowestLatencyPathGoesThroughFastestPeer() {
+        NetworkPeer fast = peer("fast");
+        NetworkPeer slow = peer("slow");
+        NetworkPeer target = peer("target");
+        peerManager.savePeers(fast, Collections.singletonList(target));
+        peerManager.savePeers(slow, Collections.singletonList(target));
+        peerManager.savePeerStatusTimes(Arrays.asList(acks(fast, 3, 10), acks(slow, 3, 1000)));
+        long now = System.currentTimeMillis();
+        peerManager.savePeerStatusTimes(Arrays.asList(
+                new AckObservation(fast, target, now - 10, now, null),
+                new AckObservation(fast, target, now - 10, now, null),
+                new AckObservation(slow, target, now - 10, now, null),
+                new AckObservation(slow, target, now - 10, now, null)));
+        // Relaying through the fast peer beats both the slow peer and the unacked direct relationship
+        assertEquals(Arrays.asList("fast", "target"), addresses(peerManager.findLowestLatencyPath(target, 3)));
+        assertEquals(Collections.singletonList("target"), addresses(peerManager.findLowestLatencyPath(target, 1)));
+        peerManager.removeRelationship(local, target, P2PRelationship.RelType.Known);
+        assertTrue(peerManager.findLowestLatencyPath(target, 1).isEmpty());
+        assertEquals(Arrays.asList("fast", "target"), addresses(peerManager.findLowestLatencyPath(target, 3)));
+    }
+
+    protected static List<String> addresses(List<NetworkPeer> peers) {
+        List<String> addresses = new ArrayList<>();
+        for(NetworkPeer p : peers) {
+            addresses.add(p.getAddress());
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,69 @@
+package io.onemfive.sensors.peers;
+
+import io.onemfive.data.NetworkPeer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PendingRequestsTest {
+
+    private final AckPipeline ackPipeline = new AckPipeline(new MappedPeerManager(), 10, 50, 10);
+    private final List<String> retransmitted = Collections.synchronizedList(new ArrayList<>());
+    private PendingRequests<String> pending;
+
+    @After
+    public void tearDown() {
+        pending.shutdown();
+    }
+
+    private static NetworkPeer peer(String address) {
+        NetworkPeer p = new NetworkPeer();
+        p.setAddress(address);
+        return p;
+    }
+
+    @Test
+    public void responseSampledOnlyIfSentOnce() {
+        pending = new PendingRequests<>(ackPipeline, retransmitted::add, 1000, 100, 4000, 2, 10);
+        pending.track("1", peer("local"), peer("a"), "1");
+        assertTrue(pending.acknowledged("1") >= 0);
+        assertTrue(pending.srtt("a") >= 0);
+        assertEquals(-1L, pending.acknowledged("1"));
+    }
+
+    @Test
+    public void timeoutRetransmitsAndHandsFailureToAckPipeline() throws Exception {
+        // Backed off to the min RTO so the retransmission does not time out while checked
+        pending = new PendingRequests<>(ackPipeline, retransmitted::add, 100, 2000, 4000, 1, 10);
+        pending.start();
+        pending.track("1", peer("local"), peer("a"), "1");
+        long deadline = System.currentTimeMillis() + 2000;
+        while(retransmitted.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(Collections.singletonList("1"), retransmitted);
+        assertEquals(1, ackPipeline.getQueueDepth());
+        assertEquals(2000L, pending.rto("a"));
+        // Ambiguous which transmission the response is to so not measured
+        assertEquals(-1L, pending.acknowledged("1"));
+        assertEquals(-1L, pending.srtt("a"));
+    }
+
+    @Test
+    public void estimatorsBoundedByMaxTracked() {
+        pending = new PendingRequests<>(ackPipeline, retransmitted::add, 1000, 100, 4000, 2, 2);
+        for(String address : new String[]{"a", "b", "c"}) {
+            pending.track(address, peer("local"), peer(address), address);
+            pending.acknowledged(address);
+        }
+        assertEquals(-1L, pending.srtt("a"));
+        assertTrue(pending.srtt("b") >= 0);
+        assertTrue(pending.srtt("c") >= 0);
+        assertEquals(1000L, pending.rto("a"));
+    }
+}
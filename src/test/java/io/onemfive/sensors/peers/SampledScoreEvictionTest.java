@@ -0,0 +1,38 @@
+package io.onemfive.sensors.peers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampledScoreEvictionTest {
+
+    @Test
+    public void failingPeerEvictedBeforeNewPeer() {
+        SampledScoreEviction eviction = new SampledScoreEviction();
+        eviction.add("stale");
+        eviction.failed("stale", 0.2);
+        eviction.add("new");
+        assertEquals("stale", eviction.evict());
+        assertEquals("new", eviction.evict());
+        assertNull(eviction.evict());
+    }
+
+    @Test
+    public void newPeerEvictedBeforeReliablePeer() {
+        SampledScoreEviction eviction = new SampledScoreEviction();
+        eviction.add("reliable");
+        eviction.acked("reliable", SampledScoreEviction.ADDED_SCORE * 10);
+        eviction.add("new");
+        assertEquals("new", eviction.evict());
+    }
+
+    @Test
+    public void addingTrackedPeerKeepsItsScore() {
+        SampledScoreEviction eviction = new SampledScoreEviction();
+        eviction.add("stale");
+        eviction.failed("stale", 0.2);
+        eviction.add("new");
+        eviction.add("stale");
+        assertEquals("stale", eviction.evict());
+    }
+}